@@ -0,0 +1,38 @@
+package benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * @author Alberto Delgado on 5/3/22
+ * @project dsd-pub-sub
+ * <p>
+ * Helpers shared by the benchmarks
+ */
+public class BenchmarkUtils {
+
+    // Removes a directory and everything in it (segments written by a benchmark)
+    public static void deleteDirectory(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) deleteDirectory(file);
+        }
+        dir.delete();
+    }
+
+    // Accepts a single connection and discards whatever is sent over it
+    public static void discardAll(ServerSocket server) {
+        Thread sink = new Thread(() -> {
+            try (Socket socket = server.accept(); InputStream in = socket.getInputStream()) {
+                byte[] discard = new byte[64 * 1024];
+                while (in.read(discard) >= 0) ;
+            } catch (IOException ignored) {
+            }
+        });
+        sink.setDaemon(true);
+        sink.start();
+    }
+}
@@ -0,0 +1,85 @@
+package benchmark;
+
+import common.BufferPool;
+import common.Connection;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Alberto Delgado on 5/3/22
+ * @project dsd-pub-sub
+ * <p>
+ * Length prefixed framing of Connection over loopback: one way sends,
+ * and round trips against an echo thread receiving into a new array
+ * (receive) or into a pooled buffer (receiveInto).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConnectionBenchmark {
+    @Param({"100", "10000"})
+    private int frameSize;
+
+    private ServerSocket sinkServer;
+    private ServerSocket echoServer;
+    private Connection sink;
+    private Connection echo;
+    private byte[] frame;
+    private final BufferPool pool = new BufferPool(1024 * 1024, 16 * 1024 * 1024);
+
+    @Setup
+    public void setup() throws IOException {
+        frame = new byte[frameSize];
+
+        sinkServer = new ServerSocket(0);
+        BenchmarkUtils.discardAll(sinkServer);
+        sink = new Connection("localhost", sinkServer.getLocalPort());
+
+        echoServer = new ServerSocket(0);
+        Thread echoThread = new Thread(() -> {
+            try {
+                Connection conn = new Connection(echoServer.accept());
+                byte[] data;
+                while ((data = conn.receive()) != null) conn.send(data);
+            } catch (IOException ignored) {
+            }
+        });
+        echoThread.setDaemon(true);
+        echoThread.start();
+        echo = new Connection("localhost", echoServer.getLocalPort());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        sink.close();
+        echo.close();
+        sinkServer.close();
+        echoServer.close();
+    }
+
+    @Benchmark
+    public void send() throws IOException {
+        sink.send(frame);
+    }
+
+    @Benchmark
+    public byte[] roundTrip() throws IOException {
+        echo.send(frame);
+        return echo.receive();
+    }
+
+    @Benchmark
+    public int roundTripPooled() throws IOException {
+        echo.send(frame);
+        BufferPool.Buffer buffer = echo.receiveInto(pool);
+        int received = buffer.nioBuffer().remaining();
+        buffer.release();
+        return received;
+    }
+}
@@ -0,0 +1,83 @@
+package benchmark;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.openjdk.jmh.annotations.*;
+import protos.Kafka;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Alberto Delgado on 5/3/22
+ * @project dsd-pub-sub
+ * <p>
+ * Encoding and decoding of a published record, and of a fetch response
+ * batching many of them. Decoding from a direct buffer is what the broker
+ * does with requests read into pooled buffers.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProtobufBenchmark {
+    @Param({"100", "10000"})
+    private int valueSize;
+
+    private Kafka.Record record;
+    private Kafka.Record batch;
+    private byte[] encodedRecord;
+    private byte[] encodedBatch;
+    private ByteBuffer directRecord;
+
+    @Setup
+    public void setup() {
+        record = Kafka.Record.newBuilder()
+                .setType("PRODUCER_PUBLISH")
+                .setRole(Kafka.Record.Role.PRODUCER)
+                .setTopic("benchmark")
+                .setKey(ByteString.copyFromUtf8("key-42"))
+                .setValue(ByteString.copyFrom(new byte[valueSize]))
+                .setTimestamp(System.currentTimeMillis())
+                .setOffset(123456)
+                .build();
+
+        Kafka.Record.Builder batchBuilder = Kafka.Record.newBuilder().setType("CONSUMER_FETCH");
+        for (int i = 0; i < 100; i++) batchBuilder.addRecords(record);
+        batch = batchBuilder.build();
+
+        encodedRecord = record.toByteArray();
+        encodedBatch = batch.toByteArray();
+        directRecord = ByteBuffer.allocateDirect(encodedRecord.length);
+        directRecord.put(encodedRecord).flip();
+    }
+
+    @Benchmark
+    public byte[] encodeRecord() {
+        return record.toByteArray();
+    }
+
+    @Benchmark
+    public Kafka.Record decodeRecord() throws InvalidProtocolBufferException {
+        return Kafka.Record.parseFrom(encodedRecord);
+    }
+
+    @Benchmark
+    public Kafka.Record decodeRecordDirect() throws IOException {
+        return Kafka.Record.parseFrom(CodedInputStream.newInstance(directRecord.duplicate()));
+    }
+
+    @Benchmark
+    public byte[] encodeBatch() {
+        return batch.toByteArray();
+    }
+
+    @Benchmark
+    public Kafka.Record decodeBatch() throws InvalidProtocolBufferException {
+        return Kafka.Record.parseFrom(encodedBatch);
+    }
+}
@@ -0,0 +1,86 @@
+package benchmark;
+
+import broker.ConnectionHelpers;
+import com.google.protobuf.ByteString;
+import common.Connection;
+import org.openjdk.jmh.annotations.*;
+import protos.Kafka;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Alberto Delgado on 5/2/22
+ * @project dsd-pub-sub
+ * <p>
+ * Per publish work of the broker after storing the record: ack to the
+ * producer and replication. Each one against the way it used to be done
+ * (building a record and encoding it to a new array). Run with -prof gc,
+ * gc.alloc.rate.norm is the bytes allocated per publish.
+ * <p>
+ * Frames are sent over loopback to a thread that discards them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PublishPathBenchmark {
+    @Param({"100", "1000"})
+    private int valueSize;
+
+    private ServerSocket server;
+    private Connection conn;
+    private Kafka.Record record;
+
+    @Setup
+    public void setup() throws IOException {
+        server = new ServerSocket(0);
+        BenchmarkUtils.discardAll(server);
+        conn = new Connection("localhost", server.getLocalPort());
+
+        record = Kafka.Record.newBuilder()
+                .setType("PRODUCER_PUBLISH")
+                .setRole(Kafka.Record.Role.PRODUCER)
+                .setTopic("benchmark")
+                .setKey(ByteString.copyFromUtf8("key-42"))
+                .setValue(ByteString.copyFrom(new byte[valueSize]))
+                .setTimestamp(System.currentTimeMillis())
+                .build();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        conn.close();
+        server.close();
+    }
+
+    @Benchmark
+    public void ackBuilt() {
+        Kafka.Record ack = Kafka.Record.newBuilder()
+                .setKey(record.getKey())
+                .build();
+        ConnectionHelpers.sendRecord(conn, ack);
+    }
+
+    @Benchmark
+    public void ackPreEncoded() {
+        ConnectionHelpers.ack(conn, record);
+    }
+
+    @Benchmark
+    public void replicateBuilt() throws IOException {
+        Kafka.Record replica = Kafka.Record.newBuilder(record)
+                .setRole(Kafka.Record.Role.BROKER)
+                .build();
+        conn.send(replica.toByteArray());
+    }
+
+    @Benchmark
+    public void replicateEncoded() throws IOException {
+        int length = ConnectionHelpers.encode(record, ConnectionHelpers.BROKER_ROLE);
+        conn.send(ConnectionHelpers.encodeBuffer(length), 0, length);
+    }
+}
@@ -0,0 +1,84 @@
+package benchmark;
+
+import common.SerializeableItems;
+import common.Serializer;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Alberto Delgado on 5/3/22
+ * @project dsd-pub-sub
+ * <p>
+ * Serializers available to producers and consumers. Deserializing from a
+ * buffer is what lazy consumer records do.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SerializerBenchmark {
+    @Param({"16", "1024"})
+    private int length; // characters of the string, bytes of the buffer
+
+    private Serializer<String> strings;
+    private Serializer<Integer> integers;
+    private Serializer<ByteBuffer> bytes;
+    private String string;
+    private byte[] serializedString;
+    private ByteBuffer stringBuffer;
+    private byte[] serializedInteger;
+    private ByteBuffer buffer;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        strings = (Serializer<String>) Serializer.get(SerializeableItems.STRING.name());
+        integers = (Serializer<Integer>) Serializer.get(SerializeableItems.INTEGER.name());
+        bytes = (Serializer<ByteBuffer>) Serializer.get(SerializeableItems.BYTES.name());
+
+        string = "x".repeat(length);
+        serializedString = strings.serialize(string);
+        stringBuffer = ByteBuffer.wrap(serializedString);
+        serializedInteger = integers.serialize(123456789);
+        buffer = ByteBuffer.allocate(length);
+    }
+
+    @Benchmark
+    public byte[] serializeString() {
+        return strings.serialize(string);
+    }
+
+    @Benchmark
+    public String deserializeString() {
+        return strings.deserialize(serializedString);
+    }
+
+    @Benchmark
+    public String deserializeStringBuffer() {
+        return strings.deserialize(stringBuffer);
+    }
+
+    @Benchmark
+    public byte[] serializeInteger() {
+        return integers.serialize(123456789);
+    }
+
+    @Benchmark
+    public Integer deserializeInteger() {
+        return integers.deserialize(serializedInteger);
+    }
+
+    @Benchmark
+    public byte[] serializeBytes() {
+        return bytes.serialize(buffer);
+    }
+
+    @Benchmark
+    public ByteBuffer deserializeBytes() {
+        return bytes.deserialize(buffer);
+    }
+}
@@ -0,0 +1,65 @@
+package broker;
+
+import benchmark.BenchmarkUtils;
+import com.google.protobuf.ByteString;
+import org.openjdk.jmh.annotations.*;
+import protos.Kafka;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author Alberto Delgado on 5/3/22
+ * @project dsd-pub-sub
+ * <p>
+ * Stores records from several threads at once, as connection threads
+ * do with concurrent producers. Includes persisting each full batch.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BrokerDataStoreBenchmark {
+    @Param({"1", "8"})
+    private int topics; // producers spread over this many topics
+
+    private SegmentHandler segmentHandler;
+    private BrokerDataStore dataStore;
+    private final AtomicLong timestamps = new AtomicLong(); // store skips duplicated timestamps
+    private final ByteString value = ByteString.copyFrom(new byte[256]);
+
+    @Setup
+    public void setup() {
+        segmentHandler = new SegmentHandler("jmh-" + System.nanoTime() + "/");
+        dataStore = new BrokerDataStore(segmentHandler);
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkUtils.deleteDirectory(new File(segmentHandler.getDir()));
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void storeRecord() {
+        store();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void storeRecordContended() {
+        store();
+    }
+
+    private void store() {
+        long timestamp = timestamps.incrementAndGet();
+        dataStore.storeRecord(Kafka.Record.newBuilder()
+                .setTopic("benchmark-" + timestamp % topics)
+                .setValue(value)
+                .setTimestamp(timestamp)
+                .build());
+    }
+}
@@ -0,0 +1,83 @@
+package broker;
+
+import benchmark.BenchmarkUtils;
+import com.google.protobuf.ByteString;
+import org.openjdk.jmh.annotations.*;
+import protos.Kafka;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Alberto Delgado on 5/3/22
+ * @project dsd-pub-sub
+ * <p>
+ * Appends to and reads from a topic of a given size. Reads of the tail
+ * are what caught up consumers do (served by the record cache), reads of
+ * the head what a consumer or follower starting from scratch does.
+ * <p>
+ * In package broker since SegmentHandler is package private.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SegmentHandlerBenchmark {
+    private static final String TOPIC = "benchmark";
+    private static final int VALUE_SIZE = 1024;
+    private static final int BATCH = 10; // records read per get
+
+    @Param({"1000", "50000"})
+    private int topicSize; // records in the topic before measuring
+
+    private String dir;
+    private SegmentHandler segmentHandler;
+    private List<Kafka.Record> record;
+    private int headOffset; // offset a few records into the topic
+    private long timestamp = 0;
+
+    @Setup
+    public void setup() {
+        dir = "jmh-" + System.nanoTime() + "/";
+        segmentHandler = new SegmentHandler(dir);
+        for (int i = 0; i < topicSize; i++) segmentHandler.add(TOPIC, next());
+
+        headOffset = VALUE_SIZE * BATCH;
+        record = next();
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkUtils.deleteDirectory(new File(segmentHandler.getDir()));
+    }
+
+    @Benchmark
+    public void add() {
+        segmentHandler.add(TOPIC, record);
+    }
+
+    @Benchmark
+    public List<Kafka.Record> getTail() {
+        int last = segmentHandler.lastOffset(TOPIC);
+        return segmentHandler.get(TOPIC, last - VALUE_SIZE * BATCH, BATCH);
+    }
+
+    @Benchmark
+    public List<Kafka.Record> getHead() {
+        return segmentHandler.get(TOPIC, headOffset, BATCH);
+    }
+
+    // a new record, one per call so timestamps differ
+    private List<Kafka.Record> next() {
+        return Collections.singletonList(Kafka.Record.newBuilder()
+                .setTopic(TOPIC)
+                .setKey(ByteString.copyFromUtf8("key-" + timestamp % 100))
+                .setValue(ByteString.copyFrom(new byte[VALUE_SIZE]))
+                .setTimestamp(timestamp++)
+                .build());
+    }
+}
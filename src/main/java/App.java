@@ -1,4 +1,5 @@
 import broker.Broker;
+import common.Log;
 import common.Properties;
 import consumer.Consumer;
 import models.*;
@@ -47,7 +48,7 @@ public class App {
         Demo.parseArgs(args);
 
         Config config = ConfigReader.get(CONFIG_FILENAME);
-        System.out.println(config.toString());
+        Log.info("{}", config);
 
         BrokerConfig brokerConfig = config.brokerConfig;
         BrokerConfig leaderConfig = config.leaderConfig;
@@ -82,9 +83,9 @@ public class App {
         int brokerPort = brokerConfig.brokerPort;
         int zkPort = brokerConfig.zkPort;
         if (brokerPort == 0 || zkPort == 0) {
-            System.out.println("[BROKER] You must specify a port.");
+            Log.error("[BROKER] You must specify a port.");
         } else {
-            System.out.println("[BROKER] Creating broker in port " + brokerPort + ".");
+            Log.info("[BROKER] Creating broker in port {}.", brokerPort);
             runBroker(brokerConfig, leaderConfig);
         }
     }
@@ -108,19 +109,19 @@ public class App {
         String end = " Aborting producer creation.";
 
         if (hostname == null) {
-            System.out.println(tag + "You must specify a hostname." + end);
+            Log.error("{}You must specify a hostname.{}", tag, end);
         } else if (port == 0) {
-            System.out.println(tag + "You must specify a port number." + end);
+            Log.error("{}You must specify a port number.{}", tag, end);
         } else if (localPort == 0) {
-            System.out.println(tag + "You must specify a local port number." + end);
+            Log.error("{}You must specify a local port number.{}", tag, end);
         } else if (keySerializer == null) {
-            System.out.println(tag + "You must specify a key serializer." + end);
+            Log.error("{}You must specify a key serializer.{}", tag, end);
         } else if (valueSerializer == null) {
-            System.out.println(tag + "You must specify a value serializer." + end);
+            Log.error("{}You must specify a value serializer.{}", tag, end);
         } else if (topics.isEmpty()) {
-            System.out.println(tag + "You must specify at least one topic" + end);
+            Log.error("{}You must specify at least one topic{}", tag, end);
         } else {
-            System.out.println(tag + "New producer: \n" + producerConfig);
+            Log.info("{}New producer: \n{}", tag, producerConfig);
             runProducer(id,
                     hostname,
                     port,
@@ -148,28 +149,29 @@ public class App {
         String pollMethodConsumer = consumerConfig.pollMethodConsumer;
         int timeout = consumerConfig.timeout;
         int offset = consumerConfig.offset;
+        String groupId = consumerConfig.groupId;
 
         String tag = "[CONSUMER] ";
         String end = " Aborting consumer creation.";
 
         if (hostname == null) {
-            System.out.println(tag + "You must specify a hostname." + end);
+            Log.error("{}You must specify a hostname.{}", tag, end);
         } else if (port == 0) {
-            System.out.println(tag + "You must specify a port number." + end);
+            Log.error("{}You must specify a port number.{}", tag, end);
         } else if (localPort == 0) {
-            System.out.println(tag + "You must specify a local port number." + end);
+            Log.error("{}You must specify a local port number.{}", tag, end);
         } else if (keySerializer == null) {
-            System.out.println(tag + "You must specify a key serializer." + end);
+            Log.error("{}You must specify a key serializer.{}", tag, end);
         } else if (valueSerializer == null) {
-            System.out.println(tag + "You must specify a value serializer." + end);
+            Log.error("{}You must specify a value serializer.{}", tag, end);
         } else if (topics.isEmpty()) {
-            System.out.println(tag + "You must specify at least one topic" + end);
+            Log.error("{}You must specify at least one topic{}", tag, end);
         } else if (pollMethodConsumer == null) {
-            System.out.println(tag + "You must specify a polling method" + end);
+            Log.error("{}You must specify a polling method{}", tag, end);
         } else if (timeout == 0) {
-            System.out.println(tag + "You must specify a timeout" + end);
+            Log.error("{}You must specify a timeout{}", tag, end);
         } else {
-            System.out.println(tag + "New consumer: \n" + consumerConfig);
+            Log.info("{}New consumer: \n{}", tag, consumerConfig);
             runConsumer(
                     consumerConfig.id,
                     hostname,
@@ -180,7 +182,8 @@ public class App {
                     valueSerializer,
                     pollMethodConsumer,
                     timeout,
-                    offset
+                    offset,
+                    groupId
             );
         }
     }
@@ -189,8 +192,9 @@ public class App {
      * Initiates a Broker
      */
     private static void runBroker(BrokerConfig brokerConfig, BrokerConfig leaderConfig) {
-        Broker broker = new Broker(brokerConfig.id, brokerConfig.brokerPort);
+        Broker broker = new Broker(brokerConfig.id, brokerConfig.brokerPort, 0, brokerConfig.pushWorkers);
         broker.addZooKeeper(brokerConfig.zkPort);
+        if (brokerConfig.metricsPort != 0) broker.exposeMetrics(brokerConfig.metricsPort);
 
         if (leaderConfig != null) {
             // Add leader
@@ -271,7 +275,8 @@ public class App {
             String valueDeserializer,
             String pollMethodConsumer,
             int timeout,
-            int offset
+            int offset,
+            String groupId
     ) {
         Properties props = new Properties();
         props.put("id", String.valueOf(id));
@@ -283,6 +288,7 @@ public class App {
         props.put("poll.method.consumer", pollMethodConsumer);
         props.put("timeout.consumer", String.valueOf(timeout));
         props.put("offset.consumer", String.valueOf(offset));
+        if (groupId != null) props.put("group.id", groupId);
 
         Consumer<String, String> consumer = new Consumer<>(props);
         consumer.run();
@@ -290,14 +296,11 @@ public class App {
 
         new Thread(() -> {
             while (true) {
-                ArrayList<ConsumerRecord<String, String>> records = consumer.poll(Duration.ofMillis(200));
+                // blocks until records arrive (or times out)
+                ArrayList<ConsumerRecord<String, String>> records = consumer.poll(Duration.ofMillis(500));
                 for (ConsumerRecord<String, String> record : records) {
                     if (record == null) continue;
-                    System.out.println("[CONSUMER] " + record + "\n");
-                }
-                try {
-                    Thread.sleep(500);
-                } catch (InterruptedException ignored) {
+                    Log.info("[CONSUMER] {}\n", record);
                 }
             }
         }).start();
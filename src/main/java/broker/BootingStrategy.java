@@ -1,6 +1,8 @@
 package broker;
 
+import common.Log;
 import common.StateStrategy;
+import common.TimerWheel;
 import zookeeper.Constants;
 import zookeeper.ZKNode;
 import zookeeper.ZooKeeper;
@@ -20,7 +22,7 @@ import java.util.concurrent.*;
 class BootingStrategy implements StateStrategy {
     @Override
     public void execute(Broker broker, ZooKeeper zooKeeper) {
-        System.out.println(broker.TAG + "Booting up broker");
+        Log.info("{}Booting up broker", broker.TAG);
         broker.serverThread = Executors.newSingleThreadExecutor();
         broker.serverThread.submit(broker.server);
 
@@ -33,12 +35,12 @@ class BootingStrategy implements StateStrategy {
         // self-proclaim leader
         if (leaderId == Constants.UNASSIGNED_LEADER_ID
                 || leaderId == broker.ID) {
-            System.out.println(broker.TAG + "No leader detected. Self-proclaim as leader [" + broker.ID + "]");
+            Log.info("{}No leader detected. Self-proclaim as leader [{}]", broker.TAG, broker.ID);
             zooKeeper.acquireLeadershipOnBoot(broker.ID);
             return;
         }
 
-        System.out.println(broker.TAG + "Node " + leaderId + " detected as leader.");
+        Log.info("{}Node {} detected as leader.", broker.TAG, leaderId);
         zooKeeper.setLeader(leaderId);
     }
 
@@ -60,8 +62,7 @@ class BootingStrategy implements StateStrategy {
         int leaderId = Constants.UNASSIGNED_LEADER_ID;
         long delayMs = Constants.LEADER_DISCOVERY_PHASE_MS;
 
-        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
-        Future<Integer> futureLeader = scheduler.schedule(
+        Future<Integer> futureLeader = TimerWheel.shared().schedule(
                 () -> {
                     if (zooKeeper.getLeaderId() != Constants.UNASSIGNED_LEADER_ID) {
                         return zooKeeper.getLeaderId();
@@ -76,8 +77,7 @@ class BootingStrategy implements StateStrategy {
 
                     return leader;
                 },
-                delayMs,
-                TimeUnit.MILLISECONDS
+                delayMs
         );
 
         try {
@@ -2,14 +2,18 @@ package broker;
 
 import broker.connectionHandler.ConnectionHandler;
 import common.Context;
+import common.Log;
 import common.Server;
 import common.State;
+import metrics.MetricsRegistry;
+import metrics.MetricsServer;
 import models.Node;
 import zookeeper.HeartbeatRecord;
 import zookeeper.ZKNode;
 import zookeeper.ZKProperties;
 import zookeeper.ZooKeeper;
 
+import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.List;
@@ -28,6 +32,9 @@ import java.util.concurrent.Executors;
  * data from the broker as soon as it is received from the publisher.
  * <p>
  * Additionally, with ZooKeeper it acts as a distributed Broker.
+ * <p>
+ * Its metrics (publish rate, latencies, queue depths, replication...) are
+ * kept in a registry and can be scraped over http (see exposeMetrics).
  */
 public class Broker implements Runnable {
     final int ID;
@@ -44,23 +51,32 @@ public class Broker implements Runnable {
     final BrokerDataStore dataStore;
     final PushBasedConsumerHandler pushBasedConsumerHandler;
     final SegmentHandler segmentHandler;
+    final LogCleaner logCleaner;
     SyncHandler syncHandler;
     ReplicationHandler replicationHandler;
     ElectionHandler electionHandler;
+    final MetricsRegistry metrics = new MetricsRegistry();
+    MetricsServer metricsServer;
 
     public Broker(int id, int port) {
         this(id, port, 0);
     }
 
     public Broker(int id, int brokerPort, int zooKeeperPort) {
+        this(id, brokerPort, zooKeeperPort, Constants.PUSH_DISPATCH_WORKERS);
+    }
+
+    public Broker(int id, int brokerPort, int zooKeeperPort, int pushWorkers) {
         ID = id;
         ZK_PORT = zooKeeperPort;
         BROKER_PORT = brokerPort;
         TAG = "[BROKER " + ID + "] ";
-        segmentHandler = new SegmentHandler("node-" + ID + "/");
-        dataStore = new BrokerDataStore(segmentHandler);
-        pushBasedConsumerHandler = new PushBasedConsumerHandler();
-        connectionHandler = new ConnectionHandler(id, dataStore, pushBasedConsumerHandler);
+        segmentHandler = new SegmentHandler("node-" + ID + "/", metrics);
+        dataStore = new BrokerDataStore(segmentHandler, metrics);
+        logCleaner = new LogCleaner(segmentHandler);
+        pushBasedConsumerHandler = new PushBasedConsumerHandler(pushWorkers);
+        registerPushMetrics();
+        connectionHandler = new ConnectionHandler(id, dataStore, pushBasedConsumerHandler, metrics);
         server = new Server(id, brokerPort, connectionHandler);
 
         try {
@@ -78,9 +94,9 @@ public class Broker implements Runnable {
     // Creates ZooKeeper with the required dependencies.
     // And it is initialized.
     private void createZooKeeper() {
-        System.out.println(TAG + "Starting ZooKeeper " + ID + ".");
+        Log.info("{}Starting ZooKeeper {}.", TAG, ID);
         ZKProperties zkProps = new ZKProperties(ID, HOSTNAME, ZK_PORT, BROKER_PORT);
-        zooKeeper = new ZooKeeper(zkProps);
+        zooKeeper = new ZooKeeper(zkProps, metrics);
         syncHandler = new SyncHandler(this, zooKeeper);
         replicationHandler = new ReplicationHandler(this, zooKeeper);
         electionHandler = new ElectionHandler(this, zooKeeper);
@@ -99,6 +115,19 @@ public class Broker implements Runnable {
         zooKeeperThread.submit(zooKeeper);
     }
 
+    // Queue depths of the push dispatchers (one per shard)
+    // and of the subscribers
+    private void registerPushMetrics() {
+        int shards = pushBasedConsumerHandler.getQueueDepths().length;
+        for (int i = 0; i < shards; i++) {
+            int shard = i;
+            metrics.gauge("broker_push_dispatch_queue_depth", "Records waiting to be dispatched to push consumers",
+                    () -> pushBasedConsumerHandler.getQueueDepths()[shard], "shard", String.valueOf(shard));
+        }
+        metrics.gauge("broker_push_subscriber_queue_depth", "Records queued to be sent to push consumers",
+                pushBasedConsumerHandler::getSubscriberQueueDepth);
+    }
+
     // Creates a context to be shared between Broker and ZooKeeper
     // This is the medium in which they will "communicate" and
     // handle the lifecycle
@@ -137,6 +166,30 @@ public class Broker implements Runnable {
         return zooKeeper.getLeaderId();
     }
 
+    // Returns the push dispatch queue depth of each shard
+    public int[] getPushQueueDepths() {
+        return pushBasedConsumerHandler.getQueueDepths();
+    }
+
+    // Metrics of the broker
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    // Serves the metrics at http://hostname:port/metrics (0 for any free
+    // port). Returns the port, or -1 if it could not be opened
+    public int exposeMetrics(int port) {
+        if (metricsServer != null) return metricsServer.getPort();
+        try {
+            metricsServer = new MetricsServer(metrics, port).start();
+        } catch (IOException e) {
+            Log.warn("{}Could not expose metrics on port {}.", TAG, port);
+            return -1;
+        }
+        Log.info("{}Serving metrics on port {}.", TAG, metricsServer.getPort());
+        return metricsServer.getPort();
+    }
+
     // Prints current membership table nodes
     // Mainly for testing purposes.
     public void printNodes() {
@@ -144,6 +197,16 @@ public class Broker implements Runnable {
         zooKeeper.printMembers();
     }
 
+    // Sets the retention of a topic (negative means no limit)
+    public void setRetention(String topic, long retentionMs, long retentionBytes) {
+        segmentHandler.setRetention(topic, retentionMs, retentionBytes);
+    }
+
+    // Sets the cleanup policy of a topic ("delete" or "compact")
+    public void setCleanupPolicy(String topic, String policy) {
+        segmentHandler.setCleanupPolicy(topic, policy);
+    }
+
     // Sets the broker to shut down
     public void close() {
         context.setState(State.SHUTDOWN);
@@ -160,6 +223,7 @@ public class Broker implements Runnable {
     // then will set to running
     @Override
     public void run() {
+        logCleaner.start();
         context.setState(State.BOOTING);
         context.setState(State.SYNC);
         context.setState(State.RUNNING);
@@ -1,6 +1,12 @@
 package broker;
 
 import common.Connection;
+import common.Log;
+import common.RequestType;
+import metrics.Counter;
+import metrics.Latency;
+import metrics.MetricsRegistry;
+import metrics.Trace;
 import protos.Kafka;
 
 import java.util.*;
@@ -18,21 +24,41 @@ public class BrokerDataStore {
     final int MAX_CACHED_SIZE = Constants.BROKER_DATASTORE_CACHE_CAPACITY; // number of records to be stored until persisted
     final Map<String, List<Kafka.Record>> topics = new HashMap<>(); // temporarily stored data before persistence
     final SegmentHandler segmentHandler;
+    final OffsetStore offsetStore; // committed consumer offsets
+    final GroupPositions groupPositions = new GroupPositions(Constants.GROUP_PARTITIONS); // fetch positions of consumer groups
+    final MetricsRegistry metrics;
+    final Map<String, Counter> publishedRecords = new HashMap<>(); // per topic, guarded by topics
+    final Map<String, Counter> publishedBytes = new HashMap<>(); // per topic, guarded by topics
+    final Latency flushLatency; // persisting an in-memory batch
 
     public BrokerDataStore(SegmentHandler segmentHandler) {
+        this(segmentHandler, new MetricsRegistry());
+    }
+
+    public BrokerDataStore(SegmentHandler segmentHandler, MetricsRegistry metrics) {
         this.segmentHandler = segmentHandler;
+        this.offsetStore = new OffsetStore();
+        segmentHandler.setCleanupPolicy(OffsetStore.TOPIC, Constants.CLEANUP_POLICY_COMPACT);
+        this.metrics = metrics;
+        this.flushLatency = metrics.latency("broker_flush_seconds", "Time to persist a batch of in-memory records");
     }
 
     public Set<String> getTopics() {
         synchronized (topics) {
-            return topics.keySet();
+            return new HashSet<>(topics.keySet());
         }
     }
 
     // Adds record to in-memory. If cache is full
     // it persists it locally;
     public void storeRecord(Kafka.Record record) {
+        storeRecord(record, null);
+    }
+
+    // Same as above, marking the stages of the publish on the trace (if any)
+    public void storeRecord(Kafka.Record record, Trace<PublishStage> trace) {
         synchronized (topics) {
+            if (trace != null) trace.mark(PublishStage.LOCK);
             String topic = record.getTopic();
 
             List<Kafka.Record> requestedTopic;
@@ -48,12 +74,19 @@ public class BrokerDataStore {
                 topics.put(record.getTopic(), requestedTopic);
             }
             requestedTopic.add(record);
+            if (topic.equals(OffsetStore.TOPIC)) offsetStore.apply(record);
+            publishedRecords.computeIfAbsent(topic, t -> metrics.counter("broker_publish_records_total", "Records published", "topic", t)).inc();
+            publishedBytes.computeIfAbsent(topic, t -> metrics.counter("broker_publish_bytes_total", "Bytes of record values published", "topic", t)).add(record.getValue().size());
+            if (trace != null) trace.mark(PublishStage.STORE);
 
             // lock only records for requested topic
             if (requestedTopic.size() == MAX_CACHED_SIZE) {
-                System.out.println("[BROKER DATA STORE] Cache full. Persisting locally.");
+                Log.debug("[BROKER DATA STORE] Cache full. Persisting locally.");
+                long start = System.nanoTime();
                 segmentHandler.add(record.getTopic(), requestedTopic);
+                flushLatency.recordSince(start);
                 requestedTopic.clear();
+                if (trace != null) trace.mark(PublishStage.FLUSH);
             }
         }
     }
@@ -61,59 +94,225 @@ public class BrokerDataStore {
     // Receives an offset indicating how much it is desired from that topic.
     // It will read the segment and send all the data from that offset onwards
     public void sendSegment(Connection conn, Kafka.Record record) {
-        sendSegment(conn, record.getTopic(), record.getOffset(), record.getRole());
+        sendSegment(conn, record, null);
+    }
+
+    // Same as above, marking the stages of the read on the trace (if any)
+    public void sendSegment(Connection conn, Kafka.Record record, Trace<FetchStage> trace) {
+        sendSegment(conn, record.getTopic(), record.getOffset(), record.getRole(), trace);
     }
 
     // Receives an offset indicating how much it is desired from that topic.
     // It will read the segment and send all the data from that offset onwards
-    private void sendSegment(Connection conn, String topic, int offset, Kafka.Record.Role role) {
+    private void sendSegment(Connection conn, String topic, int offset, Kafka.Record.Role role, Trace<FetchStage> trace) {
         if (conn == null) return;
         if (conn.isClosed()) return; // if socket closed don't even start;
         List<Kafka.Record> requestedRecords = segmentHandler.get(topic, offset);
+        if (trace != null) trace.mark(FetchStage.READ);
 
         if (requestedRecords.size() == 0) {
             Kafka.Record record = Kafka.Record.newBuilder()
                     .setTopic(Constants.SEGMENT_HANDLER_EMPTY)
                     .build();
             sendRecord(conn, record);
+            if (trace != null) trace.mark(FetchStage.SEND);
             return;
         }
 
         for (Kafka.Record requestedRecord : requestedRecords)
             sendRecord(conn, requestedRecord);
 
-        if (role == null) return;
-        if (role.equals(Kafka.Record.Role.CONSUMER)) {
+        if (Kafka.Record.Role.CONSUMER.equals(role)) {
             Kafka.Record eot = Kafka.Record.newBuilder()
                     .setTopic(Constants.EOT)
                     .build();
             sendRecord(conn, eot);
         }
+        if (trace != null) trace.mark(FetchStage.SEND);
+    }
+
+    // Sends, for every topic, the next chunk of persisted records after the
+    // offsets the requester already has. It only reads persisted segments,
+    // so producers can keep publishing while a follower catches up.
+    public void syncChunk(Connection conn, Kafka.Record request) {
+        Map<String, Integer> offsets = new HashMap<>();
+        for (Kafka.Record rec : request.getRecordsList())
+            offsets.put(rec.getTopic(), rec.getOffset());
+
+        for (String topic : getTopics()) {
+            int offset = offsets.getOrDefault(topic, -1);
+            List<Kafka.Record> chunk = segmentHandler.get(topic, offset, Constants.SYNC_CHUNK_SIZE);
+            for (Kafka.Record rec : chunk) {
+                if (!sendRecord(conn, rec)) return; // requester will resume later
+            }
+        }
+    }
+
+    // Answers a multi-topic fetch. The request carries the offset of every
+    // topic the consumer wants, the response holds one batch per topic
+    // so a single round trip serves all of them.
+    public void sendFetch(Connection conn, Kafka.Record request) {
+        sendFetch(conn, request, null);
+    }
+
+    // Same as above, for a member of the group in the request: only records of
+    // the given (virtual) partitions not sent to the group yet are sent; null
+    // means all of them, from the requested offsets. The offset of each batch
+    // is the last one scanned, so the requester moves forward even if
+    // everything was filtered.
+    public void sendFetch(Connection conn, Kafka.Record request, Set<Integer> partitions) {
+        sendFetch(conn, request, partitions, null);
+    }
+
+    // Same as above, marking the stages of the fetch on the trace (if any)
+    public void sendFetch(Connection conn, Kafka.Record request, Set<Integer> partitions, Trace<FetchStage> trace) {
+        if (conn == null || conn.isClosed()) return;
+
+        Kafka.Record.Builder response = Kafka.Record.newBuilder()
+                .setType(RequestType.CONSUMER_FETCH.name());
+        for (Kafka.Record topicOffset : request.getRecordsList()) {
+            String topic = topicOffset.getTopic();
+            response.addRecords(partitions == null
+                    ? fetchBatch(topic, topicOffset.getOffset())
+                    : groupBatch(request.getGroupId(), topic, topicOffset.getOffset(), partitions));
+        }
+        if (trace != null) trace.mark(FetchStage.READ);
+
+        sendRecord(conn, response.build());
+        if (trace != null) trace.mark(FetchStage.SEND);
+    }
+
+    // Next records of a topic after the offset
+    private Kafka.Record fetchBatch(String topic, int offset) {
+        List<Kafka.Record> batch = segmentHandler.get(topic, offset, Constants.FETCH_MAX_RECORDS_PER_TOPIC);
+        return Kafka.Record.newBuilder()
+                .setTopic(topic)
+                .setOffset(batch.isEmpty() ? offset : batch.get(batch.size() - 1).getOffset())
+                .addAllRecords(batch)
+                .build();
+    }
+
+    // Next records of the given partitions of a topic the group has not been
+    // sent yet. Reads from the oldest position of those partitions, which start
+    // at the offset committed by the group the first time it fetches them (or
+    // at the requested offset if it never committed them)
+    private Kafka.Record groupBatch(String groupId, String topic, int offset, Set<Integer> partitions) {
+        Kafka.Record.Builder topicBatch = Kafka.Record.newBuilder().setTopic(topic);
+        if (partitions.isEmpty()) return topicBatch.setOffset(offset).build(); // more members than partitions
+
+        GroupPositions.Group group = groupPositions.get(groupId);
+        String owner = OffsetStore.groupOwner(groupId);
+        synchronized (group) {
+            int from = group.from(topic, partitions, partition -> {
+                Integer committed = offsetStore.fetch(owner, topic, partition);
+                return committed == null ? offset : committed;
+            });
+            List<Kafka.Record> batch = segmentHandler.get(topic, from, Constants.FETCH_MAX_RECORDS_PER_TOPIC);
+            int last = batch.isEmpty() ? from : batch.get(batch.size() - 1).getOffset();
+            for (Kafka.Record record : batch) {
+                int partition = RangeAssignor.partitionOf(record, Constants.GROUP_PARTITIONS);
+                if (partitions.contains(partition) && group.isPending(topic, partition, record.getOffset()))
+                    topicBatch.addRecords(record.toBuilder().setPartition(partition)); // members commit by partition
+            }
+            group.advance(topic, partitions, last);
+            return topicBatch.setOffset(last).build();
+        }
+    }
+
+    // Turns a commit into records of the offsets topic, to be published like
+    // any other record. Offsets are sent as (topic, partition, offset) records,
+    // the owner is the group in the request or else the consumer (node id).
+    // Members of a group only commit the given partitions (null for all)
+    public List<Kafka.Record> commitRecords(Kafka.Record request, Set<Integer> partitions) {
+        String owner = OffsetStore.ownerOf(request);
+        List<Kafka.Record> records = new ArrayList<>();
+        for (Kafka.Record commit : request.getRecordsList()) {
+            if (partitions != null && !partitions.contains(commit.getPartition())) continue;
+            records.add(offsetStore.record(owner, commit.getTopic(), commit.getPartition(), commit.getOffset()));
+        }
+        return records;
+    }
+
+    // Acks a commit, once its records are stored and sent to the replicas
+    public void ackCommit(Connection conn) {
+        sendRecord(conn, Kafka.Record.newBuilder()
+                .setType(RequestType.OFFSET_COMMIT.name())
+                .build());
+    }
+
+    // Sends the committed offsets of the requested (topic, partition) pairs.
+    // Partitions never committed are left out of the response
+    public void sendCommittedOffsets(Connection conn, Kafka.Record request) {
+        String owner = OffsetStore.ownerOf(request);
+        Kafka.Record.Builder response = Kafka.Record.newBuilder()
+                .setType(RequestType.OFFSET_FETCH.name());
+        for (Kafka.Record topic : request.getRecordsList()) {
+            Integer offset = offsetStore.fetch(owner, topic.getTopic(), topic.getPartition());
+            if (offset == null) continue;
+            response.addRecords(Kafka.Record.newBuilder()
+                    .setTopic(topic.getTopic())
+                    .setPartition(topic.getPartition())
+                    .setOffset(offset)
+                    .build());
+        }
+
+        sendRecord(conn, response.build());
+    }
+
+    // Moves the positions of the given partitions of a group back to the
+    // offsets committed for them, so records handed to a member that left
+    // before committing them go again to whoever takes the partitions over.
+    // Partitions never committed keep their position
+    public void rewindGroup(String groupId, Set<Integer> partitions) {
+        GroupPositions.Group group = groupPositions.get(groupId);
+        String owner = OffsetStore.groupOwner(groupId);
+        synchronized (group) {
+            group.rewind(partitions, (topic, partition) -> offsetStore.fetch(owner, topic, partition));
+        }
+    }
+
+    // Looks up, for every (topic, timestamp) requested, the offset to fetch
+    // from to get the records from that time onwards. Timestamps are sent in
+    // the timestamp field, LATEST_TIMESTAMP asks for the end of the topic.
+    // Topics with no records that recent are left out
+    public void sendOffsetsForTimes(Connection conn, Kafka.Record request) {
+        Kafka.Record.Builder response = Kafka.Record.newBuilder()
+                .setType(RequestType.OFFSETS_FOR_TIMES.name());
+        for (Kafka.Record topicTime : request.getRecordsList()) {
+            Integer offset = topicTime.getTimestamp() == Constants.LATEST_TIMESTAMP
+                    ? segmentHandler.lastOffset(topicTime.getTopic())
+                    : segmentHandler.offsetForTime(topicTime.getTopic(), topicTime.getTimestamp());
+            if (offset == null) continue;
+            response.addRecords(Kafka.Record.newBuilder()
+                    .setTopic(topicTime.getTopic())
+                    .setTimestamp(topicTime.getTimestamp())
+                    .setOffset(offset)
+                    .build());
+        }
+
+        sendRecord(conn, response.build());
     }
 
     // Sends all the data accumulated in the broker to the requester
-    // Including in-memory data
+    // Including in-memory data. Used as the final catch-up of a sync,
+    // by then the requester should only be missing a small delta.
     public void syncDataStore(Connection conn, Kafka.Record record) {
-        System.out.println("[BROKER DATASTORE] Initiating sync with broker");
+        Log.info("[BROKER DATASTORE] Initiating sync catch-up with broker");
         synchronized (topics) {
-            Set<String> topicsList = new HashSet();
             // copy of topics
-            for (String topic : topics.keySet())
-                topicsList.add(topic);
+            Set<String> topicsList = new HashSet<>(topics.keySet());
 
             // First sync all records that the requester broker
             // already has.
             List<Kafka.Record> recordList = record.getRecordsList();
             for (Kafka.Record rec : recordList) {
-                sendSegment(conn, rec);
+                sendSegment(conn, rec.getTopic(), rec.getOffset(), rec.getRole(), null);
                 topicsList.remove(rec.getTopic());
             }
 
             // Then sync all persisted records that requester doesn't have
-            for (String topic : topicsList) {
-                sendSegment(conn, topic, -1, null);
-                topicsList.remove(topic);
-            }
+            for (String topic : topicsList)
+                sendSegment(conn, topic, -1, null, null);
 
             // Then sync all remaining records that may be in memory
             // but not yet persisted
@@ -1,5 +1,7 @@
 package broker;
 
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
 import common.Connection;
 import protos.Kafka;
 
@@ -12,6 +14,13 @@ import java.io.IOException;
  * Helpers to avoid send data to remote node
  */
 public class ConnectionHelpers {
+    // ack of a record without key (default record, encoded as zero bytes)
+    private static final byte[] EMPTY_ACK = Kafka.Record.getDefaultInstance().toByteArray();
+    // role field set to BROKER. Appended to an encoded record it overrides its
+    // role (last value wins), so replicas don't need a copy of the record
+    public static final byte[] BROKER_ROLE = encodeField(Kafka.Record.ROLE_FIELD_NUMBER, Kafka.Record.Role.BROKER_VALUE);
+    // per thread buffer records are encoded into, grown as needed
+    private static final ThreadLocal<byte[]> ENCODE_BUFFER = ThreadLocal.withInitial(() -> new byte[256]);
 
     // Sends kafa record
     public static boolean sendRecord(Connection conn, Kafka.Record record) {
@@ -27,12 +36,57 @@ public class ConnectionHelpers {
         }
     }
 
-    // ACKs kafka record
+    // ACKs kafka record. The ack is a record with only the key, so it is
+    // encoded directly instead of building one
     public static void ack(Connection conn, Kafka.Record record) {
-        Kafka.Record ack = Kafka.Record.newBuilder()
-                .setKey(record.getKey())
-                .build();
+        ByteString key = record.getKey();
+        try {
+            if (key.isEmpty()) {
+                conn.send(EMPTY_ACK);
+                return;
+            }
+
+            int length = CodedOutputStream.computeBytesSize(Kafka.Record.KEY_FIELD_NUMBER, key);
+            byte[] buffer = encodeBuffer(length);
+            CodedOutputStream out = CodedOutputStream.newInstance(buffer, 0, length);
+            out.writeBytes(Kafka.Record.KEY_FIELD_NUMBER, key);
+            conn.send(buffer, 0, length);
+        } catch (IOException ignored) {
+            // Producer is gone, it will resend if needed
+        }
+    }
+
+    // Encodes the record followed by the given (pre-encoded) fields, which
+    // override the record's ones, into this thread's buffer. Returns the
+    // length; data is in encodeBuffer until the next encode of the thread
+    public static int encode(Kafka.Record record, byte[] fields) throws IOException {
+        int recordLength = record.getSerializedSize();
+        int length = recordLength + fields.length;
+        byte[] buffer = encodeBuffer(length);
+        record.writeTo(CodedOutputStream.newInstance(buffer, 0, recordLength));
+        System.arraycopy(fields, 0, buffer, recordLength, fields.length);
+        return length;
+    }
 
-        sendRecord(conn, ack);
+    // Encodes an enum field. Written explicitly, even if it is the default
+    // value, which a built record would leave out
+    private static byte[] encodeField(int fieldNumber, int value) {
+        byte[] field = new byte[CodedOutputStream.computeEnumSize(fieldNumber, value)];
+        try {
+            CodedOutputStream.newInstance(field).writeEnum(fieldNumber, value);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return field;
+    }
+
+    // this thread's encode buffer, with at least the given size
+    public static byte[] encodeBuffer(int size) {
+        byte[] buffer = ENCODE_BUFFER.get();
+        if (buffer.length < size) {
+            buffer = new byte[Math.max(size, buffer.length * 2)];
+            ENCODE_BUFFER.set(buffer);
+        }
+        return buffer;
     }
 }
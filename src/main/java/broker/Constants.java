@@ -12,4 +12,57 @@ public class Constants {
     public static final String EOT = "EOT";
     public static final String SEGMENT_HANDLER_EMPTY = "SEGMENT_HANDLER_EMPTY";
     public static int BROKER_DATASTORE_CACHE_CAPACITY = 100;
+
+    // Sync: records sent per topic on each sync round, pause between
+    // rounds (so the leader keeps serving live traffic) and number of
+    // times a follower resumes from its checkpoint after a disconnect
+    public static final int SYNC_CHUNK_SIZE = 50;
+    public static final long SYNC_THROTTLE_MS = 20L;
+    public static final int SYNC_MAX_RETRIES = 3;
+    // publishes buffered while a sync catch-up holds the broker
+    public static final int SYNC_PUBLISH_BUFFER_CAPACITY = 1000;
+
+    // Segments: size at which the active segment of a topic is rolled
+    public static final int SEGMENT_MAX_BYTES = 1024 * 1024;
+    // Retention (default for every topic, negative means no limit):
+    // max age of a segment, max size of a topic and how often it is enforced
+    public static final long RETENTION_MS = 7L * 24 * 60 * 60 * 1000;
+    public static final long RETENTION_BYTES = -1L;
+    public static final long RETENTION_CHECK_INTERVAL_MS = 30 * 1000L;
+    // Cleanup policies: delete old segments (retention) or keep
+    // only the latest record of each key (compaction)
+    public static final String CLEANUP_POLICY_DELETE = "delete";
+    public static final String CLEANUP_POLICY_COMPACT = "compact";
+
+    // Read cache: bytes of recently written records kept in memory
+    // (shared by all topics) so tail reads don't hit the disk
+    public static final long READ_CACHE_MAX_BYTES = 16L * 1024 * 1024;
+
+    // Buffer pool: biggest request read into a pooled (direct) buffer
+    // and max bytes kept in the pool between requests
+    public static final int BUFFER_POOL_MAX_BUFFER_BYTES = 1024 * 1024;
+    public static final long BUFFER_POOL_MAX_BYTES = 32L * 1024 * 1024;
+
+    // Fetch: max records returned per topic on a multi-topic fetch
+    public static final int FETCH_MAX_RECORDS_PER_TOPIC = 500;
+
+    // Consumer groups: virtual partitions each topic is split into.
+    // Caps the number of group members that get records per topic
+    public static final int GROUP_PARTITIONS = 8;
+
+    // Offsets for times: timestamp that asks for the end of the topic
+    public static final long LATEST_TIMESTAMP = -1L;
+
+    // Push: number of dispatcher threads topics are sharded across
+    public static final int PUSH_DISPATCH_WORKERS = 4;
+    // Push: records queued per subscriber before it is considered slow.
+    // Slow consumers either miss records or are disconnected.
+    public static final int PUSH_SUBSCRIBER_QUEUE_CAPACITY = 1000;
+    public static final boolean PUSH_DISCONNECT_SLOW_CONSUMERS = false;
+
+    // Tracing: requests slower than this are counted as slow, and
+    // one of them at most every interval is logged with its breakdown
+    public static final long TRACE_SLOW_PUBLISH_MS = 50L;
+    public static final long TRACE_SLOW_FETCH_MS = 100L;
+    public static final long TRACE_SAMPLE_INTERVAL_MS = 1000L;
 }
@@ -1,6 +1,7 @@
 package broker;
 
 import common.Connection;
+import common.Log;
 import common.RequestType;
 import models.Node;
 import protos.ZK;
@@ -8,11 +9,8 @@ import zookeeper.ZKNode;
 import zookeeper.ZooKeeper;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Set;
-import java.util.concurrent.*;
 
 /**
  * @author Alberto Delgado on 4/19/22
@@ -45,7 +43,7 @@ class ElectionHandler extends BrokerService {
             return;
         }
 
-        System.out.println(TAG + "Woohoo! I am the leader now!");
+        Log.info("{}Woohoo! I am the leader now!", TAG);
         notifyVictory();
         zooKeeper.setLeader(broker.ID);
         running = false;
@@ -67,7 +65,7 @@ class ElectionHandler extends BrokerService {
                     electionNodes.add(node);
                 }
             } catch (IOException e) {
-                System.out.println(broker.TAG + " failed candidating to " + node.ID);
+                Log.warn("{} failed candidating to {}", broker.TAG, node.ID);
                 // We are not handling this here. It will be
                 // up to the ElectionStrategy to timeout if
                 // the other node doesn't respond.
@@ -76,28 +74,14 @@ class ElectionHandler extends BrokerService {
         return electionNodes;
     }
 
-    // Checks if nodes respond with "alive"
+    // Checks if any node responds with "alive" before the timeout.
+    // Responses wait on each connection, so nodes are checked one
+    // after the other against the same deadline
     private boolean existsAliveNode(Set<ZKNode> nodes) {
-        List<Future<Boolean>> responses = new ArrayList<>();
+        long deadline = System.currentTimeMillis() + zookeeper.Constants.ALIVE_TIMEOUT_MS;
         for (ZKNode node : nodes) {
-            long delayMs = zookeeper.Constants.ALIVE_TIMEOUT_MS;
-            ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
-            Future<Boolean> future = scheduler.schedule(
-                    () -> {
-                        node.receive();
-                        return true;
-                    },
-                    delayMs,
-                    TimeUnit.MILLISECONDS
-            );
-            responses.add(future);
-        }
-
-        for (Future<Boolean> response : responses) {
-            try {
-                return response.get();
-            } catch (ExecutionException | InterruptedException e) {
-            }
+            long remainingMs = Math.max(deadline - System.currentTimeMillis(), 1);
+            if (node.receive(remainingMs) != null) return true;
         }
         return false;
     }
@@ -130,7 +114,7 @@ class ElectionHandler extends BrokerService {
 
     // Helper to notify client
     private void notifyClient(Node node) {
-        System.out.println("Trying to acquire leadership of " + node.HOSTNAME + ":" + node.PORT);
+        Log.info("Trying to acquire leadership of {}:{}", node.HOSTNAME, node.PORT);
         Connection conn = new Connection(node.HOSTNAME, node.PORT);
 
         ZK.Record victory = ZK.Record.newBuilder()
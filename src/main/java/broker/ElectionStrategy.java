@@ -1,5 +1,6 @@
 package broker;
 
+import common.Log;
 import common.State;
 import common.StateStrategy;
 import zookeeper.ZKNode;
@@ -20,7 +21,7 @@ class ElectionStrategy implements StateStrategy {
     // Main logic: election + sync
     public void execute(Broker broker, ZooKeeper zooKeeper) {
         ElectionHandler electionHandler = broker.electionHandler;
-        System.out.println(broker.TAG + "Election time!");
+        Log.info("{}Election time!", broker.TAG);
         electionHandler.handleElection();
 
         if (zooKeeper.getLeaderId() == broker.ID) {
@@ -0,0 +1,12 @@
+package broker;
+
+/**
+ * @author Alberto Delgado on 5/7/22
+ * @project dsd-pub-sub
+ * <p>
+ * Stages of a fetch (or poll), as traced: joining the consumer group
+ * (only consumers in a group), reading the records and sending them.
+ */
+public enum FetchStage {
+    GROUP, READ, SEND
+}
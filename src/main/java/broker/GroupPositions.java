@@ -0,0 +1,127 @@
+package broker;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * @author Alberto Delgado on 5/8/22
+ * @project dsd-pub-sub
+ * <p>
+ * Fetch positions of consumer groups: for every (group, topic, partition),
+ * the offset of the last record handed to the group.
+ * <p>
+ * Positions belong to the group, not to its members. When a rebalance moves
+ * a partition to another member, the new owner picks it up where the previous
+ * one left it instead of from its own offset, so records are neither skipped
+ * nor sent twice. Fetches of a group hold its Group while they read and move
+ * positions forward, so two members never get the same records.
+ * <p>
+ * Positions are only kept in memory. They start at the offsets committed by
+ * the group, which are replicated, so a broker taking over as leader picks
+ * the group up from its last commit.
+ */
+public class GroupPositions {
+    private final int partitions;
+    private final Map<String, Group> groups = new ConcurrentHashMap<>();
+
+    public GroupPositions(int partitions) {
+        this.partitions = partitions;
+    }
+
+    /**
+     * Positions of a group. Has to be held while fetching for the group.
+     *
+     * @param group
+     * @return
+     */
+    public Group get(String group) {
+        return groups.computeIfAbsent(group, g -> new Group());
+    }
+
+    /**
+     * Positions of every topic fetched by a group
+     */
+    public class Group {
+        private static final int UNSET = Integer.MIN_VALUE;
+        private final Map<String, int[]> topics = new HashMap<>(); // position of each partition
+
+        private Group() {
+        }
+
+        /**
+         * Offset to read from to get the next records of the given (at least
+         * one) partitions. Partitions the group never fetched start at their
+         * initial offset.
+         *
+         * @param topic
+         * @param assigned
+         * @param initial  initial offset of a partition
+         * @return
+         */
+        public int from(String topic, Set<Integer> assigned, IntUnaryOperator initial) {
+            int[] positions = positions(topic);
+            int from = Integer.MAX_VALUE;
+            for (int partition : assigned) {
+                if (positions[partition] == UNSET) positions[partition] = initial.applyAsInt(partition);
+                from = Math.min(from, positions[partition]);
+            }
+            return from;
+        }
+
+        /**
+         * Checks if the record at the offset has not been handed to the group yet
+         *
+         * @param topic
+         * @param partition
+         * @param offset
+         * @return
+         */
+        public boolean isPending(String topic, int partition, int offset) {
+            return offset > positions(topic)[partition];
+        }
+
+        /**
+         * Moves the positions of the given partitions forward to the offset,
+         * once every record of them up to it has been handed out
+         *
+         * @param topic
+         * @param assigned
+         * @param offset
+         */
+        public void advance(String topic, Set<Integer> assigned, int offset) {
+            int[] positions = positions(topic);
+            for (int partition : assigned)
+                positions[partition] = Math.max(positions[partition], offset);
+        }
+
+        /**
+         * Moves the positions of the given partitions, in every topic, back
+         * to their committed offset. Partitions without one are left as is.
+         *
+         * @param assigned
+         * @param committed committed offset of a (topic, partition), or null
+         */
+        public void rewind(Set<Integer> assigned, BiFunction<String, Integer, Integer> committed) {
+            for (Map.Entry<String, int[]> topic : topics.entrySet()) {
+                for (int partition : assigned) {
+                    Integer offset = committed.apply(topic.getKey(), partition);
+                    if (offset != null) topic.getValue()[partition] = offset;
+                }
+            }
+        }
+
+        // positions of the partitions of a topic
+        private int[] positions(String topic) {
+            return topics.computeIfAbsent(topic, t -> {
+                int[] positions = new int[partitions];
+                Arrays.fill(positions, UNSET);
+                return positions;
+            });
+        }
+    }
+}
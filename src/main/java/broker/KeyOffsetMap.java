@@ -0,0 +1,60 @@
+package broker;
+
+import com.google.protobuf.ByteString;
+
+/**
+ * @author Alberto Delgado on 4/29/22
+ * @project dsd-pub-sub
+ * <p>
+ * Key to latest offset map used by log compaction. Built from primitive arrays
+ * (open addressing, linear probing) so millions of keys don't mean millions of
+ * objects. Keys are not stored, only a 64-bit hash of them; a collision would
+ * make two keys look the same, which with 64 bits is negligible.
+ */
+class KeyOffsetMap {
+    private static final long EMPTY = 0L;
+    private final long[] hashes;
+    private final int[] offsets;
+    private final int mask;
+
+    // sized for the expected number of keys, at most half full
+    KeyOffsetMap(int expectedKeys) {
+        int capacity = Integer.highestOneBit(Math.max(2, expectedKeys * 2 - 1)) << 1;
+        hashes = new long[capacity];
+        offsets = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    // sets the offset of a key
+    void put(ByteString key, int offset) {
+        long hash = hash(key);
+        int slot = slot(hash);
+        hashes[slot] = hash;
+        offsets[slot] = offset;
+    }
+
+    // returns the offset of a key, -1 if not present
+    int get(ByteString key) {
+        long hash = hash(key);
+        int slot = slot(hash);
+        return hashes[slot] == EMPTY ? -1 : offsets[slot];
+    }
+
+    // slot where the hash is, or the empty slot where it would go
+    private int slot(long hash) {
+        int slot = (int) (hash ^ (hash >>> 32)) & mask;
+        while (hashes[slot] != EMPTY && hashes[slot] != hash)
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    // FNV-1a 64 bit. EMPTY is reserved to mark free slots
+    private static long hash(ByteString key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.size(); i++) {
+            hash ^= key.byteAt(i) & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash == EMPTY ? 1L : hash;
+    }
+}
@@ -0,0 +1,59 @@
+package broker;
+
+import common.Log;
+import common.TimerWheel;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * @author Alberto Delgado on 4/28/22
+ * @project dsd-pub-sub
+ * <p>
+ * Background cleaner. Every RETENTION_CHECK_INTERVAL_MS it asks the segment
+ * handler to enforce the retention of every topic. Cleaning rewrites segment
+ * files, so it runs on a thread of its own; the shared timer only keeps the
+ * time, its workers must stay free for heartbeats.
+ */
+class LogCleaner {
+    private final SegmentHandler segmentHandler;
+    private TimerWheel.Timeout scheduledTask;
+    private ExecutorService cleaner;
+
+    LogCleaner(SegmentHandler segmentHandler) {
+        this.segmentHandler = segmentHandler;
+    }
+
+    // starts cleaning periodically
+    synchronized void start() {
+        if (scheduledTask != null) return;
+        cleaner = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "log-cleaner");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduledTask = TimerWheel.shared().scheduleWithFixedDelay(
+                this::clean,
+                Constants.RETENTION_CHECK_INTERVAL_MS,
+                Constants.RETENTION_CHECK_INTERVAL_MS,
+                cleaner);
+    }
+
+    // one cleaning round. Errors must not stop the scheduler
+    private void clean() {
+        try {
+            segmentHandler.cleanUp();
+        } catch (RuntimeException e) {
+            Log.error("[LOG CLEANER] Cleaning round failed", e);
+        }
+    }
+
+    // stops cleaning
+    synchronized void close() {
+        if (scheduledTask == null) return;
+        scheduledTask.cancel();
+        scheduledTask = null;
+        cleaner.shutdownNow();
+        cleaner = null;
+    }
+}
@@ -0,0 +1,136 @@
+package broker;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+import common.Log;
+import common.RequestType;
+import protos.Kafka;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @author Alberto Delgado on 4/27/22
+ * @project dsd-pub-sub
+ * <p>
+ * Committed consumer offsets. Consumers commit the last offset they have
+ * processed of every (topic, partition), so after a restart they resume from
+ * there instead of reading everything again. Offsets of a consumer group
+ * belong to the group, not to its members: a partition that moves to another
+ * member is resumed where the previous one committed it. Consumers outside a
+ * group commit each topic as a whole, as partition 0.
+ * <p>
+ * Commits are records of the internal __consumer_offsets topic, keyed by
+ * (owner, topic, partition). They are stored, replicated and synced like any
+ * other record, and the topic is compacted, so only the latest commit of each
+ * key is kept. Since they live in the segments, committed offsets always go
+ * together with the data they point into. This class keeps the latest commits
+ * in memory, applied as their records are stored.
+ */
+public class OffsetStore {
+    public static final String TOPIC = "__consumer_offsets";
+    private final Map<ByteString, Commit> commits = new HashMap<>(); // by record key
+    private long lastTimestamp = 0; // of the latest commit, records of the topic are told apart by timestamp
+
+    /**
+     * Owner of the offsets committed (or fetched) by a request: its
+     * group, or the consumer itself if it is in no group.
+     *
+     * @param request
+     * @return
+     */
+    public static String ownerOf(Kafka.Record request) {
+        return request.getGroupId().isEmpty()
+                ? "consumer/" + request.getNodeId()
+                : groupOwner(request.getGroupId());
+    }
+
+    /**
+     * Owner of the offsets committed by the members of a group
+     *
+     * @param group
+     * @return
+     */
+    public static String groupOwner(String group) {
+        return "group/" + group;
+    }
+
+    /**
+     * Record of the offsets topic committing the offset of a partition.
+     * Its timestamp is unique, so it is never taken for a duplicate.
+     *
+     * @param owner
+     * @param topic
+     * @param partition
+     * @param offset
+     * @return
+     */
+    public synchronized Kafka.Record record(String owner, String topic, int partition, int offset) {
+        lastTimestamp = Math.max(System.currentTimeMillis(), lastTimestamp + 1);
+        return Kafka.Record.newBuilder()
+                .setType(RequestType.PRODUCER_PUBLISH.name())
+                .setTopic(TOPIC)
+                .setKey(key(owner, topic, partition))
+                .setValue(Kafka.Record.newBuilder().setOffset(offset).build().toByteString())
+                .setTimestamp(lastTimestamp)
+                .build();
+    }
+
+    /**
+     * Applies a record of the offsets topic. Commits older than the one
+     * held are ignored, so records may be applied more than once and in
+     * any order (replicated and synced ones).
+     *
+     * @param record
+     */
+    public synchronized void apply(Kafka.Record record) {
+        int offset;
+        try {
+            offset = Kafka.Record.parseFrom(record.getValue()).getOffset();
+        } catch (InvalidProtocolBufferException e) {
+            Log.error("[OFFSET STORE] Could not parse commit at offset {}", record.getOffset());
+            return;
+        }
+
+        // keeps timestamps growing if this broker takes over as leader
+        lastTimestamp = Math.max(lastTimestamp, record.getTimestamp());
+        Commit current = commits.get(record.getKey());
+        if (current != null && current.timestamp > record.getTimestamp()) return;
+        commits.put(record.getKey(), new Commit(offset, record.getTimestamp()));
+    }
+
+    /**
+     * Returns the committed offset of a partition,
+     * null if it has never been committed.
+     *
+     * @param owner
+     * @param topic
+     * @param partition
+     * @return
+     */
+    public synchronized Integer fetch(String owner, String topic, int partition) {
+        Commit commit = commits.get(key(owner, topic, partition));
+        return commit == null ? null : commit.offset;
+    }
+
+    // key of the commits of a partition
+    private static ByteString key(String owner, String topic, int partition) {
+        return Kafka.Record.newBuilder()
+                .setKey(ByteString.copyFromUtf8(owner))
+                .setTopic(topic)
+                .setPartition(partition)
+                .build()
+                .toByteString();
+    }
+
+    // A committed offset and when it was committed
+    private static class Commit {
+        final int offset;
+        final long timestamp;
+
+        Commit(int offset, long timestamp) {
+            this.offset = offset;
+            this.timestamp = timestamp;
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package broker;
+
+/**
+ * @author Alberto Delgado on 5/7/22
+ * @project dsd-pub-sub
+ * <p>
+ * Stages of a publish, as traced: waiting on the sync barrier, waiting on
+ * the store lock, storing in memory, persisting the batch (only when it is
+ * full), queueing for push consumers, replicating and acking.
+ */
+public enum PublishStage {
+    BARRIER, LOCK, STORE, FLUSH, PUSH, REPLICATE, ACK
+}
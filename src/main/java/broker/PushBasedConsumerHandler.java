@@ -1,13 +1,15 @@
 package broker;
 
 import common.Connection;
+import common.Log;
 import protos.Kafka;
 
-import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.TimeUnit;
 
@@ -17,90 +19,167 @@ import java.util.concurrent.TimeUnit;
  * <p>
  * Handles the push based subscribed consumers.
  * <p>
- * Every time a producer sends a record it is stored in the blocking queue.
- * A worker then is in charge of polling one record at a time and sending it
- * to each subscribed consumer.
+ * Every time a producer sends a record it is stored in the blocking queue
+ * of the dispatcher in charge of that topic. Topics are sharded by hash
+ * across N dispatchers, so a burst on one topic does not delay the rest,
+ * while records of the same topic are still dispatched in order.
+ * <p>
+ * A dispatcher polls one record at a time, serializes it once and hands it
+ * to each subscribed consumer. Each consumer has its own queue and sender
+ * (see PushSubscriber), so fan-out is not limited by the slowest socket.
  */
 public class PushBasedConsumerHandler {
-    private final HashMap<String, List<Connection>> consumers = new HashMap<>(); // sockets of subscribed consumers
-    private final BlockingQueue<Kafka.Record> records = new LinkedBlockingDeque<>(); // list of records to be sent
+    private final Map<String, List<PushSubscriber>> consumers = new ConcurrentHashMap<>(); // subscribed consumers
+    private final Dispatcher[] dispatchers; // one per shard
     private final int POLL_TIMEOUT_MILLI = 800;
-    private final Thread workerThread = new Thread(new Worker());
-    private boolean isRunning = false;
+    private volatile boolean isRunning = false;
+
+    public PushBasedConsumerHandler() {
+        this(Constants.PUSH_DISPATCH_WORKERS);
+    }
+
+    public PushBasedConsumerHandler(int workers) {
+        if (workers <= 0) workers = Constants.PUSH_DISPATCH_WORKERS;
+        dispatchers = new Dispatcher[workers];
+        for (int i = 0; i < workers; i++)
+            dispatchers[i] = new Dispatcher(i);
+    }
 
     /**
      * Adds a new consumer to a topic subscription
      *
      * @param conn
      * @param topic
+     * @param credits records the consumer is initially willing to receive (0 for no flow control)
      */
-    public synchronized void subscribe(Connection conn, String topic) {
-        if (consumers.containsKey(topic)) {
-            consumers.get(topic).add(conn);
-        } else {
-            List<Connection> newConsumers = new ArrayList<>();
-            newConsumers.add(conn);
-            consumers.put(topic, newConsumers);
+    public synchronized void subscribe(Connection conn, String topic, int credits) {
+        PushSubscriber subscriber = new PushSubscriber(conn, topic, Constants.PUSH_SUBSCRIBER_QUEUE_CAPACITY, credits);
+        consumers.computeIfAbsent(topic, t -> new CopyOnWriteArrayList<>()).add(subscriber);
+
+        // start dispatchers if they haven't started yet
+        if (!isRunning) {
+            isRunning = true;
+            for (Dispatcher dispatcher : dispatchers)
+                dispatcher.thread.start();
+        }
+    }
+
+    // adds record to the blocking queue of its shard. Nothing
+    // to do if nobody is subscribed to the topic
+    public void add(Kafka.Record record) {
+        List<PushSubscriber> subscribedConsumers = consumers.get(record.getTopic());
+        if (subscribedConsumers == null || subscribedConsumers.isEmpty()) return;
+        dispatchers[shard(record.getTopic())].records.add(record);
+    }
+
+    // adds credits granted by a consumer to its subscription
+    public void grantCredits(Connection conn, String topic, int credits) {
+        List<PushSubscriber> subscribedConsumers = consumers.get(topic);
+        if (subscribedConsumers == null) return;
+        for (PushSubscriber subscriber : subscribedConsumers) {
+            if (subscriber.isFor(conn)) subscriber.grantCredits(credits);
         }
+    }
+
+    // Returns the subscribers that are not keeping up
+    public List<String> getSlowSubscribers() {
+        List<String> slow = new ArrayList<>();
+        for (List<PushSubscriber> subscribers : consumers.values()) {
+            for (PushSubscriber subscriber : subscribers)
+                if (subscriber.isSlow()) slow.add(subscriber.toString());
+        }
+        return slow;
+    }
 
-        // start worker if it hasn't started yet
-        if (workerThread.getState().equals(Thread.State.NEW))
-            workerThread.start();
+    // same topic always goes to the same shard to keep its order
+    private int shard(String topic) {
+        return Math.floorMod(topic.hashCode(), dispatchers.length);
     }
 
-    // adds record to blocking queue
-    public synchronized void add(Kafka.Record record) {
-        records.add(record);
+    /**
+     * Number of records waiting to be dispatched, per shard.
+     *
+     * @return
+     */
+    public int[] getQueueDepths() {
+        int[] depths = new int[dispatchers.length];
+        for (int i = 0; i < dispatchers.length; i++)
+            depths[i] = dispatchers[i].records.size();
+        return depths;
+    }
+
+    /**
+     * Number of records queued to be sent, over all subscribers.
+     *
+     * @return
+     */
+    public int getSubscriberQueueDepth() {
+        int depth = 0;
+        for (List<PushSubscriber> subscribers : consumers.values()) {
+            for (PushSubscriber subscriber : subscribers)
+                depth += subscriber.getQueueDepth();
+        }
+        return depth;
     }
 
     /**
      * Polls data from the blocking queue and checks the topic.
      * Then gets the list of consumers subscribed to that topic
-     * and sends the data to each one of them.
+     * and queues the serialized data to each one of them.
      */
-    private void poll() {
+    private void poll(BlockingQueue<Kafka.Record> records) {
         try {
             Kafka.Record record = records.poll(POLL_TIMEOUT_MILLI, TimeUnit.MILLISECONDS);
-            List<Connection> subscribedConsumers = consumers.get(record.getTopic());
-
-            if (subscribedConsumers == null) return;
-            for (Connection conn : subscribedConsumers) {
-                byte[] data = record.toByteArray();
-                try {
-                    conn.send(data);
-                } catch (IOException e) {
-                    // perhaps connection is no longer available.
-                    // Close connection.
-                    subscribedConsumers.remove(conn);
-                }
+            if (record == null) return;
+            List<PushSubscriber> subscribedConsumers = consumers.get(record.getTopic());
+            if (subscribedConsumers == null || subscribedConsumers.isEmpty()) return;
+
+            byte[] data = record.toByteArray(); // serialize once for every consumer
+            boolean anyClosed = false;
+            for (PushSubscriber subscriber : subscribedConsumers) {
+                subscriber.offer(data);
+                anyClosed |= subscriber.isClosed();
             }
+
+            // connection no longer available
+            if (anyClosed) subscribedConsumers.removeIf(PushSubscriber::isClosed);
         } catch (InterruptedException e) {
-            e.printStackTrace();
+            Log.error("[PUSH HANDLER] Dispatcher interrupted", e);
         }
     }
 
     /**
-     * Closes the worker thread
+     * Closes the dispatcher threads
      */
     public void close() {
         if (!isRunning) return;
         isRunning = false;
         try {
-            workerThread.join();
+            for (Dispatcher dispatcher : dispatchers)
+                dispatcher.thread.join();
         } catch (InterruptedException e) {
-            e.printStackTrace();
+            Log.error("[PUSH HANDLER] Interrupted waiting for dispatchers", e);
         }
+
+        for (List<PushSubscriber> subscribers : consumers.values())
+            subscribers.forEach(PushSubscriber::close);
     }
 
     /**
-     * As long as it is running it will poll one record and send it
-     * to each consumer. Will continue doing this until stopped.
+     * As long as it is running it will poll one record of its shard and
+     * send it to each consumer. Will continue doing this until stopped.
      */
-    private class Worker implements Runnable {
+    private class Dispatcher implements Runnable {
+        final BlockingQueue<Kafka.Record> records = new LinkedBlockingDeque<>(); // list of records to be sent
+        final Thread thread;
+
+        Dispatcher(int shard) {
+            thread = new Thread(this, "push-dispatcher-" + shard);
+        }
+
         @Override
         public void run() {
-            isRunning = true;
-            while (isRunning) poll();
+            while (isRunning) poll(records);
         }
     }
 }
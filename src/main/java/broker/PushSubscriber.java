@@ -0,0 +1,157 @@
+package broker;
+
+import common.Connection;
+import common.Log;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author Alberto Delgado on 4/23/22
+ * @project dsd-pub-sub
+ * <p>
+ * A push based consumer subscribed to a topic. Each subscriber has its own
+ * bounded queue of (already serialized) records and its own sender, so a
+ * slow socket only delays that consumer.
+ * <p>
+ * Flow control is credit based: the consumer grants a number of records
+ * and the sender only pushes within that credit. Consumers that did not
+ * ask for flow control (no initial credits) are pushed to as fast as possible.
+ * <p>
+ * If the queue is full the consumer is considered slow: the record is
+ * dropped for that consumer or, if configured, the consumer is disconnected.
+ */
+class PushSubscriber {
+    private final int POLL_TIMEOUT_MILLI = 800;
+    final String topic;
+    private final Connection conn;
+    private final BlockingQueue<byte[]> queue;
+    private final Thread sender;
+    private final boolean isFlowControlled;
+    private final Semaphore credits = new Semaphore(0);
+    private volatile boolean isClosed = false;
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    PushSubscriber(Connection conn, String topic, int capacity, int initialCredits) {
+        this.conn = conn;
+        this.topic = topic;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.isFlowControlled = initialCredits > 0;
+        grantCredits(initialCredits);
+        this.sender = new Thread(new Sender(), "push-" + topic + "-" + conn.getRemotePort());
+        sender.start();
+    }
+
+    /**
+     * Enqueues a record to be sent to this consumer. Never blocks.
+     *
+     * @param data serialized record
+     * @return false if the consumer is too slow (or gone) and the record was not queued
+     */
+    boolean offer(byte[] data) {
+        if (isClosed) return false;
+        if (queue.offer(data)) return true;
+
+        dropped.incrementAndGet();
+        if (Constants.PUSH_DISCONNECT_SLOW_CONSUMERS) {
+            Log.warn("[PUSH HANDLER] Disconnecting slow consumer {}:{}", conn.getHostname(), conn.getRemotePort());
+            close();
+        }
+        return false;
+    }
+
+    // adds credits granted by the consumer
+    void grantCredits(int n) {
+        if (n > 0) credits.release(n);
+    }
+
+    // checks if the subscriber is behind this connection
+    boolean isFor(Connection conn) {
+        return this.conn == conn;
+    }
+
+    // a consumer is slow if it has records waiting but
+    // has not granted credit to send them
+    boolean isSlow() {
+        return isFlowControlled && credits.availablePermits() == 0 && !queue.isEmpty();
+    }
+
+    // records the consumer is still willing to receive
+    int getCredits() {
+        return isFlowControlled ? credits.availablePermits() : Integer.MAX_VALUE;
+    }
+
+    // checks if subscriber is gone
+    boolean isClosed() {
+        return isClosed;
+    }
+
+    // number of records waiting to be sent
+    int getQueueDepth() {
+        return queue.size();
+    }
+
+    // number of records sent
+    long getSent() {
+        return sent.get();
+    }
+
+    // number of records dropped because consumer was too slow
+    long getDropped() {
+        return dropped.get();
+    }
+
+    @Override
+    public String toString() {
+        return "PushSubscriber {" + conn.getHostname() + ":" + conn.getRemotePort()
+                + ", topic=" + topic
+                + ", queued=" + getQueueDepth()
+                + ", credits=" + (isFlowControlled ? getCredits() : "unlimited")
+                + ", sent=" + getSent()
+                + ", dropped=" + getDropped() + "}";
+    }
+
+    // closes the connection and stops the sender
+    void close() {
+        if (isClosed) return;
+        isClosed = true;
+        if (!conn.isClosed()) conn.close();
+        sender.interrupt();
+    }
+
+    /**
+     * Sends queued records to the consumer until closed.
+     */
+    private class Sender implements Runnable {
+        @Override
+        public void run() {
+            while (!isClosed) {
+                try {
+                    byte[] data = queue.poll(POLL_TIMEOUT_MILLI, TimeUnit.MILLISECONDS);
+                    if (data == null) continue;
+                    // wait until consumer grants credit
+                    while (isFlowControlled && !credits.tryAcquire(POLL_TIMEOUT_MILLI, TimeUnit.MILLISECONDS)) {
+                        if (isClosed) return;
+                    }
+                    if (conn.isClosed()) {
+                        close();
+                        return;
+                    }
+                    conn.send(data);
+                    sent.incrementAndGet();
+                } catch (IOException e) {
+                    // perhaps connection is no longer available.
+                    // Close connection.
+                    close();
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package broker;
+
+import protos.Kafka;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * @author Alberto Delgado on 4/26/22
+ * @project dsd-pub-sub
+ * <p>
+ * Splits topics among the members of a consumer group.
+ * <p>
+ * Topics are not physically partitioned. Instead, each record belongs to a
+ * virtual partition given by the hash of its key (or its offset if it has no
+ * key), so records with the same key always go to the same member. Members
+ * sorted by id get contiguous ranges of partitions. Assignments are derived
+ * from the current membership, therefore a join or leave rebalances the group
+ * on the next fetch.
+ */
+public class RangeAssignor {
+
+    private RangeAssignor() {
+    }
+
+    /**
+     * Virtual partition a record belongs to
+     *
+     * @param record
+     * @param partitions
+     * @return
+     */
+    public static int partitionOf(Kafka.Record record, int partitions) {
+        int hash = record.getKey().isEmpty()
+                ? record.getOffset()
+                : record.getKey().hashCode();
+        return Math.floorMod(hash, partitions);
+    }
+
+    /**
+     * Partitions assigned to a member. The first (partitions % members)
+     * members get one extra partition.
+     *
+     * @param memberId
+     * @param members    sorted member ids
+     * @param partitions
+     * @return
+     */
+    public static Set<Integer> assign(int memberId, List<Integer> members, int partitions) {
+        Set<Integer> assigned = new HashSet<>();
+        int index = members.indexOf(memberId);
+        if (index < 0) return assigned;
+
+        int perMember = partitions / members.size();
+        int extra = partitions % members.size();
+        int start = index * perMember + Math.min(index, extra);
+        int length = perMember + (index < extra ? 1 : 0);
+        for (int p = start; p < start + length; p++)
+            assigned.add(p);
+
+        return assigned;
+    }
+}
@@ -0,0 +1,141 @@
+package broker;
+
+import com.google.protobuf.ByteString;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * @author Alberto Delgado on 4/30/22
+ * @project dsd-pub-sub
+ * <p>
+ * In-memory cache of recently persisted records, bounded by bytes and
+ * evicted least recently used first. Caught up consumers keep asking for
+ * the tail of their topics, so records are cached when they are written
+ * and those reads are served without touching the disk.
+ * <p>
+ * Records read from disk (misses) are not added: a consumer or follower
+ * reading a topic from the beginning would otherwise push the hot tails out.
+ */
+public class RecordCache {
+    private final long maxBytes;
+    private final LinkedHashMap<Key, ByteString> records = new LinkedHashMap<>(16, 0.75f, true); // access order
+    private long bytes = 0;
+    // metrics
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    RecordCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Caches a record. Evicts the least recently used ones if
+     * the cache goes over its size.
+     *
+     * @param topic
+     * @param offset start offset of the record
+     * @param data
+     */
+    synchronized void put(String topic, int offset, ByteString data) {
+        if (data.size() > maxBytes) return;
+
+        ByteString previous = records.put(new Key(topic, offset), data);
+        if (previous != null) bytes -= previous.size();
+        bytes += data.size();
+
+        Iterator<ByteString> eldest = records.values().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            bytes -= eldest.next().size();
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Returns the record at the given start offset, null if not cached.
+     *
+     * @param topic
+     * @param offset start offset of the record
+     * @return
+     */
+    synchronized ByteString get(String topic, int offset) {
+        ByteString data = records.get(new Key(topic, offset));
+        if (data == null) misses++;
+        else hits++;
+        return data;
+    }
+
+    /**
+     * Hits counter
+     *
+     * @return
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Misses counter
+     *
+     * @return
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Evictions counter
+     *
+     * @return
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Bytes currently cached
+     *
+     * @return
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Hit ratio since the broker started, 0 if nothing was read yet
+     *
+     * @return
+     */
+    public synchronized double getHitRatio() {
+        long reads = hits + misses;
+        return reads == 0 ? 0 : (double) hits / reads;
+    }
+
+    // (topic, start offset) of a record
+    private static class Key {
+        final String topic;
+        final int offset;
+
+        Key(String topic, int offset) {
+            this.topic = topic;
+            this.offset = offset;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return offset == key.offset && topic.equals(key.topic);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(topic, offset);
+        }
+    }
+}
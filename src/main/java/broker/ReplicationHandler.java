@@ -1,6 +1,9 @@
 package broker;
 
 import common.Connection;
+import common.Log;
+import metrics.Counter;
+import metrics.Latency;
 import protos.Kafka;
 import utils.Demo;
 import zookeeper.MembershipTableListener;
@@ -10,6 +13,9 @@ import zookeeper.ZooKeeper;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * @author Alberto Delgado on 4/18/22
@@ -20,10 +26,15 @@ import java.util.Map;
  * reflected here to have up-to-date nodes.
  * <p>
  * Will only replicate if it is leader.
+ * <p>
+ * Replicas ack every record, in order. Acks of each replica are read on a
+ * thread of its own and matched with the oldest record in flight, which
+ * gives the replication lag of that replica.
  */
 public class ReplicationHandler extends BrokerService implements MembershipTableListener {
     private final Map<Integer, ZKNode> replicas = new HashMap<>();
     private final Map<Integer, Connection> connections = new HashMap<>();
+    private final Map<Integer, ReplicaMetrics> replicaMetrics = new ConcurrentHashMap<>();
 
     ReplicationHandler(Broker broker, ZooKeeper zooKeeper) {
         super(broker, zooKeeper);
@@ -33,19 +44,32 @@ public class ReplicationHandler extends BrokerService implements MembershipTable
     public synchronized void send(Kafka.Record record) {
         handleConnections();
 
-        Kafka.Record replica = Kafka.Record.newBuilder(record)
-                .setRole(Kafka.Record.Role.BROKER)
-                .build();
+        if (connections.isEmpty()) return;
+
+        // encoded once for all replicas, with role overridden to BROKER
+        int length;
+        try {
+            length = ConnectionHelpers.encode(record, ConnectionHelpers.BROKER_ROLE);
+        } catch (IOException e) {
+            return;
+        }
+        byte[] replica = ConnectionHelpers.encodeBuffer(length);
 
-        for (Connection conn : connections.values()) {
+        for (Map.Entry<Integer, Connection> entry : connections.entrySet()) {
+            ReplicaMetrics metrics = replicaMetrics.computeIfAbsent(entry.getKey(), ReplicaMetrics::new);
+            long start = System.nanoTime();
             try {
                 Demo.printReplication("[REPLICATION HANDLER] Sending data to replica");
-                conn.send(replica.toByteArray());
+                entry.getValue().send(replica, 0, length);
+                metrics.inFlight.add(start);
+                metrics.records.inc();
             } catch (IOException e) {
                 // Not handling this here
                 // If connection broker, it is up to ZooKeeper
                 // to remove that connection
+                metrics.errors.inc();
             }
+            metrics.latency.recordSince(start);
         }
     }
 
@@ -76,6 +100,33 @@ public class ReplicationHandler extends BrokerService implements MembershipTable
         }
     }
 
+    // Reads the acks of a replica until its connection is closed,
+    // recording how long each record took to be acked
+    private void readAcks(int id, Connection conn) {
+        ReplicaMetrics metrics = replicaMetrics.computeIfAbsent(id, ReplicaMetrics::new);
+        while (conn.receive() != null) {
+            Long sent = metrics.inFlight.poll();
+            if (sent != null) metrics.lag.recordSince(sent);
+        }
+    }
+
+    // Replication metrics of a replica
+    private class ReplicaMetrics {
+        final Counter records;
+        final Counter errors;
+        final Latency latency;
+        final Latency lag;
+        final Queue<Long> inFlight = new ConcurrentLinkedQueue<>(); // send time of records not acked yet
+
+        ReplicaMetrics(int id) {
+            String replica = String.valueOf(id);
+            records = broker.metrics.counter("broker_replication_records_total", "Records sent to a replica", "replica", replica);
+            errors = broker.metrics.counter("broker_replication_errors_total", "Records that could not be sent to a replica", "replica", replica);
+            latency = broker.metrics.latency("broker_replication_send_seconds", "Time to send a record to a replica", "replica", replica);
+            lag = broker.metrics.latency("broker_replication_lag_seconds", "Time from a record being sent to a replica to it being acked", "replica", replica);
+        }
+    }
+
     // Checks if it is leader. In case it is not it removes all
     // connections. Trying to avoid memory leaks.
     private void handleConnections() {
@@ -94,10 +145,16 @@ public class ReplicationHandler extends BrokerService implements MembershipTable
         for (ZKNode node : replicas.values()) {
             if (!node.getIsSynced()) continue;
             if (!connections.containsKey(node.ID)) {
-                System.out.println("[REPLICATION " + zooKeeper.ID + "] Establishing connection to node " + node.ID + ".");
+                Log.info("[REPLICATION {}] Establishing connection to node {}.", zooKeeper.ID, node.ID);
                 Connection replica = new Connection(node.HOSTNAME, node.BROKER_PORT);
-                if (replica.hasConnected)
+                if (replica.hasConnected) {
+                    // records sent on a previous connection won't be acked
+                    replicaMetrics.computeIfAbsent(node.ID, ReplicaMetrics::new).inFlight.clear();
                     connections.put(node.ID, replica);
+                    Thread acks = new Thread(() -> readAcks(node.ID, replica), "replication-acks-" + node.ID);
+                    acks.setDaemon(true);
+                    acks.start();
+                }
             }
         }
     }
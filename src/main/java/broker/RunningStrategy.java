@@ -1,5 +1,6 @@
 package broker;
 
+import common.Log;
 import common.StateStrategy;
 import zookeeper.ZooKeeper;
 
@@ -13,6 +14,6 @@ import zookeeper.ZooKeeper;
 class RunningStrategy implements StateStrategy {
     @Override
     public void execute(Broker broker, ZooKeeper zooKeeper) {
-        System.out.println(broker.TAG + "Broker running.");
+        Log.info("{}Broker running.", broker.TAG);
     }
 }
@@ -1,16 +1,23 @@
 package broker;
 
 import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+import common.Log;
+import metrics.Latency;
+import metrics.MetricsRegistry;
 import protos.Kafka;
 
+import java.io.EOFException;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
@@ -18,9 +25,25 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
  * @project dsd-pub-sub
  * <p>
  * This class handles all segments. Segments are files that contain
- * data for a certain topic. The idea would be to be able to create n segments
- * for each topic, for example of 500MB of size per segment, but for simplicity
- * each topic will have one unique segment.
+ * data for a certain topic. Each topic is a folder of segments, named after
+ * the offset of their first byte. Records are appended to the last (active)
+ * segment, which is rolled once it reaches SEGMENT_MAX_BYTES.
+ * <p>
+ * Retention is per topic, by age (retention.ms) and size (retention.bytes).
+ * A background cleaner deletes whole rolled segments and moves the log start
+ * offset forward; requests below it simply start at the first record kept.
+ * <p>
+ * Topics with cleanup.policy=compact are compacted instead: rolled segments are
+ * rewritten keeping only the latest record of each key. Offsets don't change, the
+ * compacted segment maps each offset to its new position in the file.
+ * <p>
+ * Each topic has a time index as well, to find the offset of the first record
+ * from a given time onwards without scanning its segments. It covers the whole
+ * topic and is rebuilt from the records kept when retention or compaction
+ * removes some.
+ * <p>
+ * Newly written records are kept in a RecordCache, so reads of the tail of a
+ * topic (caught up consumers) are served from memory.
  */
 public class SegmentHandler {
     private String SEGMENTS_DIR = "./segments/";
@@ -30,11 +53,76 @@ public class SegmentHandler {
     // is the record offset start position and the value contains the record offset
     // end position
     private Map<String, TreeMap<Integer, SegmentOffset>> segmentOffsets = new HashMap<>();
+    // time index for each topic. Maps the max timestamp seen so far to the offset
+    // to fetch from to get that record. Only grows when timestamp goes over the max,
+    // so it stays sorted even if records arrive (slightly) out of order
+    private Map<String, TreeMap<Long, Integer>> timeIndexes = new HashMap<>();
+    // retention of each topic. Topics not here use the default retention
+    private final Map<String, Retention> retentions = new ConcurrentHashMap<>();
+    // cleanup policy of each topic. Topics not here are cleaned by retention
+    private final Map<String, String> cleanupPolicies = new ConcurrentHashMap<>();
     // lock to access the segmentOffsets Treemap
     private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // recently written records
+    private final RecordCache cache;
+    // time taken to append a record to its segment
+    private final Latency appendLatency;
 
     SegmentHandler(String dir) {
+        this(dir, new MetricsRegistry());
+    }
+
+    SegmentHandler(String dir, MetricsRegistry metrics) {
+        this(dir, metrics, Constants.READ_CACHE_MAX_BYTES);
+    }
+
+    // cacheBytes 0 reads every record from its segment
+    SegmentHandler(String dir, MetricsRegistry metrics, long cacheBytes) {
         SEGMENTS_DIR += dir;
+        cache = new RecordCache(cacheBytes);
+        appendLatency = metrics.latency("broker_segment_append_seconds", "Time to append a record to its segment");
+        metrics.gauge("broker_read_cache_bytes", "Bytes held by the read cache", cache::getBytes);
+        metrics.counter("broker_read_cache_hits_total", "Reads served from the read cache", cache::getHits);
+        metrics.counter("broker_read_cache_misses_total", "Reads that went to the segment files", cache::getMisses);
+        metrics.counter("broker_read_cache_evictions_total", "Records evicted from the read cache", cache::getEvictions);
+        clearTopics();
+    }
+
+    // Segments hold only the record values: where each record ends, its key
+    // and timestamp are kept in memory. Segments left by a previous run can't
+    // be read back, so topic folders are removed and their data is synced
+    // again from the leader. Committed offsets are a topic too, so they go (and
+    // come back) along with the data they point into. Anything else left in
+    // the directory, like the offsets log of older versions, is removed too
+    private void clearTopics() {
+        File[] folders = new File(SEGMENTS_DIR).listFiles();
+        if (folders == null) return; // first run
+
+        for (File folder : folders) {
+            if (!folder.isDirectory()) {
+                if (!folder.delete()) Log.error("[SEGMENT HANDLER] Could not delete {}", folder.getName());
+                continue;
+            }
+
+            File[] files = folder.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    if (!file.delete()) Log.error("[SEGMENT HANDLER] Could not delete segment {}", file.getName());
+                }
+            }
+            if (!folder.delete()) Log.error("[SEGMENT HANDLER] Could not delete segments folder {}", folder.getName());
+            Log.info("[SEGMENT HANDLER] Cleared segments of {} left from a previous run", folder.getName());
+        }
+    }
+
+    // directory where segments are persisted
+    String getDir() {
+        return SEGMENTS_DIR;
+    }
+
+    // cache of recently written records
+    public RecordCache getCache() {
+        return cache;
     }
 
     /**
@@ -62,6 +150,45 @@ public class SegmentHandler {
         }
     }
 
+    /**
+     * Looks up the offset to fetch from in order to get the records with
+     * timestamp equal or greater than the given one. Returns null if there
+     * is no such record.
+     *
+     * @param topic
+     * @param timestamp
+     * @return
+     */
+    Integer offsetForTime(String topic, long timestamp) {
+        lock.readLock().lock();
+        try {
+            TreeMap<Long, Integer> timeIndex = timeIndexes.get(topic);
+            if (timeIndex == null) return null;
+            Map.Entry<Long, Integer> entry = timeIndex.ceilingEntry(timestamp);
+            return entry == null ? null : entry.getValue();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Offset of the last record persisted for a topic. Null if nothing
+     * has been persisted yet.
+     *
+     * @param topic
+     * @return
+     */
+    Integer lastOffset(String topic) {
+        lock.readLock().lock();
+        try {
+            TreeMap<Integer, SegmentOffset> offsets = segmentOffsets.get(topic);
+            if (offsets == null || offsets.isEmpty()) return null;
+            return offsets.lastEntry().getValue().offset;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
     /**
      * Gets all the records available for a certain topic from a specified
      * offset onwards
@@ -71,35 +198,47 @@ public class SegmentHandler {
      * @return
      */
     List<Kafka.Record> get(String topic, int requestedOffset) {
+        return get(topic, requestedOffset, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Gets at most maxRecords records for a certain topic from a specified
+     * offset onwards. Used to stream a topic in chunks (e.g. broker sync)
+     * instead of materializing the whole segment at once. Offsets below
+     * the log start (data already deleted) start at the first record kept.
+     *
+     * @param topic
+     * @param requestedOffset
+     * @param maxRecords
+     * @return
+     */
+    List<Kafka.Record> get(String topic, int requestedOffset, int maxRecords) {
         SegmentWriter segmentWriter = getWriter(topic);
         segmentWriter.lock.readLock().lock();
         List<Kafka.Record> data = new ArrayList<>();
         try {
-            byte[] segmentData = readSegment(topic);
             TreeMap<Integer, SegmentOffset> offsets = segmentOffsets.get(topic);
-            Map.Entry<Integer, SegmentOffset> lastOffset = offsets.higherEntry(requestedOffset);
+            if (offsets == null) return data; // nothing persisted yet
 
-            while (lastOffset != null) {
+            int fromOffset = Math.max(requestedOffset, segmentWriter.getLogStartOffset() - 1);
+            Map.Entry<Integer, SegmentOffset> lastOffset = offsets.higherEntry(fromOffset);
+
+            while (lastOffset != null && data.size() < maxRecords) {
                 int lastOffsetStart = lastOffset.getKey();
                 SegmentOffset segmentOffset = lastOffset.getValue();
                 int lastOffsetEnd = segmentOffset.offset;
-                long timestamp = segmentOffset.timestamp;
-                ByteString key = segmentOffset.key;
-
-                byte[] recordValue = new byte[lastOffsetEnd - lastOffsetStart + 1];
 
-                // read bytes from persisted segment data
-                int j = 0;
-                for (int i = lastOffsetStart; i <= lastOffsetEnd; i++) {
-                    recordValue[j++] = segmentData[i];
-                }
+                // read only the bytes of the record, from its segment if not cached
+                ByteString recordValue = cache.get(topic, lastOffsetStart);
+                if (recordValue == null)
+                    recordValue = segmentWriter.read(lastOffsetStart, lastOffsetEnd - lastOffsetStart + 1);
 
                 Kafka.Record record = Kafka.Record.newBuilder()
                         .setTopic(topic)
-                        .setKey(key)
-                        .setValue(ByteString.copyFrom(recordValue))
+                        .setKey(segmentOffset.key)
+                        .setValue(recordValue)
                         .setOffset(lastOffsetEnd)
-                        .setTimestamp(timestamp)
+                        .setTimestamp(segmentOffset.timestamp)
                         .build();
 
                 data.add(record);
@@ -107,11 +246,11 @@ public class SegmentHandler {
                 lastOffset = offsets.higherEntry(lastOffsetEnd);
             }
         } catch (IOException e) {
-            System.out.println("[SEGMENT HANDLER] Topic requested has yet not been persisted");
+            Log.debug("[SEGMENT HANDLER] Topic requested has yet not been persisted");
         } finally {
             segmentWriter.lock.readLock().unlock();
-            return data;
         }
+        return data;
     }
 
     /**
@@ -119,16 +258,18 @@ public class SegmentHandler {
      *
      * @param topic
      * @param records
-     * @throws FileNotFoundException
      */
     void add(String topic, List<Kafka.Record> records) {
         SegmentWriter segmentWriter = getWriter(topic);
         segmentWriter.lock.writeLock().lock();
         try {
             for (Kafka.Record record : records) {
-                byte[] value = record.getValue().toByteArray();
-                segmentWriter.write(value);
-                updateOffset(topic, record.getKey(), value.length, record.getTimestamp());
+                long start = System.nanoTime();
+                ByteString value = record.getValue(); // immutable, written and cached without copies
+                segmentWriter.write(value, record.getTimestamp());
+                int offset = updateOffset(topic, record.getKey(), value.size(), record.getTimestamp());
+                cache.put(topic, offset, value);
+                appendLatency.recordSince(start);
             }
         } finally {
             segmentWriter.lock.writeLock().unlock();
@@ -136,15 +277,195 @@ public class SegmentHandler {
     }
 
     /**
-     * Reads a segment and returns it in bytes
+     * Sets the retention of a topic. A negative value means no limit.
+     *
+     * @param topic
+     * @param retentionMs    max age of a segment (by the newest record in it)
+     * @param retentionBytes max size of the topic
+     */
+    void setRetention(String topic, long retentionMs, long retentionBytes) {
+        retentions.put(topic, new Retention(retentionMs, retentionBytes));
+    }
+
+    /**
+     * Sets the cleanup policy of a topic: CLEANUP_POLICY_DELETE (retention)
+     * or CLEANUP_POLICY_COMPACT (latest record of each key is kept).
+     *
+     * @param topic
+     * @param policy
+     */
+    void setCleanupPolicy(String topic, String policy) {
+        cleanupPolicies.put(topic, policy);
+    }
+
+    /**
+     * First offset still available for a topic. Everything before
+     * it has been deleted by retention.
      *
      * @param topic
      * @return
-     * @throws IOException
      */
-    private byte[] readSegment(String topic) throws IOException {
-        Path path = Paths.get(SEGMENTS_DIR + topic);
-        return Files.readAllBytes(path);
+    int getLogStartOffset(String topic) {
+        SegmentWriter segmentWriter = getWriter(topic);
+        segmentWriter.lock.readLock().lock();
+        try {
+            return segmentWriter.getLogStartOffset();
+        } finally {
+            segmentWriter.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Enforces retention on every topic. Deletes, oldest first, the rolled
+     * segments that are too old or that make the topic too big. The active
+     * segment is never deleted. Compacted topics are compacted instead.
+     *
+     * @return number of bytes deleted
+     */
+    long cleanUp() {
+        List<String> topics;
+        synchronized (this) {
+            topics = new ArrayList<>(segmentWriters.keySet());
+        }
+
+        long deleted = 0;
+        long now = System.currentTimeMillis();
+        for (String topic : topics) {
+            if (Constants.CLEANUP_POLICY_COMPACT.equals(cleanupPolicies.get(topic))) {
+                deleted += compact(topic);
+                continue;
+            }
+
+            Retention retention = retentions.getOrDefault(topic, Retention.DEFAULT);
+            SegmentWriter segmentWriter = getWriter(topic);
+            segmentWriter.lock.writeLock().lock();
+            try {
+                long topicDeleted = segmentWriter.deleteExpired(retention, now);
+                if (topicDeleted == 0) continue;
+
+                trimIndexes(topic, segmentWriter.getLogStartOffset());
+                deleted += topicDeleted;
+                Log.info("[SEGMENT HANDLER] Retention on {} deleted {} bytes. Log start offset is now {}",
+                        topic, topicDeleted, segmentWriter.getLogStartOffset());
+            } finally {
+                segmentWriter.lock.writeLock().unlock();
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Compacts the rolled segments of a topic: rewrites them keeping only
+     * the latest record of each key (records without key are kept). The
+     * new segments are written while reads go on; only swapping them in
+     * holds the topic.
+     *
+     * @param topic
+     * @return number of bytes removed
+     */
+    private long compact(String topic) {
+        SegmentWriter segmentWriter = getWriter(topic);
+        Map<Integer, Segment> compacted = new HashMap<>(); // by base offset
+        Set<Integer> removed = new HashSet<>(); // offsets of the records removed
+
+        segmentWriter.lock.readLock().lock();
+        try {
+            TreeMap<Integer, SegmentOffset> offsets = segmentOffsets.get(topic);
+            TreeMap<Integer, Segment> segments = segmentWriter.segments;
+            if (offsets == null || segments.size() < 2) return 0;
+
+            // latest offset of every key, active segment included
+            KeyOffsetMap latest = new KeyOffsetMap(offsets.size());
+            for (Map.Entry<Integer, SegmentOffset> offset : offsets.entrySet()) {
+                if (!offset.getValue().key.isEmpty())
+                    latest.put(offset.getValue().key, offset.getKey());
+            }
+
+            for (Segment segment : segments.headMap(segments.lastKey()).values()) {
+                int nextBase = segments.higherKey(segment.baseOffset);
+                List<Map.Entry<Integer, SegmentOffset>> keep = new ArrayList<>();
+                int dropped = 0;
+                for (Map.Entry<Integer, SegmentOffset> offset : offsets.subMap(segment.baseOffset, nextBase).entrySet()) {
+                    ByteString key = offset.getValue().key;
+                    if (key.isEmpty() || latest.get(key) == offset.getKey()) {
+                        keep.add(offset);
+                    } else {
+                        removed.add(offset.getKey());
+                        dropped++;
+                    }
+                }
+                if (dropped > 0) compacted.put(segment.baseOffset, segment.compact(keep));
+            }
+        } catch (IOException e) {
+            Log.error("[SEGMENT HANDLER] Could not compact {}", topic);
+            compacted.values().forEach(Segment::delete);
+            return 0;
+        } finally {
+            segmentWriter.lock.readLock().unlock();
+        }
+
+        if (compacted.isEmpty()) return 0;
+
+        long deleted = 0;
+        segmentWriter.lock.writeLock().lock();
+        try {
+            for (Segment segment : compacted.values()) {
+                Segment old = segmentWriter.segments.get(segment.baseOffset);
+                try {
+                    segment.replace(old);
+                } catch (IOException e) {
+                    Log.error("[SEGMENT HANDLER] Could not compact segment {}", old.file.getName());
+                    segment.delete();
+                    continue;
+                }
+                segmentWriter.segments.put(segment.baseOffset, segment);
+                deleted += old.size - segment.size;
+            }
+
+            lock.writeLock().lock();
+            try {
+                TreeMap<Integer, SegmentOffset> offsets = segmentOffsets.get(topic);
+                for (Integer offset : removed) {
+                    Map.Entry<Integer, Segment> segment = segmentWriter.segments.floorEntry(offset);
+                    if (segment != null && segment.getValue().contains(offset)) continue; // was not replaced
+                    offsets.remove(offset);
+                }
+                rebuildTimeIndex(topic);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } finally {
+            segmentWriter.lock.writeLock().unlock();
+        }
+
+        Log.info("[SEGMENT HANDLER] Compaction of {} removed {} records ({} bytes)", topic, removed.size(), deleted);
+        return deleted;
+    }
+
+    // Drops the offsets of deleted records and rebuilds the time index
+    // from the records kept
+    private void trimIndexes(String topic, int logStartOffset) {
+        lock.writeLock().lock();
+        try {
+            TreeMap<Integer, SegmentOffset> topicOffsets = segmentOffsets.get(topic);
+            if (topicOffsets == null) return;
+            topicOffsets.headMap(logStartOffset).clear();
+            rebuildTimeIndex(topic);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Rebuilds the time index of a topic from its offsets.
+    // Lock must be held
+    private void rebuildTimeIndex(String topic) {
+        TreeMap<Long, Integer> timeIndex = new TreeMap<>();
+        for (Map.Entry<Integer, SegmentOffset> offset : segmentOffsets.get(topic).entrySet()) {
+            long timestamp = offset.getValue().timestamp;
+            if (timeIndex.isEmpty() || timestamp > timeIndex.lastKey())
+                timeIndex.put(timestamp, offset.getKey() - 1);
+        }
+        timeIndexes.put(topic, timeIndex);
     }
 
     /**
@@ -153,7 +474,6 @@ public class SegmentHandler {
      *
      * @param topic
      * @return
-     * @throws FileNotFoundException
      */
     private synchronized SegmentWriter getWriter(String topic) {
         SegmentWriter segmentWriter = segmentWriters.get(topic);
@@ -172,8 +492,9 @@ public class SegmentHandler {
      * @param key
      * @param recordLength
      * @param timestamp
+     * @return start offset of the record
      */
-    private synchronized void updateOffset(String topic, ByteString key, int recordLength, long timestamp) {
+    private synchronized int updateOffset(String topic, ByteString key, int recordLength, long timestamp) {
         lock.writeLock().lock();
         try {
             TreeMap<Integer, SegmentOffset> topicOffsets = segmentOffsets.get(topic);
@@ -185,14 +506,22 @@ public class SegmentHandler {
 
             Map.Entry<Integer, SegmentOffset> lastOffset = topicOffsets.lastEntry();
 
+            int newOffsetStarts;
             if (lastOffset == null) {
+                newOffsetStarts = 0;
                 topicOffsets.put(0, new SegmentOffset(key, recordLength - 1, timestamp));
             } else {
                 int lastOffsetEnds = lastOffset.getValue().offset;
-                int newOffsetStarts = lastOffsetEnds + 1;
+                newOffsetStarts = lastOffsetEnds + 1;
                 int newOffsetEnds = newOffsetStarts + recordLength - 1;
                 topicOffsets.put(newOffsetStarts, new SegmentOffset(key, newOffsetEnds, timestamp));
             }
+
+            // records are fetched from the end offset of the previous one
+            TreeMap<Long, Integer> timeIndex = timeIndexes.computeIfAbsent(topic, t -> new TreeMap<>());
+            if (timeIndex.isEmpty() || timestamp > timeIndex.lastKey())
+                timeIndex.put(timestamp, newOffsetStarts - 1);
+            return newOffsetStarts;
         } finally {
             lock.writeLock().unlock();
         }
@@ -213,41 +542,185 @@ public class SegmentHandler {
         }
     }
 
+    /**
+     * Retention of a topic. Negative values mean no limit
+     */
+    private static class Retention {
+        static final Retention DEFAULT = new Retention(Constants.RETENTION_MS, Constants.RETENTION_BYTES);
+        final long ms;
+        final long bytes;
+
+        Retention(long ms, long bytes) {
+            this.ms = ms;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * One file of a topic, holding the records from baseOffset onwards.
+     * Once compacted, records are no longer at (offset - baseOffset) in
+     * the file, so their positions are kept.
+     */
+    private static class Segment {
+        final int baseOffset;
+        File file;
+        final FileOutputStream writer;
+        final FileChannel reader;
+        Map<Integer, Integer> positions = null; // offset to position in file, only if compacted
+        int size = 0;
+        long maxTimestamp = Long.MIN_VALUE; // newest record in the segment
+
+        Segment(String dir, int baseOffset) throws IOException {
+            this(new File(dir + String.format("%020d", baseOffset) + ".log"), baseOffset);
+        }
+
+        private Segment(File file, int baseOffset) throws IOException {
+            this.baseOffset = baseOffset;
+            this.file = file;
+            this.writer = new FileOutputStream(file);
+            this.reader = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        }
+
+        // Copies the given records into a new segment, next to this one
+        Segment compact(List<Map.Entry<Integer, SegmentOffset>> records) throws IOException {
+            Segment compacted = new Segment(new File(file.getPath() + ".compacting"), baseOffset);
+            compacted.positions = new HashMap<>();
+            for (Map.Entry<Integer, SegmentOffset> record : records) {
+                int start = record.getKey();
+                ByteString data = read(start, record.getValue().offset - start + 1);
+                compacted.positions.put(start, compacted.size);
+                compacted.append(data, record.getValue().timestamp);
+            }
+            return compacted;
+        }
+
+        // Takes the place (file) of the given segment
+        void replace(Segment old) throws IOException {
+            Files.move(file.toPath(), old.file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            file = old.file;
+            old.close();
+        }
+
+        // checks if the record at the offset is in this segment
+        boolean contains(int offset) {
+            return positions == null || positions.containsKey(offset);
+        }
+
+        // appends a record at the end of the segment
+        void append(ByteString data, long timestamp) throws IOException {
+            data.writeTo(writer);
+            size += data.size();
+            maxTimestamp = Math.max(maxTimestamp, timestamp);
+        }
+
+        // reads length bytes from the given offset (of the topic)
+        ByteString read(int offset, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            long position = positions == null ? offset - baseOffset : positions.get(offset);
+            while (buffer.hasRemaining()) {
+                int read = reader.read(buffer, position + buffer.position());
+                if (read < 0) throw new EOFException();
+            }
+            return UnsafeByteOperations.unsafeWrap(buffer.array()); // buffer is not used after this
+        }
+
+        // closes the file
+        void close() {
+            try {
+                writer.close();
+                reader.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        // closes and removes the file
+        void delete() {
+            close();
+            if (!file.delete())
+                Log.error("[SEGMENT HANDLER] Could not delete segment {}", file.getName());
+        }
+    }
+
     /**
      * Writes data and holds a lock so only one thread
-     * is writing at a time
+     * is writing at a time. Keeps the segments of a topic
+     * and rolls a new one when the active one is full.
      */
     private class SegmentWriter {
-        public FileOutputStream writer;
         public final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private final String dir;
+        private final TreeMap<Integer, Segment> segments = new TreeMap<>(); // by base offset
+        private int nextOffset = 0; // offset where the next record starts
 
         SegmentWriter(String topic) {
-            File dir = new File(SEGMENTS_DIR);
-            if (!dir.exists()) {
-                dir.mkdir();
-                System.out.println("[SEGMENT HANDLER] Creating segments folder.");
-            }
-
-            try {
-                // then create file output stream for that topic
-                writer = new FileOutputStream(SEGMENTS_DIR + topic);
-            } catch (FileNotFoundException e) {
-                // dir is created so it won't fail
-                e.printStackTrace();
+            dir = SEGMENTS_DIR + topic + "/";
+            File folder = new File(dir);
+            if (!folder.exists()) {
+                folder.mkdirs();
+                Log.info("[SEGMENT HANDLER] Creating segments folder.");
             }
         }
 
         /**
-         * Persists data to file
+         * Persists data to the active segment
          *
          * @param data
+         * @param timestamp
          */
-        private void write(byte[] data) {
+        private void write(ByteString data, long timestamp) {
             try {
-                writer.write(data);
+                Segment active = segments.isEmpty() ? null : segments.lastEntry().getValue();
+                if (active == null || (active.size > 0 && active.size + data.size() > Constants.SEGMENT_MAX_BYTES))
+                    active = roll();
+                active.append(data, timestamp);
+                nextOffset += data.size();
             } catch (IOException e) {
-                System.err.println("[SEGMENT HANDLER] Something went wrong writing record to segment");
+                Log.error("[SEGMENT HANDLER] Something went wrong writing record to segment");
+            }
+        }
+
+        // creates a new active segment
+        private Segment roll() throws IOException {
+            Segment segment = new Segment(dir, nextOffset);
+            segments.put(nextOffset, segment);
+            return segment;
+        }
+
+        // reads the bytes of a record from the segment holding it
+        private ByteString read(int offset, int length) throws IOException {
+            Map.Entry<Integer, Segment> segment = segments.floorEntry(offset);
+            if (segment == null) throw new EOFException();
+            return segment.getValue().read(offset, length);
+        }
+
+        // first offset still available
+        private int getLogStartOffset() {
+            return segments.isEmpty() ? nextOffset : segments.firstKey();
+        }
+
+        // Deletes rolled segments, oldest first, while they are older
+        // than retention.ms or the topic is over retention.bytes.
+        // Returns the number of bytes deleted
+        private long deleteExpired(Retention retention, long now) {
+            long size = 0;
+            for (Segment segment : segments.values())
+                size += segment.size;
+
+            long deleted = 0;
+            while (segments.size() > 1) {
+                Segment oldest = segments.firstEntry().getValue();
+                boolean tooOld = retention.ms >= 0 && oldest.maxTimestamp < now - retention.ms;
+                boolean tooBig = retention.bytes >= 0 && size - oldest.size >= retention.bytes;
+                if (!tooOld && !tooBig) break;
+
+                segments.pollFirstEntry();
+                oldest.delete();
+                size -= oldest.size;
+                deleted += oldest.size;
             }
+            return deleted;
         }
     }
 }
@@ -1,5 +1,6 @@
 package broker;
 
+import common.Log;
 import common.StateStrategy;
 import zookeeper.ZooKeeper;
 
@@ -16,13 +17,16 @@ import zookeeper.ZooKeeper;
 public class ShutdownStrategy implements StateStrategy {
     @Override
     public void execute(Broker broker, ZooKeeper zooKeeper) {
-        System.out.println(broker.TAG + "Closing ZooKeeper.");
+        Log.info("{}Closing ZooKeeper.", broker.TAG);
         zooKeeper.close();
 
-        System.out.println(broker.TAG + "Closing Broker server.");
+        Log.info("{}Closing Broker server.", broker.TAG);
         broker.server.close();
 
-        System.out.println(broker.TAG + "Shutting down threads.");
+        broker.logCleaner.close();
+        if (broker.metricsServer != null) broker.metricsServer.close();
+
+        Log.info("{}Shutting down threads.", broker.TAG);
         broker.serverThread.shutdownNow();
         broker.zooKeeperThread.shutdownNow();
     }
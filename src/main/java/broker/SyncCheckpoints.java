@@ -0,0 +1,56 @@
+package broker;
+
+import protos.Kafka;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @author Alberto Delgado on 4/17/22
+ * @project dsd-pub-sub
+ * <p>
+ * Checkpoints of an incremental sync: the last persisted offset received for
+ * each topic. Sync requests carry them, so a sync that lost its connection
+ * resumes right after the last record received instead of from scratch.
+ */
+class SyncCheckpoints {
+    private final Map<String, Integer> checkpoints = new HashMap<>();
+
+    /**
+     * Moves forward the checkpoint of the topic of a received record.
+     * In-memory records sent during the catch-up are not persisted on
+     * the remote node yet, so they have no offset (0) and are ignored.
+     *
+     * @param record
+     */
+    synchronized void received(Kafka.Record record) {
+        if (record.getOffset() > 0) update(record.getTopic(), record.getOffset());
+    }
+
+    /**
+     * Moves forward the checkpoint of a topic
+     *
+     * @param topic
+     * @param offset
+     */
+    synchronized void update(String topic, int offset) {
+        Integer current = checkpoints.get(topic);
+        if (current == null || offset > current)
+            checkpoints.put(topic, offset);
+    }
+
+    /**
+     * Adds the checkpoints to a sync request, as (topic, offset) records.
+     * Topics without checkpoint are sent from the beginning.
+     *
+     * @param request
+     */
+    synchronized void addTo(Kafka.Record.Builder request) {
+        for (Map.Entry<String, Integer> checkpoint : checkpoints.entrySet()) {
+            request.addRecords(Kafka.Record.newBuilder()
+                    .setTopic(checkpoint.getKey())
+                    .setOffset(checkpoint.getValue())
+                    .build());
+        }
+    }
+}
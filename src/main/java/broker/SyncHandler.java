@@ -3,13 +3,14 @@ package broker;
 import broker.connectionHandler.ConnectionHandler;
 import com.google.protobuf.InvalidProtocolBufferException;
 import common.Connection;
+import common.Log;
 import common.RequestType;
 import protos.Kafka;
+import utils.Demo;
 import zookeeper.ZKNode;
 import zookeeper.ZooKeeper;
 
 import java.io.IOException;
-import java.util.Set;
 
 import static broker.ConnectionHelpers.sendRecord;
 
@@ -17,72 +18,143 @@ import static broker.ConnectionHelpers.sendRecord;
  * @author Alberto Delgado on 4/17/22
  * @project dsd-pub-sub
  * <p>
- * Handles syncing between brokers
+ * Handles syncing between brokers.
+ * <p>
+ * Sync is incremental: the requester asks for chunks of persisted records
+ * starting at the last offset it has for each topic (its checkpoint) while
+ * the remote node keeps serving live traffic. Once a round comes back short
+ * the requester asks for a short catch-up, which is the only phase where the
+ * remote node holds publishes, to get the in-memory records as well.
  */
 public class SyncHandler extends BrokerService {
+    private static final int SYNC_FAILED = -1;
+    // last offset received for each topic. Survives disconnects so
+    // a sync can be resumed instead of starting from scratch
+    private final SyncCheckpoints checkpoints = new SyncCheckpoints();
 
     SyncHandler(Broker broker, ZooKeeper zooKeeper) {
         super(broker, zooKeeper);
     }
 
     // Requests to sync to remote node.
-    // Remote node will send all data (from the offsets sent) to be up-to-date
+    // Remote node will send the data (from the checkpoints sent) in chunks
+    // until we are up-to-date, then a final catch-up with in-memory data.
     void requestSync(ZKNode node) {
         if (node == null) return;
         if (broker.ID == node.ID) return;
+        long start = System.nanoTime();
         Connection conn = new Connection(node.HOSTNAME, node.getBrokerPort());
+        loadCheckpoints();
+
+        int retries = 0;
+        while (retries <= Constants.SYNC_MAX_RETRIES) {
+            if (!conn.hasConnected || conn.isClosed()) conn.reconnect();
+
+            int received = requestChunk(conn);
+            // a round that didn't fill a chunk means we are close to the
+            // tail. Time to catch up with whatever is left.
+            if (received != SYNC_FAILED && received < Constants.SYNC_CHUNK_SIZE) {
+                if (requestCatchUp(conn)) {
+                    broker.metrics.latency("broker_sync_seconds", "Time to sync with another broker").recordSince(start);
+                    return;
+                }
+                received = SYNC_FAILED;
+            }
 
-        boolean sentSyncRequest = sendRequest(conn);
-        if (!sentSyncRequest) {
-            System.out.println(broker.TAG + "[SYNC] Could not connect to " + node.ID);
-            return;
+            if (received == SYNC_FAILED) {
+                retries++;
+                broker.metrics.counter("broker_sync_retries_total", "Syncs resumed from a checkpoint after a disconnect").inc();
+                Log.warn("{}[SYNC] Lost connection with {}. Resuming from checkpoint.", broker.TAG, node.ID);
+                if (!conn.isClosed()) conn.close();
+            }
+
+            throttle();
         }
 
-        byte[] data;
+        Log.error("{}[SYNC] Could not sync with {}", broker.TAG, node.ID);
+        broker.metrics.counter("broker_sync_failures_total", "Syncs given up after running out of retries").inc();
+    }
+
+    // Requests the next chunk of records. Returns the number of
+    // records received or SYNC_FAILED
+    private int requestChunk(Connection conn) {
+        if (!sendRequest(conn, RequestType.BROKER_SYNC)) return SYNC_FAILED;
+        return receiveUntilEOT(conn);
+    }
+
+    // Requests the remaining delta plus in-memory records and acks
+    // the end of transmission so the remote node can mark us as synced
+    private boolean requestCatchUp(Connection conn) {
+        if (!sendRequest(conn, RequestType.BROKER_SYNC_CATCH_UP)) return false;
+        if (receiveUntilEOT(conn) == SYNC_FAILED) return false;
+
+        Kafka.Record ack = Kafka.Record.newBuilder()
+                .setTopic(Constants.EOT)
+                .build();
+        try {
+            conn.send(ack.toByteArray());
+        } catch (IOException e) {
+            // close connection
+            conn.close();
+            return false;
+        }
+        return true;
+    }
+
+    // Stores incoming records until EOT, moving the checkpoints forward
+    private int receiveUntilEOT(Connection conn) {
+        int received = 0;
         while (true) {
-            data = conn.receive();
+            byte[] data = conn.receive();
             if (data == null) {
-                System.out.println(broker.TAG + "[SYNC] Something went wrong receiving data.");
-                return;
+                Log.warn("{}[SYNC] Something went wrong receiving data.", broker.TAG);
+                return SYNC_FAILED;
             }
 
+            Kafka.Record record;
             try {
-                Kafka.Record record = Kafka.Record.parseFrom(data);
-                String topic = record.getTopic();
-                if (topic.equals(Constants.EOT)) {
-                    Kafka.Record ack = Kafka.Record.newBuilder()
-                            .setTopic(Constants.EOT)
-                            .build();
-                    try {
-                        conn.send(ack.toByteArray());
-                    } catch (IOException e) {
-                        // close connection
-                        conn.close();
-                    }
-                    return;
-                }
-
-                broker.dataStore.storeRecord(record);
+                record = Kafka.Record.parseFrom(data);
             } catch (InvalidProtocolBufferException e) {
-                return; // something went wrong. Stop syncing
+                return SYNC_FAILED; // something went wrong. Stop syncing
             }
+
+            String topic = record.getTopic();
+            if (topic.equals(Constants.EOT)) return received;
+            if (topic.equals(Constants.SEGMENT_HANDLER_EMPTY)) continue;
+
+            broker.dataStore.storeRecord(record);
+            checkpoints.received(record);
+            received++;
+        }
+    }
+
+    // Seeds the checkpoints with what has already been persisted
+    private void loadCheckpoints() {
+        for (Kafka.Record offset : broker.segmentHandler.getOffsets())
+            checkpoints.update(offset.getTopic(), offset.getOffset());
+    }
+
+    // Gives some air to the remote node between chunks
+    private void throttle() {
+        try {
+            Thread.sleep(Constants.SYNC_THROTTLE_MS);
+        } catch (InterruptedException ignored) {
         }
     }
 
     // Sends sync request with the last offsets
-    private boolean sendRequest(Connection conn) {
+    private boolean sendRequest(Connection conn, RequestType type) {
         if (conn == null || !conn.hasConnected)
             return false;
 
-        Set<Kafka.Record> offsets = broker.segmentHandler.getOffsets();
-        Kafka.Record request = Kafka.Record.newBuilder()
+        Kafka.Record.Builder request = Kafka.Record.newBuilder()
                 .setNodeId(broker.ID)
-                .setType(RequestType.BROKER_SYNC.name())
-                .addAllRecords(offsets)
-                .build();
+                .setType(type.name());
+
+        checkpoints.addTo(request);
 
         try {
-            conn.send(request.toByteArray());
+            conn.send(request.build().toByteArray());
             return true;
         } catch (IOException e) {
             return false;
@@ -90,27 +162,52 @@ public class SyncHandler extends BrokerService {
     }
 
     // This handles when being requested for syncing.
-    // Additionally, sets the node as synced
+    // Chunks are served without holding publishes; the catch-up
+    // additionally sets the node as synced
     public void handleSyncRequest(ConnectionHandler connectionHandler,
                                   Connection conn,
                                   Kafka.Record record) {
-        System.out.println("[BROKER " + connectionHandler.ID + "] Initiating SYNC request from Broker");
+        if (record.getType().equals(RequestType.BROKER_SYNC_CATCH_UP.name())) {
+            handleCatchUp(connectionHandler, conn, record);
+            return;
+        }
+
+        if (Demo.isPrintingReplication())
+            Demo.printReplication("[BROKER " + connectionHandler.ID + "] Sending SYNC chunk to Broker " + record.getNodeId());
+        connectionHandler.syncChunk(conn, record);
+        sendEOT(conn);
+    }
 
-        connectionHandler.isSyncing.set(true);
-        connectionHandler.syncBroker(conn, record);
+    // Final phase of a sync. Publishes wait only while the small
+    // remaining delta is sent.
+    private void handleCatchUp(ConnectionHandler connectionHandler,
+                               Connection conn,
+                               Kafka.Record record) {
+        Log.info("{}Initiating SYNC catch-up from Broker {}", broker.TAG, record.getNodeId());
 
-        // Send DONE message!
+        connectionHandler.syncBarrier.close();
+        try {
+            connectionHandler.syncBroker(conn, record);
+            sendEOT(conn);
+            // we simply want to know everything was received.
+            // we don't really care so much about the content of the ack.
+            byte[] ack = conn.receive();
+            if (ack == null) return; // requester will resume later
+
+            Log.info("{}Finished SYNC request from Broker", broker.TAG);
+            connectionHandler.setNodeAsSynced(record.getNodeId());
+        } finally {
+            connectionHandler.syncBarrier.open();
+            Log.info("{}Publishes released. {}", broker.TAG, connectionHandler.syncBarrier);
+        }
+    }
+
+    // Send DONE message!
+    private void sendEOT(Connection conn) {
         Kafka.Record done = Kafka.Record.newBuilder()
                 .setTopic(Constants.EOT)
                 .build();
 
         sendRecord(conn, done);
-        // we simply want to know everything was received.
-        // we don't really care so much about the content of the ack.
-        byte[] ack = conn.receive();
-
-        System.out.println("[BROKER " + connectionHandler.ID + "] Finished SYNC request from Broker");
-        connectionHandler.setNodeAsSynced(record.getNodeId());
-        connectionHandler.isSyncing.set(false);
     }
 }
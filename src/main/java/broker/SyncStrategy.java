@@ -1,5 +1,6 @@
 package broker;
 
+import common.Log;
 import common.StateStrategy;
 import zookeeper.ZooKeeper;
 
@@ -14,14 +15,14 @@ import zookeeper.ZooKeeper;
 class SyncStrategy implements StateStrategy {
     @Override
     public void execute(Broker broker, ZooKeeper zooKeeper) {
-        System.out.println(broker.TAG + "Sync stage.");
+        Log.info("{}Sync stage.", broker.TAG);
         // No need to sync if not running distributed broker
         if (zooKeeper == null) return;
         if (zooKeeper.getLeaderId() == zooKeeper.ID) return;
 
         // Time to sync-up!
-        System.out.println(broker.TAG + "Initiating data SYNC.");
+        Log.info("{}Initiating data SYNC.", broker.TAG);
         broker.syncHandler.requestSync(zooKeeper.getLeader());
-        System.out.println(broker.TAG + "Syncing complete.");
+        Log.info("{}Syncing complete.", broker.TAG);
     }
 }
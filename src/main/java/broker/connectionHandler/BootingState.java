@@ -1,6 +1,7 @@
 package broker.connectionHandler;
 
 import common.Connection;
+import common.Log;
 import protos.Kafka;
 
 /**
@@ -19,27 +20,33 @@ public class BootingState extends ConnectionHandlerState {
     // Handles producer publishing
     @Override
     void handleProducerPublish(Connection conn, Kafka.Record record) {
-        System.out.println("someone contacting while in boot ");
+        Log.debug("someone contacting while in boot ");
     }
 
     // Handles consumer polling
     @Override
     void handleConsumerPoll(Connection conn, Kafka.Record record) {
 
-        System.out.println("someone contacting while in boot ");
+        Log.debug("someone contacting while in boot ");
+    }
+
+    // Handles consumer fetching several topics at once
+    @Override
+    void handleConsumerFetch(Connection conn, Kafka.Record record) {
+        Log.debug("someone contacting while in boot ");
     }
 
     // Handles consumer subscribing
     @Override
     void handleConsumerSubscribe(Connection conn, Kafka.Record record) {
-        System.out.println("someone contacting while in boot ");
+        Log.debug("someone contacting while in boot ");
 
     }
 
     // Handles broker syncing
     @Override
     void handleBrokerSync(Connection conn, Kafka.Record record) {
-        System.out.println("someone contacting while in boot ");
+        Log.debug("someone contacting while in boot ");
 
     }
 }
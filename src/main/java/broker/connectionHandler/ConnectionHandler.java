@@ -1,17 +1,27 @@
 package broker.connectionHandler;
 
 import broker.BrokerDataStore;
+import broker.Constants;
+import broker.FetchStage;
+import broker.PublishStage;
 import broker.PushBasedConsumerHandler;
+import broker.RangeAssignor;
 import broker.ReplicationHandler;
 import broker.SyncHandler;
-import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.CodedInputStream;
 import common.*;
+import metrics.MetricsRegistry;
+import metrics.Trace;
+import metrics.Tracer;
 import protos.Kafka;
 import zookeeper.ZooKeeper;
 
+import java.io.IOException;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author Alberto Delgado on 4/8/22
@@ -30,16 +40,35 @@ public class ConnectionHandler extends ServerConnectionHandler {
     private Context context;
     private final Map<State, ConnectionHandlerState> stateHandlers = new HashMap<>();
     private ZooKeeper zooKeeper = null;
-    public AtomicBoolean isSyncing = new AtomicBoolean();
+    public final SyncBarrier syncBarrier = new SyncBarrier(Constants.SYNC_PUBLISH_BUFFER_CAPACITY);
+    private final Map<Connection, GroupMember> groupMembers = new ConcurrentHashMap<>(); // consumers in a group
+    private final Set<Connection> producers = ConcurrentHashMap.newKeySet(); // connections of registered producers
+    // requests are read into pooled buffers, shared by all connections
+    private final BufferPool bufferPool = new BufferPool(Constants.BUFFER_POOL_MAX_BUFFER_BYTES, Constants.BUFFER_POOL_MAX_BYTES);
+    // per stage timings of publishes and reads
+    final Tracer<PublishStage> publishTracer;
+    final Tracer<FetchStage> fetchTracer;
+    final Tracer<FetchStage> pollTracer;
 
     public ConnectionHandler(int id,
                              BrokerDataStore brokerDataStore,
                              PushBasedConsumerHandler pushBasedConsumerHandler
+    ) {
+        this(id, brokerDataStore, pushBasedConsumerHandler, new MetricsRegistry());
+    }
+
+    public ConnectionHandler(int id,
+                             BrokerDataStore brokerDataStore,
+                             PushBasedConsumerHandler pushBasedConsumerHandler,
+                             MetricsRegistry metrics
     ) {
         ID = id;
         TAG = "[BROKER " + id + "] ";
         dataStore = brokerDataStore;
         pushBasedConsumers = pushBasedConsumerHandler;
+        publishTracer = new Tracer<>(metrics, "publish", PublishStage.class, Constants.TRACE_SLOW_PUBLISH_MS, Constants.TRACE_SAMPLE_INTERVAL_MS);
+        fetchTracer = new Tracer<>(metrics, "fetch", FetchStage.class, Constants.TRACE_SLOW_FETCH_MS, Constants.TRACE_SAMPLE_INTERVAL_MS);
+        pollTracer = new Tracer<>(metrics, "poll", FetchStage.class, Constants.TRACE_SLOW_FETCH_MS, Constants.TRACE_SAMPLE_INTERVAL_MS);
 
         // Set the strategy for each state
         stateHandlers.put(State.RUNNING, new RunningState(this));
@@ -71,13 +100,45 @@ public class ConnectionHandler extends ServerConnectionHandler {
     }
 
     // Calls Broker data store to store records
-    void storeRecord(Kafka.Record record) {
-        dataStore.storeRecord(record);
+    void storeRecord(Kafka.Record record, Trace<PublishStage> trace) {
+        dataStore.storeRecord(record, trace);
     }
 
     // Calls Broker data store to read (and send) segments
-    void sendSegment(Connection conn, Kafka.Record record) {
-        dataStore.sendSegment(conn, record);
+    void sendSegment(Connection conn, Kafka.Record record, Trace<FetchStage> trace) {
+        dataStore.sendSegment(conn, record, trace);
+    }
+
+    // Calls Broker data store to answer a multi-topic fetch, only
+    // with the records of the given partitions (null for all)
+    void sendFetch(Connection conn, Kafka.Record record, Set<Integer> partitions, Trace<FetchStage> trace) {
+        dataStore.sendFetch(conn, record, partitions, trace);
+    }
+
+    // Calls Broker data store to turn a commit into records of the offsets
+    // topic. Members of a group only commit the partitions assigned to them,
+    // so one that just lost a partition can't move its offset back
+    List<Kafka.Record> commitRecords(Kafka.Record record) {
+        String group = record.getGroupId();
+        Set<Integer> partitions = group.isEmpty() || zooKeeper == null
+                ? null // all of them
+                : RangeAssignor.assign(record.getNodeId(), zooKeeper.getGroupMembers(group), Constants.GROUP_PARTITIONS);
+        return dataStore.commitRecords(record, partitions);
+    }
+
+    // Calls Broker data store to ack a commit
+    void ackCommit(Connection conn) {
+        dataStore.ackCommit(conn);
+    }
+
+    // Calls Broker data store to send committed consumer offsets
+    void sendCommittedOffsets(Connection conn, Kafka.Record record) {
+        dataStore.sendCommittedOffsets(conn, record);
+    }
+
+    // Calls Broker data store to look up offsets by timestamp
+    void sendOffsetsForTimes(Connection conn, Kafka.Record record) {
+        dataStore.sendOffsetsForTimes(conn, record);
     }
 
     // Calls Broker data store to sync brokers
@@ -85,9 +146,19 @@ public class ConnectionHandler extends ServerConnectionHandler {
         dataStore.syncDataStore(conn, record);
     }
 
+    // Calls Broker data store to send the next sync chunk
+    public void syncChunk(Connection conn, Kafka.Record record) {
+        dataStore.syncChunk(conn, record);
+    }
+
     //  Adds consumer to list of push based subscribed consumers
-    void subscribeConsumer(Connection conn, String topic) {
-        pushBasedConsumers.subscribe(conn, topic);
+    void subscribeConsumer(Connection conn, String topic, int credits) {
+        pushBasedConsumers.subscribe(conn, topic, credits);
+    }
+
+    // Adds credits granted by a push based consumer
+    void grantCredits(Connection conn, String topic, int credits) {
+        pushBasedConsumers.grantCredits(conn, topic, credits);
     }
 
     // Adds data to queue for Push based subscribers
@@ -111,12 +182,45 @@ public class ConnectionHandler extends ServerConnectionHandler {
         zooKeeper.addProducer(id, hostname, port);
     }
 
+    // Adds the producer behind a connection to ZooKeeper. Only the
+    // first publish of the connection does, the rest are a set lookup
+    void addProducer(Connection conn, int id, int port) {
+        if (zooKeeper == null || producers.contains(conn)) return;
+        producers.add(conn);
+        zooKeeper.addProducer(id, conn.getHostname(), port);
+    }
+
     // Adds a consumer to ZooKeeper
     public void addConsumer(int id, String hostname, int port) {
         if (zooKeeper == null) return;
         zooKeeper.addConsumer(id, hostname, port);
     }
 
+    // Adds a consumer to a group (if not already) and returns the
+    // partitions currently assigned to it. Membership is kept by
+    // ZooKeeper; the consumer leaves the group when it disconnects.
+    Set<Integer> joinGroup(Connection conn, String group, int consumerId) {
+        if (zooKeeper == null) return null;
+        groupMembers.putIfAbsent(conn, new GroupMember(group, consumerId));
+        if (zooKeeper.joinGroup(group, consumerId))
+            Log.info("[GROUP {}] Rebalancing {} after consumer {} joined", group, zooKeeper.getGroupMembers(group), consumerId);
+
+        List<Integer> members = zooKeeper.getGroupMembers(group);
+        return RangeAssignor.assign(consumerId, members, Constants.GROUP_PARTITIONS);
+    }
+
+    // Removes the consumer behind the connection from its group. Its
+    // partitions go back to the offsets it committed, so records it got
+    // but never committed are sent again to whoever takes them over
+    private void leaveGroup(Connection conn) {
+        GroupMember member = groupMembers.remove(conn);
+        if (member == null || zooKeeper == null) return;
+        Set<Integer> partitions = RangeAssignor.assign(member.id, zooKeeper.getGroupMembers(member.group), Constants.GROUP_PARTITIONS);
+        if (zooKeeper.leaveGroup(member.group, member.id))
+            Log.info("[GROUP {}] Rebalancing {} after consumer {} left", member.group, zooKeeper.getGroupMembers(member.group), member.id);
+        dataStore.rewindGroup(member.group, partitions);
+    }
+
     // Uses sync handler to handle a Sync request
     public void handleSyncRequest(Connection conn, Kafka.Record record) {
         syncHandler.handleSyncRequest(this, conn, record);
@@ -126,7 +230,10 @@ public class ConnectionHandler extends ServerConnectionHandler {
      * Handles a new Connection. The expected connections are of type:
      * - Publisher: is sending data for a specific topic
      * - Consumer: is polling data for a specific topic
+     * - Consumer: is fetching data for several topics at once
      * - Consumer: is subscribing to a specific topic
+     * - Consumer: is committing/fetching its offsets
+     * - Consumer: is looking up offsets by timestamp
      * <p>
      * Additionally, depending on the current state of the broker,
      * the connections will be handled by a ConnectionHandlerState
@@ -138,17 +245,31 @@ public class ConnectionHandler extends ServerConnectionHandler {
     public void handle(Connection conn) {
         String hostname = conn.getHostname();
         int port = conn.getRemotePort();
-        System.out.println(TAG + "New connection from " + hostname + ":" + port);
+        Log.debug("{}New connection from {}:{}", TAG, hostname, port);
+
+        try {
+            handleRequests(conn);
+        } finally {
+            leaveGroup(conn);
+            producers.remove(conn);
+        }
+    }
 
+    // Reads requests until the connection is closed
+    private void handleRequests(Connection conn) {
         while (!conn.isClosed()) {
-            byte[] data = conn.receive();
+            BufferPool.Buffer data = conn.receiveInto(bufferPool);
             if (data == null) return; // connection was closed?
 
+            // parsing copies out what the request keeps (key, value...),
+            // so the buffer goes back to the pool right away
             Kafka.Record record;
             try {
-                record = Kafka.Record.parseFrom(data);
-            } catch (InvalidProtocolBufferException e) {
+                record = Kafka.Record.parseFrom(CodedInputStream.newInstance(data.nioBuffer()));
+            } catch (IOException e) {
                 continue;
+            } finally {
+                data.release();
             }
 
             String requestType = record.getType();
@@ -158,9 +279,20 @@ public class ConnectionHandler extends ServerConnectionHandler {
                 stateHandlers.get(context.getState()).handleProducerPublish(conn, record);
             } else if (requestType.equals(RequestType.CONSUMER_POLL.name())) {
                 stateHandlers.get(context.getState()).handleConsumerPoll(conn, record);
+            } else if (requestType.equals(RequestType.CONSUMER_FETCH.name())) {
+                stateHandlers.get(context.getState()).handleConsumerFetch(conn, record);
             } else if (requestType.equals(RequestType.CONSUMER_SUBSCRIBE.name())) {
                 stateHandlers.get(context.getState()).handleConsumerSubscribe(conn, record);
-            } else if (requestType.equals(RequestType.BROKER_SYNC.name())) {
+            } else if (requestType.equals(RequestType.CONSUMER_CREDIT.name())) {
+                stateHandlers.get(context.getState()).handleConsumerCredit(conn, record);
+            } else if (requestType.equals(RequestType.OFFSET_COMMIT.name())) {
+                stateHandlers.get(context.getState()).handleOffsetCommit(conn, record);
+            } else if (requestType.equals(RequestType.OFFSET_FETCH.name())) {
+                stateHandlers.get(context.getState()).handleOffsetFetch(conn, record);
+            } else if (requestType.equals(RequestType.OFFSETS_FOR_TIMES.name())) {
+                stateHandlers.get(context.getState()).handleOffsetsForTimes(conn, record);
+            } else if (requestType.equals(RequestType.BROKER_SYNC.name())
+                    || requestType.equals(RequestType.BROKER_SYNC_CATCH_UP.name())) {
                 stateHandlers.get(context.getState()).handleBrokerSync(conn, record);
             } else {
                 // We don't identify it.
@@ -170,4 +302,15 @@ public class ConnectionHandler extends ServerConnectionHandler {
             }
         }
     }
+
+    // A consumer group member behind a connection
+    private static class GroupMember {
+        final String group;
+        final int id;
+
+        GroupMember(String group, int id) {
+            this.group = group;
+            this.id = id;
+        }
+    }
 }
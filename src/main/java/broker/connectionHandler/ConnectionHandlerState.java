@@ -23,9 +23,36 @@ public abstract class ConnectionHandlerState {
     // Handles consumer polling segments
     abstract void handleConsumerPoll(Connection conn, Kafka.Record record);
 
+    // Handles consumer fetching several topics at once
+    abstract void handleConsumerFetch(Connection conn, Kafka.Record record);
+
     // Handles consumer (push based) subscription
     abstract void handleConsumerSubscribe(Connection conn, Kafka.Record record);
 
+    // Handles credits granted by a push based consumer. Credits are
+    // carried in the offset field. Only bookkeeping, so they are
+    // accepted in every state
+    void handleConsumerCredit(Connection conn, Kafka.Record record) {
+        connectionHandler.grantCredits(conn, record.getTopic(), record.getOffset());
+    }
+
+    // Handles consumer committing its offsets. Commits are records of
+    // the offsets topic, so like publishes they are only taken while
+    // running (see RunningState)
+    void handleOffsetCommit(Connection conn, Kafka.Record record) {
+    }
+
+    // Handles consumer fetching its committed offsets
+    void handleOffsetFetch(Connection conn, Kafka.Record record) {
+        connectionHandler.sendCommittedOffsets(conn, record);
+    }
+
+    // Handles consumer looking up offsets by timestamp. Read only,
+    // so it is answered in every state
+    void handleOffsetsForTimes(Connection conn, Kafka.Record record) {
+        connectionHandler.sendOffsetsForTimes(conn, record);
+    }
+
     // Handles broker sync request
     abstract void handleBrokerSync(Connection conn, Kafka.Record record);
 }
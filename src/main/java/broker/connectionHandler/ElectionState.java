@@ -25,6 +25,11 @@ public class ElectionState extends ConnectionHandlerState {
     void handleConsumerPoll(Connection conn, Kafka.Record record) {
     }
 
+    // Handles consumer fetching several topics at once
+    @Override
+    void handleConsumerFetch(Connection conn, Kafka.Record record) {
+    }
+
     // Handles consumer (push based) subscription
     @Override
     void handleConsumerSubscribe(Connection conn, Kafka.Record record) {
@@ -1,11 +1,14 @@
 package broker.connectionHandler;
 
 import broker.ConnectionHelpers;
+import broker.FetchStage;
+import broker.PublishStage;
 import common.Connection;
+import metrics.Trace;
 import protos.Kafka;
 import utils.Demo;
 
-import java.util.concurrent.*;
+import java.util.Set;
 
 /**
  * @author Alberto Delgado on 4/16/22
@@ -20,23 +23,80 @@ public class RunningState extends ConnectionHandlerState {
         super(connectionHandler);
     }
 
-    // Handles producer publishing
+    // Handles producer publishing. Each stage of the publish is traced
     @Override
     public void handleProducerPublish(Connection conn, Kafka.Record record) {
-        waitWhileSyncing();
+        // not syncing: publish right away, without capturing it
+        SyncBarrier barrier = connectionHandler.syncBarrier;
+        Trace<PublishStage> trace = connectionHandler.publishTracer.start();
+        if (barrier.tryEnter()) {
+            try {
+                trace.mark(PublishStage.BARRIER);
+                publish(conn, record, trace);
+            } finally {
+                barrier.exit();
+            }
+            trace.end();
+            return;
+        }
+
+        // buffered (or held) while broker is syncing with another broker.
+        // May run on another thread, so it gets a trace of its own
+        Trace<PublishStage> buffered = connectionHandler.publishTracer.startDetached();
+        barrier.publish(() -> {
+            buffered.mark(PublishStage.BARRIER);
+            publish(conn, record, buffered);
+            buffered.end();
+        });
+    }
 
+    // Stores, forwards and acks a published record
+    private void publish(Connection conn, Kafka.Record record, Trace<PublishStage> trace) {
         if (record.getRole().equals(Kafka.Record.Role.PRODUCER)) {
-            connectionHandler.addProducer(record.getNodeId(), conn.getHostname(), record.getPort());
-            Demo.printReplication("Data from " + record.getRole() + ":" + record.getTimestamp());
+            connectionHandler.addProducer(conn, record.getNodeId(), record.getPort());
+            if (Demo.isPrintingReplication())
+                Demo.printReplication("Data from " + record.getRole() + ":" + record.getTimestamp());
         }
 
-        if (record.getRole().equals(Kafka.Record.Role.BROKER))
-            Demo.printReplication("[BROKER] Receiving replicated data:" + record.getTimestamp());
+        if (record.getRole().equals(Kafka.Record.Role.BROKER)) {
+            if (Demo.isPrintingReplication())
+                Demo.printReplication("[BROKER] Receiving replicated data:" + record.getTimestamp());
+        }
 
-        connectionHandler.storeRecord(record);
+        connectionHandler.storeRecord(record, trace);
         connectionHandler.sendToPushBasedConsumers(record);
+        trace.mark(PublishStage.PUSH);
         connectionHandler.sendToReplicas(record);
+        trace.mark(PublishStage.REPLICATE);
         ConnectionHelpers.ack(conn, record);
+        trace.mark(PublishStage.ACK);
+    }
+
+    // Handles consumer committing its offsets. Each offset is published as
+    // a record of the offsets topic, so it is stored, replicated and synced
+    // with the rest of the data. Waits for syncs like any publish
+    @Override
+    void handleOffsetCommit(Connection conn, Kafka.Record record) {
+        SyncBarrier barrier = connectionHandler.syncBarrier;
+        if (barrier.tryEnter()) {
+            try {
+                commit(conn, record);
+            } finally {
+                barrier.exit();
+            }
+            return;
+        }
+
+        barrier.publish(() -> commit(conn, record));
+    }
+
+    // Stores and forwards the records of a commit, then acks it
+    private void commit(Connection conn, Kafka.Record request) {
+        for (Kafka.Record record : connectionHandler.commitRecords(request)) {
+            connectionHandler.storeRecord(record, null);
+            connectionHandler.sendToReplicas(record);
+        }
+        connectionHandler.ackCommit(conn);
     }
 
     // Handles consumer polling segments
@@ -46,7 +106,29 @@ public class RunningState extends ConnectionHandlerState {
         if (role.equals(Kafka.Record.Role.CONSUMER)) {
             connectionHandler.addConsumer(record.getNodeId(), conn.getHostname(), record.getPort());
         }
-        connectionHandler.sendSegment(conn, record);
+        Trace<FetchStage> trace = connectionHandler.pollTracer.start();
+        connectionHandler.sendSegment(conn, record, trace);
+        trace.end();
+    }
+
+    // Handles consumer fetching several topics at once. Consumers in a
+    // group only get the records of the partitions assigned to them
+    @Override
+    public void handleConsumerFetch(Connection conn, Kafka.Record record) {
+        if (record.getRole().equals(Kafka.Record.Role.CONSUMER)) {
+            connectionHandler.addConsumer(record.getNodeId(), conn.getHostname(), record.getPort());
+        }
+
+        Trace<FetchStage> trace = connectionHandler.fetchTracer.start();
+        String group = record.getGroupId();
+        Set<Integer> partitions = null; // all of them
+        if (!group.isEmpty()) {
+            partitions = connectionHandler.joinGroup(conn, group, record.getNodeId());
+            trace.mark(FetchStage.GROUP);
+        }
+
+        connectionHandler.sendFetch(conn, record, partitions, trace);
+        trace.end();
     }
 
     // Handles consumer (push based) subscription
@@ -55,7 +137,8 @@ public class RunningState extends ConnectionHandlerState {
         if (record.getRole().equals(Kafka.Record.Role.CONSUMER))
             connectionHandler.addConsumer(record.getNodeId(), conn.getHostname(), conn.getRemotePort());
 
-        connectionHandler.subscribeConsumer(conn, record.getTopic());
+        // initial credits are carried in the offset field
+        connectionHandler.subscribeConsumer(conn, record.getTopic(), record.getOffset());
     }
 
     // Handles broker sync request
@@ -63,25 +146,4 @@ public class RunningState extends ConnectionHandlerState {
     void handleBrokerSync(Connection conn, Kafka.Record record) {
         connectionHandler.handleSyncRequest(conn, record);
     }
-
-    // Waits (non-blocking) until broker has finished
-    // syncing with another broker
-    private void waitWhileSyncing() {
-        boolean brokerIsSyncing = connectionHandler.isSyncing.get();
-        while (brokerIsSyncing) {
-            ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
-            long delayMs = 100L;
-            Future<Boolean> futureSyncState = scheduler.schedule(
-                    () -> connectionHandler.isSyncing.get(),
-                    delayMs,
-                    TimeUnit.MILLISECONDS
-            );
-
-            try {
-                brokerIsSyncing = futureSyncState.get();
-            } catch (ExecutionException | InterruptedException e) {
-                // not handling this
-            }
-        }
-    }
 }
@@ -0,0 +1,215 @@
+package broker.connectionHandler;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * @author Alberto Delgado on 4/22/22
+ * @project dsd-pub-sub
+ * <p>
+ * Barrier between publishes and the sync catch-up. While closed (syncing)
+ * publishes are queued in a bounded buffer, so connection threads are not
+ * pinned, and are executed in order as soon as the barrier opens. If the
+ * buffer is full the publisher waits on a condition until the sync is over.
+ * <p>
+ * Closing the barrier waits for in-flight publishes to finish, so the
+ * data sent during the catch-up contains every record already acked.
+ * <p>
+ * Blocked time is the latency the barrier adds to publishes: time spent
+ * waiting for the barrier to open plus time spent buffered.
+ */
+public class SyncBarrier {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition(); // barrier opened
+    private final Condition drained = lock.newCondition(); // no publishes in flight
+    private final Queue<Pending> pending = new ArrayDeque<>();
+    private final int capacity;
+    private int holds = 0; // number of syncs currently holding publishes
+    private boolean draining = false; // buffered publishes being run
+    private int inFlight = 0;
+
+    // metrics
+    private final AtomicLong bufferedPublishes = new AtomicLong();
+    private final AtomicLong blockedPublishes = new AtomicLong();
+    private final AtomicLong blockedTimeNanos = new AtomicLong();
+
+    SyncBarrier(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Runs the publish right away if not syncing. Otherwise, it is
+     * buffered to be run when the barrier opens, or, if the buffer is
+     * full, the calling thread waits until the barrier opens.
+     *
+     * @param publish
+     */
+    void publish(Runnable publish) {
+        lock.lock();
+        try {
+            if (isHeld()) {
+                if (pending.size() < capacity) {
+                    pending.add(new Pending(publish, System.nanoTime()));
+                    bufferedPublishes.incrementAndGet();
+                    return;
+                }
+
+                long start = System.nanoTime();
+                while (isHeld()) released.awaitUninterruptibly();
+                blockedPublishes.incrementAndGet();
+                blockedTimeNanos.addAndGet(System.nanoTime() - start);
+            }
+            inFlight++;
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            publish.run();
+        } finally {
+            exit();
+        }
+    }
+
+    /**
+     * Fast path of publish: enters the barrier only if not syncing, so the
+     * caller runs the publish itself and nothing has to be captured to be
+     * run later. Must be followed by exit.
+     *
+     * @return false if syncing, publish has to go through publish(Runnable)
+     */
+    boolean tryEnter() {
+        lock.lock();
+        try {
+            if (isHeld()) return false;
+            inFlight++;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Marks a publish as finished
+    void exit() {
+        lock.lock();
+        try {
+            if (--inFlight == 0) drained.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closes the barrier. Waits for in-flight publishes to finish.
+     * Several syncs may hold the barrier at the same time.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            holds++;
+            while (inFlight > 0) drained.awaitUninterruptibly();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Opens the barrier once every sync has released it. Buffered publishes
+     * are run first (new ones keep being buffered meanwhile) so that order
+     * is preserved.
+     */
+    public void open() {
+        lock.lock();
+        try {
+            if (holds > 0) holds--;
+            if (holds > 0 || draining) return;
+            draining = true;
+        } finally {
+            lock.unlock();
+        }
+
+        while (true) {
+            Pending next;
+            lock.lock();
+            try {
+                // stop draining if a new sync closed the barrier,
+                // it will be resumed when that one opens it
+                next = holds > 0 ? null : pending.poll();
+                if (next == null) {
+                    draining = false;
+                    if (holds == 0) released.signalAll();
+                    return;
+                }
+                inFlight++;
+            } finally {
+                lock.unlock();
+            }
+
+            blockedTimeNanos.addAndGet(System.nanoTime() - next.enqueuedAt);
+            try {
+                next.publish.run();
+            } finally {
+                lock.lock();
+                try {
+                    if (--inFlight == 0) drained.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    // checks if currently syncing
+    public boolean isSyncing() {
+        lock.lock();
+        try {
+            return isHeld();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // publishes have to wait while syncing or while the
+    // buffered ones are being run. Lock must be held
+    private boolean isHeld() {
+        return holds > 0 || draining;
+    }
+
+    // number of publishes buffered while syncing
+    public long getBufferedPublishes() {
+        return bufferedPublishes.get();
+    }
+
+    // number of publishes that had to wait (buffer was full)
+    public long getBlockedPublishes() {
+        return blockedPublishes.get();
+    }
+
+    // total time publishes were held by the barrier,
+    // blocked or buffered
+    public long getBlockedTimeMs() {
+        return TimeUnit.NANOSECONDS.toMillis(blockedTimeNanos.get());
+    }
+
+    // A buffered publish and when it was buffered
+    private static class Pending {
+        final Runnable publish;
+        final long enqueuedAt;
+
+        Pending(Runnable publish, long enqueuedAt) {
+            this.publish = publish;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SyncBarrier {buffered=" + getBufferedPublishes()
+                + ", blocked=" + getBlockedPublishes()
+                + ", blockedTimeMs=" + getBlockedTimeMs() + "}";
+    }
+}
@@ -0,0 +1,123 @@
+package common;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author Alberto Delgado on 5/1/22
+ * @project dsd-pub-sub
+ * <p>
+ * Pool of direct ByteBuffers. Incoming requests are read into pooled
+ * buffers instead of a new byte array each, so a busy connection does not
+ * keep feeding the garbage collector.
+ * <p>
+ * Buffers come in power of two sizes. Whoever acquires a buffer releases
+ * it, once, when done reading it; anything kept beyond that has to be
+ * copied out first. Buffers bigger than maxBufferSize, or once the pool
+ * holds maxPooledBytes, are left to the GC.
+ */
+public class BufferPool {
+    private static final int MIN_BUFFER_SIZE = 256;
+    private final int maxBufferSize;
+    private final long maxPooledBytes;
+    private final Map<Integer, ConcurrentLinkedDeque<ByteBuffer>> free = new ConcurrentHashMap<>(); // by capacity
+    private final AtomicLong pooledBytes = new AtomicLong(0); // bytes waiting in the pool
+    private final AtomicLong allocations = new AtomicLong(0); // buffers that had to be allocated
+
+    public BufferPool(int maxBufferSize, long maxPooledBytes) {
+        this.maxBufferSize = maxBufferSize;
+        this.maxPooledBytes = maxPooledBytes;
+    }
+
+    /**
+     * Hands out a buffer of (at least) the given size, ready to be written.
+     * Its limit is the size requested.
+     *
+     * @param size
+     * @return
+     */
+    public Buffer acquire(int size) {
+        int capacity = capacityFor(size);
+        ByteBuffer buffer = null;
+
+        ConcurrentLinkedDeque<ByteBuffer> buffers = free.get(capacity);
+        if (buffers != null) buffer = buffers.pollFirst();
+
+        if (buffer != null) {
+            pooledBytes.addAndGet(-capacity);
+        } else {
+            allocations.incrementAndGet();
+            buffer = capacity > maxBufferSize
+                    ? ByteBuffer.allocate(size) // too big to be pooled
+                    : ByteBuffer.allocateDirect(capacity);
+        }
+
+        buffer.clear().limit(size);
+        return new Buffer(buffer);
+    }
+
+    // Gives a buffer back to the pool, unless it is full
+    private void recycle(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        if (!buffer.isDirect() || capacity > maxBufferSize) return;
+        if (pooledBytes.addAndGet(capacity) > maxPooledBytes) {
+            pooledBytes.addAndGet(-capacity);
+            return;
+        }
+        free.computeIfAbsent(capacity, c -> new ConcurrentLinkedDeque<>()).offerFirst(buffer);
+    }
+
+    // smallest power of two size that fits
+    private static int capacityFor(int size) {
+        if (size <= MIN_BUFFER_SIZE) return MIN_BUFFER_SIZE;
+        int capacity = Integer.highestOneBit(size - 1) << 1;
+        return capacity < 0 ? size : capacity; // over 1GB, exact size
+    }
+
+    /**
+     * Bytes waiting in the pool
+     *
+     * @return
+     */
+    public long getPooledBytes() {
+        return pooledBytes.get();
+    }
+
+    /**
+     * Buffers allocated (not taken from the pool) so far
+     *
+     * @return
+     */
+    public long getAllocations() {
+        return allocations.get();
+    }
+
+    /**
+     * A buffer handed out by the pool. Goes back to the pool when released.
+     */
+    public class Buffer {
+        private final ByteBuffer buffer;
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        private Buffer(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        // underlying buffer. Not to be used after release
+        public ByteBuffer nioBuffer() {
+            return buffer;
+        }
+
+        // gives the buffer back to the pool. Releasing it twice would
+        // hand the same buffer out to two holders, so it is refused
+        public void release() {
+            if (!released.compareAndSet(false, true))
+                throw new IllegalStateException("Buffer already released");
+            recycle(buffer);
+        }
+    }
+}
@@ -42,7 +42,7 @@ public class ClientConnectionHandler extends ServerConnectionHandler {
             int port = record.getBrokerPort();
 
             client.remotePort = port;
-            System.out.println("[CLIENT " + client.ID + "] New leader. Syncing with node " + hostId);
+            Log.info("[CLIENT {}] New leader. Syncing with node {}", client.ID, hostId);
             client.conn.close();
             client.setConnection(new Connection(hostname, port));
         }
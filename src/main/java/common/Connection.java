@@ -1,9 +1,15 @@
 package common;
 
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 
 /**
  * @author Alberto Delgado on 3/8/22
@@ -16,9 +22,14 @@ public class Connection {
     private Socket socket;
     private DataInputStream in;
     private DataOutputStream out;
+    private ReadableByteChannel inChannel; // to read into (pooled) ByteBuffers
     public final int PORT;
     public final String HOSTNAME;
     private final String TAG = "[CONNECTION] ";
+    // socket is full-duplex: a thread blocked receiving must not
+    // prevent another one from sending (and vice versa)
+    private final Object sendLock = new Object();
+    private final Object receiveLock = new Object();
     public boolean hasConnected;
 
     public Connection(String hostname, int port) {
@@ -34,9 +45,10 @@ public class Connection {
         this.socket = socket;
         try {
             in = new DataInputStream(socket.getInputStream());
-            out = new DataOutputStream(socket.getOutputStream());
+            out = openOutput(socket);
+            inChannel = Channels.newChannel(in);
         } catch (IOException e) {
-            e.printStackTrace();
+            Log.error("{}Could not open socket streams", TAG, e);
         }
     }
 
@@ -55,30 +67,94 @@ public class Connection {
         try {
             socket = new Socket(hostname, port);
             in = new DataInputStream(socket.getInputStream());
-            out = new DataOutputStream(socket.getOutputStream());
+            out = openOutput(socket);
+            inChannel = Channels.newChannel(in);
             hasConnected = true;
         } catch (IOException e) {
-            System.err.println(TAG + "Failed establishing connection to " + hostname + ":" + port + ".");
+            Log.error("{}Failed establishing connection to {}:{}.", TAG, hostname, port);
             hasConnected = false;
         }
     }
 
     // sends byte array
-    public synchronized void send(byte[] data) throws IOException {
-        if (socket == null || socket.isClosed()) return;
-        out.writeInt(data.length);
-        out.write(data);
+    public void send(byte[] data) throws IOException {
+        send(data, 0, data.length);
+    }
+
+    // sends length bytes of the array from offset. Lets callers
+    // reuse a buffer instead of allocating an exact size array
+    public void send(byte[] data, int offset, int length) throws IOException {
+        synchronized (sendLock) {
+            if (socket == null || socket.isClosed()) return;
+            out.writeInt(length);
+            out.write(data, offset, length);
+            out.flush();
+        }
+    }
+
+    // Buffered so that the length and the data of a frame go out in a single
+    // write. Written separately, with Nagle's algorithm on, the data waited
+    // for the (delayed) ack of the length: ~40ms per request/response.
+    private static DataOutputStream openOutput(Socket socket) throws IOException {
+        socket.setTcpNoDelay(true);
+        return new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
     }
 
     // receives byte array
-    public synchronized byte[] receive() {
-        try {
-            int len = in.readInt();
-            byte[] data = new byte[len];
-            in.readFully(data, 0, len);
-            return data;
-        } catch (IOException e) {
-            return null;
+    public byte[] receive() {
+        synchronized (receiveLock) {
+            try {
+                int len = in.readInt();
+                byte[] data = new byte[len];
+                in.readFully(data, 0, len);
+                return data;
+            } catch (IOException e) {
+                return null;
+            }
+        }
+    }
+
+    // receives byte array, giving up (null) if nothing arrives within
+    // the timeout. The connection can still be used afterwards
+    public byte[] receive(long timeoutMs) {
+        synchronized (receiveLock) {
+            try {
+                socket.setSoTimeout((int) Math.min(Math.max(timeoutMs, 1), Integer.MAX_VALUE));
+                int len = in.readInt();
+                socket.setSoTimeout(0); // rest of the frame is on its way
+                byte[] data = new byte[len];
+                in.readFully(data, 0, len);
+                return data;
+            } catch (IOException e) {
+                return null;
+            } finally {
+                try {
+                    socket.setSoTimeout(0);
+                } catch (SocketException e) {
+                    // closed, next receive will tell
+                }
+            }
+        }
+    }
+
+    // receives into a buffer taken from the pool. Buffer is ready to be
+    // read and must be released by the caller. Null if connection closed
+    public BufferPool.Buffer receiveInto(BufferPool pool) {
+        synchronized (receiveLock) {
+            BufferPool.Buffer buffer = null;
+            try {
+                int len = in.readInt();
+                buffer = pool.acquire(len);
+                ByteBuffer data = buffer.nioBuffer();
+                while (data.hasRemaining()) {
+                    if (inChannel.read(data) < 0) throw new EOFException();
+                }
+                data.flip();
+                return buffer;
+            } catch (IOException e) {
+                if (buffer != null) buffer.release();
+                return null;
+            }
         }
     }
 
@@ -115,7 +191,7 @@ public class Connection {
             out.close();
             socket.close();
         } catch (IOException e) {
-            e.printStackTrace();
+            Log.warn("{}Could not close connection", TAG, e);
         }
     }
 }
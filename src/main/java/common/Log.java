@@ -0,0 +1,396 @@
+package common;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @author Alberto Delgado on 5/6/22
+ * @project dsd-pub-sub
+ * <p>
+ * Leveled, asynchronous logging. Callers only claim a slot of a ring buffer
+ * and fill it in; a background writer formats the messages and writes them
+ * out (WARN and ERROR to stderr, the rest to stdout). Logging never blocks
+ * on the console: if the writer falls behind and the ring is full the
+ * message is dropped, and the number of dropped messages is logged later.
+ * <p>
+ * Messages take {} placeholders, filled in by the writer with the
+ * arguments in order (objects first, then the numbers, if any). Nothing is
+ * allocated when the level is disabled as long as the caller does not build
+ * the message itself: use placeholders instead of concatenation, and the
+ * long overloads for numbers so they are not boxed. Arguments are formatted
+ * later, on the writer thread, so they should not be mutated after logging.
+ * <p>
+ * Level is INFO unless set with -Dlog.level=DEBUG|INFO|WARN|ERROR|OFF or setLevel.
+ */
+public final class Log {
+    public enum Level {DEBUG, INFO, WARN, ERROR, OFF}
+
+    private static final int CAPACITY = 8192; // power of two
+    private static final int MASK = CAPACITY - 1;
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+    private static final Entry[] ring = new Entry[CAPACITY];
+    private static final AtomicLong head = new AtomicLong(); // next slot claimed by loggers
+    private static long tail = 0; // next slot written, writer only
+    private static final LongAdder dropped = new LongAdder();
+    private static final int MAX_BATCH_CHARS = 64 * 1024;
+    private static final StringBuilder outBatch = new StringBuilder(); // writer only
+    private static final StringBuilder errBatch = new StringBuilder(); // writer only
+    private static volatile Level level = parseLevel(System.getProperty("log.level"));
+    private static volatile boolean isIdle = false;
+    private static final Thread writer;
+
+    static {
+        for (int i = 0; i < CAPACITY; i++)
+            ring[i] = new Entry(i);
+
+        writer = new Thread(Log::write, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        // whatever is left in the ring is written on exit
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::flush, "log-flush"));
+    }
+
+    private Log() {
+    }
+
+    // sets the minimum level logged
+    public static void setLevel(Level minimum) {
+        level = minimum;
+    }
+
+    // checks if a level is logged. Lets callers skip building
+    // arguments that are not free
+    public static boolean isEnabled(Level l) {
+        return l.ordinal() >= level.ordinal();
+    }
+
+    public static boolean isDebugEnabled() {
+        return isEnabled(Level.DEBUG);
+    }
+
+    /**
+     * Logs at DEBUG
+     *
+     * @param msg
+     */
+    public static void debug(String msg) {
+        log(Level.DEBUG, msg, 0, null, null, 0, 0, 0, null);
+    }
+
+    public static void debug(String msg, Object a) {
+        log(Level.DEBUG, msg, 1, a, null, 0, 0, 0, null);
+    }
+
+    public static void debug(String msg, Object a, Object b) {
+        log(Level.DEBUG, msg, 2, a, b, 0, 0, 0, null);
+    }
+
+    public static void debug(String msg, long n) {
+        log(Level.DEBUG, msg, 0, null, null, 1, n, 0, null);
+    }
+
+    public static void debug(String msg, long n, long m) {
+        log(Level.DEBUG, msg, 0, null, null, 2, n, m, null);
+    }
+
+    public static void debug(String msg, Object a, long n) {
+        log(Level.DEBUG, msg, 1, a, null, 1, n, 0, null);
+    }
+
+    public static void debug(String msg, Object a, long n, long m) {
+        log(Level.DEBUG, msg, 1, a, null, 2, n, m, null);
+    }
+
+    public static void debug(String msg, Object a, Object b, long n) {
+        log(Level.DEBUG, msg, 2, a, b, 1, n, 0, null);
+    }
+
+    /**
+     * Logs at INFO
+     *
+     * @param msg
+     */
+    public static void info(String msg) {
+        log(Level.INFO, msg, 0, null, null, 0, 0, 0, null);
+    }
+
+    public static void info(String msg, Object a) {
+        log(Level.INFO, msg, 1, a, null, 0, 0, 0, null);
+    }
+
+    public static void info(String msg, Object a, Object b) {
+        log(Level.INFO, msg, 2, a, b, 0, 0, 0, null);
+    }
+
+    public static void info(String msg, long n) {
+        log(Level.INFO, msg, 0, null, null, 1, n, 0, null);
+    }
+
+    public static void info(String msg, long n, long m) {
+        log(Level.INFO, msg, 0, null, null, 2, n, m, null);
+    }
+
+    public static void info(String msg, Object a, long n) {
+        log(Level.INFO, msg, 1, a, null, 1, n, 0, null);
+    }
+
+    public static void info(String msg, Object a, long n, long m) {
+        log(Level.INFO, msg, 1, a, null, 2, n, m, null);
+    }
+
+    public static void info(String msg, Object a, Object b, long n) {
+        log(Level.INFO, msg, 2, a, b, 1, n, 0, null);
+    }
+
+    /**
+     * Logs at WARN
+     *
+     * @param msg
+     */
+    public static void warn(String msg) {
+        log(Level.WARN, msg, 0, null, null, 0, 0, 0, null);
+    }
+
+    public static void warn(String msg, Object a) {
+        log(Level.WARN, msg, 1, a, null, 0, 0, 0, null);
+    }
+
+    public static void warn(String msg, Object a, Object b) {
+        log(Level.WARN, msg, 2, a, b, 0, 0, 0, null);
+    }
+
+    public static void warn(String msg, long n) {
+        log(Level.WARN, msg, 0, null, null, 1, n, 0, null);
+    }
+
+    public static void warn(String msg, long n, long m) {
+        log(Level.WARN, msg, 0, null, null, 2, n, m, null);
+    }
+
+    public static void warn(String msg, Object a, long n) {
+        log(Level.WARN, msg, 1, a, null, 1, n, 0, null);
+    }
+
+    public static void warn(String msg, Object a, long n, long m) {
+        log(Level.WARN, msg, 1, a, null, 2, n, m, null);
+    }
+
+    public static void warn(String msg, Object a, Object b, long n) {
+        log(Level.WARN, msg, 2, a, b, 1, n, 0, null);
+    }
+
+    public static void warn(String msg, Throwable error) {
+        log(Level.WARN, msg, 0, null, null, 0, 0, 0, error);
+    }
+
+    public static void warn(String msg, Object a, Throwable error) {
+        log(Level.WARN, msg, 1, a, null, 0, 0, 0, error);
+    }
+
+    /**
+     * Logs at ERROR
+     *
+     * @param msg
+     */
+    public static void error(String msg) {
+        log(Level.ERROR, msg, 0, null, null, 0, 0, 0, null);
+    }
+
+    public static void error(String msg, Object a) {
+        log(Level.ERROR, msg, 1, a, null, 0, 0, 0, null);
+    }
+
+    public static void error(String msg, Object a, Object b) {
+        log(Level.ERROR, msg, 2, a, b, 0, 0, 0, null);
+    }
+
+    public static void error(String msg, long n) {
+        log(Level.ERROR, msg, 0, null, null, 1, n, 0, null);
+    }
+
+    public static void error(String msg, long n, long m) {
+        log(Level.ERROR, msg, 0, null, null, 2, n, m, null);
+    }
+
+    public static void error(String msg, Object a, long n) {
+        log(Level.ERROR, msg, 1, a, null, 1, n, 0, null);
+    }
+
+    public static void error(String msg, Object a, long n, long m) {
+        log(Level.ERROR, msg, 1, a, null, 2, n, m, null);
+    }
+
+    public static void error(String msg, Object a, Object b, long n) {
+        log(Level.ERROR, msg, 2, a, b, 1, n, 0, null);
+    }
+
+    public static void error(String msg, Throwable error) {
+        log(Level.ERROR, msg, 0, null, null, 0, 0, 0, error);
+    }
+
+    public static void error(String msg, Object a, Throwable error) {
+        log(Level.ERROR, msg, 1, a, null, 0, 0, 0, error);
+    }
+
+    /**
+     * Writes out everything logged so far. Called on exit, and by
+     * whoever needs the log written before printing something else.
+     */
+    public static void flush() {
+        drain();
+    }
+
+    // Claims the next slot of the ring and fills it in. Slots are free
+    // when their sequence equals the position claiming them, and ready
+    // to be written once it is one past it.
+    private static void log(Level l, String msg, int objects, Object a, Object b, int numbers, long n, long m, Throwable error) {
+        if (l.ordinal() < level.ordinal()) return;
+
+        long position;
+        Entry entry;
+        while (true) {
+            position = head.get();
+            entry = ring[(int) (position & MASK)];
+            long diff = entry.sequence - position;
+            if (diff == 0) {
+                if (head.compareAndSet(position, position + 1)) break;
+            } else if (diff < 0) {
+                dropped.increment(); // ring full, writer is behind
+                return;
+            }
+        }
+
+        entry.level = l;
+        entry.time = System.currentTimeMillis();
+        entry.message = msg;
+        entry.objects = objects;
+        entry.a = a;
+        entry.b = b;
+        entry.numbers = numbers;
+        entry.n = n;
+        entry.m = m;
+        entry.error = error;
+        entry.sequence = position + 1; // publish
+
+        if (isIdle) LockSupport.unpark(writer);
+    }
+
+    // Background writer. Writes whatever is ready and parks when there
+    // is nothing left, until a logger unparks it. isIdle is set before
+    // checking the ring one last time, and loggers publish before reading
+    // it (both volatile), so a message logged meanwhile is either seen
+    // here or unparks the writer
+    private static void write() {
+        while (true) {
+            if (drain() == 0) {
+                isIdle = true;
+                if (ring[(int) (tail & MASK)].sequence != tail + 1) LockSupport.park();
+                isIdle = false;
+            }
+        }
+    }
+
+    // Writes out every ready entry, in order. Lines are batched so the
+    // console is written once per batch instead of once per line.
+    // Returns the number of entries written
+    private static synchronized int drain() {
+        int written = 0;
+        while (true) {
+            Entry entry = ring[(int) (tail & MASK)];
+            if (entry.sequence != tail + 1) break;
+
+            StringBuilder batch = entry.level.ordinal() >= Level.WARN.ordinal() ? errBatch : outBatch;
+            format(entry, batch);
+            if (entry.error != null) {
+                writeBatches();
+                entry.error.printStackTrace(System.err);
+            }
+
+            entry.clear();
+            entry.sequence = tail + CAPACITY; // free for the next lap
+            tail++;
+            written++;
+            if (outBatch.length() + errBatch.length() >= MAX_BATCH_CHARS) writeBatches();
+        }
+
+        long lost = dropped.sumThenReset();
+        if (lost > 0) errBatch.append("[LOG] ").append(lost).append(" messages dropped, writer was behind.\n");
+        writeBatches();
+        return written;
+    }
+
+    // Writes out the batched lines
+    private static void writeBatches() {
+        if (outBatch.length() > 0) {
+            System.out.print(outBatch);
+            System.out.flush();
+            outBatch.setLength(0);
+        }
+        if (errBatch.length() > 0) {
+            System.err.print(errBatch);
+            System.err.flush();
+            errBatch.setLength(0);
+        }
+    }
+
+    // time LEVEL message, with placeholders replaced
+    private static void format(Entry entry, StringBuilder line) {
+        TIME.formatTo(Instant.ofEpochMilli(entry.time), line);
+        line.append(' ').append(entry.level.name());
+        for (int i = entry.level.name().length(); i < 6; i++) line.append(' ');
+
+        String msg = entry.message;
+        int arg = 0;
+        int args = entry.objects + entry.numbers;
+        int from = 0;
+        int placeholder;
+        while (arg < args && (placeholder = msg.indexOf("{}", from)) >= 0) {
+            line.append(msg, from, placeholder);
+            if (arg < entry.objects) line.append(arg == 0 ? entry.a : entry.b);
+            else line.append(arg == entry.objects ? entry.n : entry.m);
+            arg++;
+            from = placeholder + 2;
+        }
+        line.append(msg, from, msg.length()).append('\n');
+    }
+
+    private static Level parseLevel(String name) {
+        if (name == null) return Level.INFO;
+        try {
+            return Level.valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return Level.INFO;
+        }
+    }
+
+    // A slot of the ring
+    private static class Entry {
+        volatile long sequence;
+        Level level;
+        long time;
+        String message;
+        int objects; // object arguments (a, b)
+        Object a;
+        Object b;
+        int numbers; // number arguments (n, m), after the objects
+        long n;
+        long m;
+        Throwable error;
+
+        Entry(long sequence) {
+            this.sequence = sequence;
+        }
+
+        // drops references so arguments can be collected
+        void clear() {
+            message = null;
+            a = null;
+            b = null;
+            error = null;
+        }
+    }
+}
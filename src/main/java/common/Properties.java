@@ -25,6 +25,13 @@ public class Properties {
     public static final String PUSH_CONSUMER = "push.consumer";
     public static final String OFFSET_CONSUMER = "offset.consumer";
     public static final String INTERNAL_TIMEOUT = "timeout.consumer";
+    public static final String QUEUE_CAPACITY_CONSUMER = "queue.capacity.consumer";
+    public static final String CREDITS_CONSUMER = "credits.consumer";
+    public static final String MAX_POLL_RECORDS = "max.poll.records";
+    public static final String PREFETCH_DEPTH = "prefetch.depth";
+    public static final String GROUP_ID = "group.id";
+    public static final String ENABLE_AUTO_COMMIT = "enable.auto.commit";
+    public static final String AUTO_COMMIT_INTERVAL_MS = "auto.commit.interval.ms";
 
     // class private properties
     private int id;
@@ -38,6 +45,13 @@ public class Properties {
     private String consumerMethod;
     private int consumerOffset = -1; // by default no records have been received
     private int timeout = 50; // by default 50ms for data polling
+    private int queueCapacity = 10000; // max records buffered in the consumer
+    private int credits = 500; // records a push consumer grants the broker at a time
+    private int maxPollRecords = 500; // max records returned by a single poll
+    private int prefetchDepth = 2; // fetched batches waiting to be processed (0 disables prefetching)
+    private String groupId; // consumer group, by default none (consumer reads every record)
+    private boolean autoCommit = true; // commit offsets to the broker periodically
+    private int autoCommitInterval = 5000; // ms between offset commits
 
     public Properties() {
     }
@@ -63,8 +77,15 @@ public class Properties {
             case POLL_METHOD_CONSUMER -> consumerMethod = prop;
             case OFFSET_CONSUMER -> consumerOffset = Integer.parseInt(prop);
             case INTERNAL_TIMEOUT -> timeout = Integer.parseInt(prop);
+            case QUEUE_CAPACITY_CONSUMER -> queueCapacity = Integer.parseInt(prop);
+            case CREDITS_CONSUMER -> credits = Integer.parseInt(prop);
+            case MAX_POLL_RECORDS -> maxPollRecords = Integer.parseInt(prop);
+            case PREFETCH_DEPTH -> prefetchDepth = Integer.parseInt(prop);
+            case GROUP_ID -> groupId = prop;
+            case ENABLE_AUTO_COMMIT -> autoCommit = Boolean.parseBoolean(prop);
+            case AUTO_COMMIT_INTERVAL_MS -> autoCommitInterval = Integer.parseInt(prop);
             default -> {
-                System.out.println("Unexpected property " + propName + ".");
+                Log.warn("Unexpected property {}.", propName);
             }
         }
     }
@@ -165,4 +186,67 @@ public class Properties {
     public int getTimeout() {
         return timeout;
     }
+
+    /**
+     * Consumer queue capacity getter
+     *
+     * @return
+     */
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * Push consumer credits getter
+     *
+     * @return
+     */
+    public int getCredits() {
+        return credits;
+    }
+
+    /**
+     * Max poll records getter
+     *
+     * @return
+     */
+    public int getMaxPollRecords() {
+        return maxPollRecords;
+    }
+
+    /**
+     * Prefetch depth getter
+     *
+     * @return
+     */
+    public int getPrefetchDepth() {
+        return prefetchDepth;
+    }
+
+    /**
+     * Consumer group id getter
+     *
+     * @return
+     */
+    public String getGroupId() {
+        return groupId;
+    }
+
+    /**
+     * Auto commit getter
+     *
+     * @return
+     */
+    public boolean isAutoCommit() {
+        return autoCommit;
+    }
+
+    /**
+     * Auto commit interval getter
+     *
+     * @return
+     */
+    public int getAutoCommitInterval() {
+        return autoCommitInterval;
+    }
 }
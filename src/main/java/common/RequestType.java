@@ -9,10 +9,17 @@ package common;
 public enum RequestType {
     PRODUCER_PUBLISH,
     CONSUMER_POLL,
+    CONSUMER_FETCH,
     CONSUMER_SUBSCRIBE,
+    CONSUMER_CREDIT,
+    OFFSET_COMMIT,
+    OFFSET_FETCH,
+    OFFSETS_FOR_TIMES,
     BROKER_SYNC,
+    BROKER_SYNC_CATCH_UP,
     ZOOKEEPER_HEARTBEAT,
     ZOOKEEPER_MEMBERSHIP,
+    ZOOKEEPER_MEMBERSHIP_SYNC,
     ZOOKEEPER_LEADER_VICTORY,
     ZOOKEEPER_LEADER_CANDIDATE,
     ZOOKEEPER_ALIVE
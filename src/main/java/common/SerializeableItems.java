@@ -10,5 +10,6 @@ package common;
 public enum SerializeableItems {
     STRING,
     INTEGER,
+    BYTES, // raw bytes, no deserialization
 //    and so on...
 }
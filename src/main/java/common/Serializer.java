@@ -1,6 +1,7 @@
 package common;
 
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 
 /**
@@ -12,6 +13,9 @@ import java.nio.charset.StandardCharsets;
  * implemented. But if the project were to grow then it'd be useful
  * to add serializer for other data types such as long, double, short,
  * ByteBuffer, ByteArray etc.
+ * <p>
+ * BYTES skips deserialization: records are handed over as a read-only
+ * ByteBuffer over the received data, for pass-through pipelines.
  */
 public abstract class Serializer<T> implements Serializeable<T> {
     public static Serializer<?> get(String type) {
@@ -19,9 +23,24 @@ public abstract class Serializer<T> implements Serializeable<T> {
             return new StringSerializer();
         } else if (type.equals(SerializeableItems.INTEGER.name())) {
             return new IntegerSerializer();
+        } else if (type.equals(SerializeableItems.BYTES.name())) {
+            return new BytesSerializer();
         } else return null;
     }
 
+    /**
+     * Deserializes straight from a buffer. By default, the buffer is
+     * copied into an array; serializers override it to avoid the copy.
+     *
+     * @param data
+     * @return
+     */
+    public T deserialize(ByteBuffer data) {
+        byte[] bytes = new byte[data.remaining()];
+        data.duplicate().get(bytes);
+        return deserialize(bytes);
+    }
+
     /**
      * Serializers are only created with static factory "get"
      */
@@ -39,6 +58,11 @@ public abstract class Serializer<T> implements Serializeable<T> {
         public String deserialize(byte[] data) {
             return new String(data, StandardCharsets.UTF_8);
         }
+
+        @Override
+        public String deserialize(ByteBuffer data) {
+            return StandardCharsets.UTF_8.decode(data.duplicate()).toString();
+        }
     }
 
     /**
@@ -53,4 +77,24 @@ public abstract class Serializer<T> implements Serializeable<T> {
             return new BigInteger(data).intValue();
         }
     }
+
+    /**
+     * Raw bytes. Deserializing from a buffer returns the buffer itself
+     */
+    private static class BytesSerializer extends Serializer<ByteBuffer> {
+        public byte[] serialize(ByteBuffer data) {
+            byte[] bytes = new byte[data.remaining()];
+            data.duplicate().get(bytes);
+            return bytes;
+        }
+
+        public ByteBuffer deserialize(byte[] data) {
+            return ByteBuffer.wrap(data).asReadOnlyBuffer();
+        }
+
+        @Override
+        public ByteBuffer deserialize(ByteBuffer data) {
+            return data;
+        }
+    }
 }
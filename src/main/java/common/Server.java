@@ -45,9 +45,9 @@ public class Server implements Runnable {
         ServerSocket server;
         try {
             server = new ServerSocket(PORT);
-            System.out.println(TAG + "Listening on port " + PORT + ".");
+            Log.info("{}Listening on port {}.", TAG, PORT);
         } catch (IOException e) {
-            System.out.println(TAG + e.getMessage());
+            Log.error("{}{}", TAG, e.getMessage());
             return null;
         }
 
@@ -62,7 +62,7 @@ public class Server implements Runnable {
         try {
             server.close();
         } catch (IOException e) {
-            System.out.println(TAG + "IOException closing server");
+            Log.warn("{}IOException closing server", TAG);
         }
 
         new Thread(() -> {
@@ -77,10 +77,10 @@ public class Server implements Runnable {
             connectionPool.shutdownNow();
             try {
                 if (!connectionPool.awaitTermination(CONNECTION_POOL_TIMEOUT_IN_SECONDS, TimeUnit.SECONDS)) {
-                    System.err.println(TAG + "Connection pool didn't finish in " + CONNECTION_POOL_TIMEOUT_IN_SECONDS + " seconds");
+                    Log.error("{}Connection pool didn't finish in {} seconds", TAG, CONNECTION_POOL_TIMEOUT_IN_SECONDS);
                 }
             } catch (InterruptedException e) {
-                e.printStackTrace();
+                Log.error("{}Interrupted closing connection pool", TAG, e);
             }
         }).start();
     }
@@ -101,7 +101,7 @@ public class Server implements Runnable {
                     activeConnections.add(sock);
                 }
             } catch (IOException e) {
-                System.out.println(TAG + "Connection rejected. Server is closed.");
+                Log.warn("{}Connection rejected. Server is closed.", TAG);
             }
         }
     }
@@ -0,0 +1,247 @@
+package common;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @author Alberto Delgado on 5/8/22
+ * @project dsd-pub-sub
+ * <p>
+ * Hashed wheel timer shared by everything that runs periodically or after
+ * a timeout (heartbeats, failure detection, leader discovery, retries...),
+ * so the number of threads doesn't grow with the number of nodes.
+ * <p>
+ * The wheel is an array of buckets, one per tick. A task goes to the bucket
+ * of the tick it is due on, along with the number of turns of the wheel
+ * left until then. A single thread moves around the wheel one bucket per
+ * tick and hands the tasks that are due to a small, fixed pool of workers.
+ * Tasks run up to a tick late.
+ * <p>
+ * The workers run heartbeats and failure detection, so tasks on them must
+ * be short. Long or blocking work (connecting, cleaning segments...) is
+ * scheduled with an executor of its own: the wheel only keeps the time
+ * and hands it to that executor when it is due.
+ */
+public class TimerWheel {
+    private static final long TICK_MS = 10;
+    private static final int WHEEL_SIZE = 512; // power of two, ~5s per turn
+    private static final int WORKERS = 4;
+    private static TimerWheel shared;
+
+    private final long tickNanos;
+    private final int mask;
+    private final ArrayDeque<Timeout>[] buckets; // wheel thread only
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>(); // scheduled, not in the wheel yet
+    private final ExecutorService workers;
+    private final long startTime;
+    private final Thread wheel;
+    private volatile boolean isClosed = false;
+    private long tick = 0; // wheel thread only
+
+    public TimerWheel(long tickMs, int wheelSize, int workers) {
+        if (wheelSize < 2) throw new IllegalArgumentException("wheel size must be at least 2: " + wheelSize);
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMs);
+        this.mask = Integer.highestOneBit(wheelSize - 1) * 2 - 1;
+        @SuppressWarnings("unchecked") // generic arrays can't be created
+        ArrayDeque<Timeout>[] buckets = (ArrayDeque<Timeout>[]) new ArrayDeque<?>[mask + 1];
+        for (int i = 0; i < buckets.length; i++)
+            buckets[i] = new ArrayDeque<>();
+        this.buckets = buckets;
+
+        AtomicInteger workerId = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workers, r -> {
+            Thread thread = new Thread(r, "timer-worker-" + workerId.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.startTime = System.nanoTime();
+        this.wheel = new Thread(this::run, "timer-wheel");
+        this.wheel.setDaemon(true);
+        this.wheel.start();
+    }
+
+    /**
+     * Timer shared by the whole process
+     *
+     * @return
+     */
+    public static synchronized TimerWheel shared() {
+        if (shared == null) shared = new TimerWheel(TICK_MS, WHEEL_SIZE, WORKERS);
+        return shared;
+    }
+
+    /**
+     * Runs the task once, after the delay
+     *
+     * @param task
+     * @param delayMs
+     * @return
+     */
+    public Timeout schedule(Runnable task, long delayMs) {
+        return add(new Timeout(task, 0, workers), delayMs);
+    }
+
+    /**
+     * Runs the task after the delay. The future completes with its result
+     * (or exception) and cancelling it cancels the task if it hasn't run
+     *
+     * @param task
+     * @param delayMs
+     * @return
+     */
+    public <T> CompletableFuture<T> schedule(Callable<T> task, long delayMs) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Timeout timeout = schedule(() -> {
+            try {
+                future.complete(task.call());
+            } catch (Exception e) {
+                future.completeExceptionally(e);
+            }
+        }, delayMs);
+        future.whenComplete((result, e) -> {
+            if (future.isCancelled()) timeout.cancel();
+        });
+        return future;
+    }
+
+    /**
+     * Runs the task after the initial delay and then again every delay
+     * after the previous run finishes, until cancelled
+     *
+     * @param task
+     * @param initialDelayMs
+     * @param delayMs
+     * @return
+     */
+    public Timeout scheduleWithFixedDelay(Runnable task, long initialDelayMs, long delayMs) {
+        return scheduleWithFixedDelay(task, initialDelayMs, delayMs, workers);
+    }
+
+    /**
+     * Same as above, but the task runs on the given executor instead of
+     * the workers of the wheel. For long or blocking tasks
+     *
+     * @param task
+     * @param initialDelayMs
+     * @param delayMs
+     * @param executor
+     * @return
+     */
+    public Timeout scheduleWithFixedDelay(Runnable task, long initialDelayMs, long delayMs, Executor executor) {
+        return add(new Timeout(task, Math.max(delayMs, 1), executor), initialDelayMs);
+    }
+
+    /**
+     * Stops the wheel and shuts down its workers. Tasks that haven't
+     * run yet never will; tasks on executors of their own are not
+     * affected.
+     */
+    public void close() {
+        isClosed = true;
+        wheel.interrupt();
+        workers.shutdownNow();
+    }
+
+    private Timeout add(Timeout timeout, long delayMs) {
+        timeout.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(delayMs, 0));
+        pending.add(timeout);
+        return timeout;
+    }
+
+    // Moves around the wheel, one bucket per tick
+    private void run() {
+        while (!isClosed) {
+            long deadline = startTime + (tick + 1) * tickNanos;
+            long sleep;
+            while ((sleep = deadline - System.nanoTime()) > 0 && !isClosed)
+                LockSupport.parkNanos(sleep);
+            if (isClosed) return;
+
+            transferPending();
+            expire(buckets[(int) (tick & mask)]);
+            tick++;
+        }
+    }
+
+    // Puts the newly scheduled tasks in the bucket of the tick they are due on
+    private void transferPending() {
+        Timeout timeout;
+        while ((timeout = pending.poll()) != null) {
+            if (timeout.isCancelled) continue;
+            long dueTick = Math.max((timeout.deadline - startTime + tickNanos - 1) / tickNanos, tick);
+            timeout.rounds = (dueTick - tick) / buckets.length;
+            buckets[(int) (dueTick & mask)].add(timeout);
+        }
+    }
+
+    // Hands the tasks of the bucket that are due to the workers
+    private void expire(Queue<Timeout> bucket) {
+        Iterator<Timeout> timeouts = bucket.iterator();
+        while (timeouts.hasNext()) {
+            Timeout timeout = timeouts.next();
+            if (timeout.isCancelled) {
+                timeouts.remove();
+            } else if (timeout.rounds <= 0) {
+                timeouts.remove();
+                try {
+                    timeout.executor.execute(timeout);
+                } catch (RejectedExecutionException e) {
+                    timeout.cancel(); // its executor was shut down
+                }
+            } else {
+                timeout.rounds--;
+            }
+        }
+    }
+
+    /**
+     * A scheduled task. Cancelling it stops it from running (again);
+     * a run already in progress is not interrupted.
+     */
+    public class Timeout implements Runnable {
+        private final Runnable task;
+        private final long periodMs; // 0 if it runs once
+        private final Executor executor; // runs the task
+        private volatile boolean isCancelled = false;
+        private long deadline;
+        private long rounds; // turns of the wheel left, wheel thread only
+
+        private Timeout(Runnable task, long periodMs, Executor executor) {
+            this.task = task;
+            this.periodMs = periodMs;
+            this.executor = executor;
+        }
+
+        // cancels the task
+        public void cancel() {
+            isCancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return isCancelled;
+        }
+
+        @Override
+        public void run() {
+            if (isCancelled) return;
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                Log.error("[TIMER] Scheduled task failed", e);
+            }
+            if (periodMs > 0 && !isCancelled) add(this, periodMs);
+        }
+    }
+}
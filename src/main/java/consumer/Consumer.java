@@ -1,7 +1,9 @@
 package consumer;
 
+import broker.Constants;
 import common.Client;
 import common.Connection;
+import common.Log;
 import common.Properties;
 import common.RequestType;
 import models.ConsumerRecord;
@@ -11,10 +13,14 @@ import java.io.IOException;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author Alberto Delgado on 2/28/22
@@ -31,22 +37,26 @@ import java.util.concurrent.LinkedBlockingDeque;
  * prevent memory leaks.
  */
 public class Consumer<K, V> extends Client {
-    // This is where the records are stored
-    private final BlockingQueue<ConsumerRecord<K, V>> recordsQueue = new LinkedBlockingDeque<>();
+    // This is where the records are stored. Bounded, so a slow application
+    // slows down the fetching instead of running out of memory
+    private final BlockingQueue<ConsumerRecord<K, V>> recordsQueue;
     private final Properties props;
     private final Set<String> topics = new HashSet<>();
-    // Each topic is being polled by a PollingConsumer. We store these not only
-    // to be able to close them when done, but to keep track of the polled topics.
-    // Same strategy is used for push consumers.
-    private final Set<PollConsumer<K, V>> pollingConsumers = new HashSet<>();
+    // All polled topics are fetched by a single PollConsumer over the same
+    // connection. Push consumers, instead, have one per subscribed topic.
+    private volatile PollConsumer<K, V> pollConsumer;
+    // last offset returned by poll for each topic. Committed to the broker
+    // so a restarted consumer resumes from there
+    private final Map<String, Integer> positions = new ConcurrentHashMap<>();
     private final Set<PushConsumer<K, V>> pushConsumers = new HashSet<>();
 
     public Consumer(Properties props) {
         super(props);
         this.props = props;
+        this.recordsQueue = new LinkedBlockingDeque<>(props.getQueueCapacity());
 
-        System.out.println("[CONSUMER] Running on port " + props.getLocalPort());
-        System.out.println("[CONSUMER] Connecting to " + props.getHostname() + ":" + props.getPort());
+        Log.info("[CONSUMER] Running on port {}", props.getLocalPort());
+        Log.info("[CONSUMER] Connecting to {}:{}", props.getHostname(), props.getPort());
     }
 
     /**
@@ -86,30 +96,20 @@ public class Consumer<K, V> extends Client {
     }
 
     /**
-     * Create a thread for each topic being polled. If a topic
-     * is already in the pollingTopics set means it is already
-     * being fetched, and we avoid creating a duplicate thread
-     * for that topic.
+     * Adds every topic to the PollConsumer, which fetches all of them
+     * in a single request. The PollConsumer (and its thread) is created
+     * on the first subscription.
      */
-    private void pollTopics() {
+    private synchronized void pollTopics() {
         // do not poll if consumer type is push
         if (props.getConsumerMethod().equals(Properties.PUSH_CONSUMER)) return;
 
-        for (String topic : topics) {
-            // First avoid having duplicate poll consumers for the
-            // same topic.
-            boolean isBeingPolled = false;
-            for (PollConsumer<K, V> consumer : pollingConsumers) {
-                if (consumer.getTopic().equals(topic)) {
-                    isBeingPolled = true;
-                    break;
-                }
-            }
-            if (isBeingPolled) continue;
-
-            PollConsumer<K, V> pollConsumer = new PollConsumer<>(props, topic, recordsQueue, conn);
-            pollingConsumers.add(pollConsumer);
+        if (pollConsumer == null) {
+            pollConsumer = new PollConsumer<>(props, recordsQueue, positions, conn);
+            pollConsumer.addTopics(topics);
             pollConsumer.poll();
+        } else {
+            pollConsumer.addTopics(topics);
         }
     }
 
@@ -129,12 +129,13 @@ public class Consumer<K, V> extends Client {
                     .setRole(Kafka.Record.Role.CONSUMER)
                     .setType(RequestType.CONSUMER_SUBSCRIBE.name())
                     .setTopic(topic)
+                    .setOffset(props.getCredits()) // initial credits
                     .build();
 
             byte[] protoBytes = proto.toByteArray();
             conn.send(protoBytes);
         } catch (IOException e) {
-            e.printStackTrace();
+            Log.error("[CONSUMER] Could not subscribe", e);
             return false;
         }
 
@@ -158,7 +159,7 @@ public class Consumer<K, V> extends Client {
                 subscribedToAll = false;
                 continue;
             }
-            PushConsumer<K, V> pushConsumer = new PushConsumer(conn, props, recordsQueue);
+            PushConsumer<K, V> pushConsumer = new PushConsumer<>(conn, topic, props, recordsQueue);
             pushConsumers.add(pushConsumer);
         }
 
@@ -166,28 +167,143 @@ public class Consumer<K, V> extends Client {
     }
 
     /**
-     * Allows client to poll from already stored messages
+     * Allows client to poll from already stored messages. Waits up to the
+     * given duration for the first record to arrive, then returns it along
+     * with whatever else is already stored, up to max.poll.records.
+     * Returns an empty list if nothing arrived in time.
      */
     public ArrayList<ConsumerRecord<K, V>> poll(Duration duration) {
         ArrayList<ConsumerRecord<K, V>> records = new ArrayList<>();
-        synchronized (recordsQueue) {
-            while (!recordsQueue.isEmpty()) {
-                ConsumerRecord<K, V> record = recordsQueue.poll();
-                if (record != null) records.add(record);
+        try {
+            PollConsumer<K, V> pollConsumer = this.pollConsumer;
+            if (pollConsumer != null) {
+                pollConsumer.take(records, duration.toNanos(), props.getMaxPollRecords());
+                return records;
             }
+
+            // push consumers, nothing can be seeked
+            ConsumerRecord<K, V> first = recordsQueue.poll(duration.toNanos(), TimeUnit.NANOSECONDS);
+            if (first == null) return records;
+
+            records.add(first);
+            recordsQueue.drainTo(records, props.getMaxPollRecords() - 1);
+            for (ConsumerRecord<K, V> record : records)
+                positions.merge(record.getTopic(), record.getOffset(), Math::max);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
 
         return records;
     }
 
     /**
-     * Closes all current polls
+     * Repositions a topic, so the next records returned by poll are
+     * the ones after the given offset. Threads and connection are kept.
+     * Only poll consumers can seek, and only topics they are subscribed
+     * to; other topics are ignored. Push consumers receive records as
+     * they are published, and members of a group fetch from positions
+     * the broker keeps for the whole group, so seeking on those throws
+     * UnsupportedOperationException.
+     *
+     * @param topic
+     * @param offset
      */
-    public void close() {
-        for (PollConsumer<K, V> pollConsumer : pollingConsumers) {
-            pollConsumer.close();
+    public void seek(String topic, int offset) {
+        if (props.getConsumerMethod().equals(Properties.PUSH_CONSUMER))
+            throw new UnsupportedOperationException("Push consumers cannot seek");
+        if (props.getGroupId() != null)
+            throw new UnsupportedOperationException("Members of a consumer group cannot seek");
+        if (pollConsumer == null) return; // not subscribed yet
+        pollConsumer.seek(topic, offset);
+    }
+
+    /**
+     * Rewinds the topics to their first record
+     *
+     * @param topics
+     */
+    public void seekToBeginning(Collection<String> topics) {
+        for (String topic : topics)
+            seek(topic, -1);
+    }
+
+    /**
+     * Moves the topics to their end, so only new records are returned
+     *
+     * @param topics
+     */
+    public void seekToEnd(Collection<String> topics) {
+        Map<String, Long> latest = new HashMap<>();
+        for (String topic : topics)
+            latest.put(topic, Constants.LATEST_TIMESTAMP);
+
+        Map<String, Integer> offsets = offsetsForTimes(latest);
+        for (String topic : topics)
+            seek(topic, offsets.getOrDefault(topic, -1));
+    }
+
+    /**
+     * Position of a topic: offset of the last record returned by poll (or
+     * the one seeked to). Next records returned are the ones after it.
+     *
+     * @param topic
+     * @return
+     */
+    public int position(String topic) {
+        return positions.getOrDefault(topic, props.getConsumerOffset());
+    }
+
+    /**
+     * Looks up, for each topic, the offset to fetch from in order to get
+     * the records with timestamp equal or greater than the given one.
+     * Topics with no records that recent are left out. Uses a connection
+     * of its own, so it does not interfere with the ongoing polling.
+     *
+     * @param timestamps topic to timestamp
+     * @return topic to offset
+     */
+    public Map<String, Integer> offsetsForTimes(Map<String, Long> timestamps) {
+        Map<String, Integer> offsets = new HashMap<>();
+        // current broker (it changes if a new leader is elected)
+        String hostname = conn.hasConnected ? conn.getHostname() : props.getHostname();
+        int port = conn.hasConnected ? conn.getRemotePort() : props.getPort();
+        Connection lookup = new Connection(hostname, port);
+        if (!lookup.hasConnected) return offsets;
+
+        Kafka.Record.Builder request = Kafka.Record.newBuilder()
+                .setNodeId(ID)
+                .setRole(Kafka.Record.Role.CONSUMER)
+                .setType(RequestType.OFFSETS_FOR_TIMES.name());
+        for (Map.Entry<String, Long> timestamp : timestamps.entrySet()) {
+            request.addRecords(Kafka.Record.newBuilder()
+                    .setTopic(timestamp.getKey())
+                    .setTimestamp(timestamp.getValue())
+                    .build());
         }
 
+        try {
+            lookup.send(request.build().toByteArray());
+            byte[] data = lookup.receive();
+            if (data == null) return offsets;
+
+            for (Kafka.Record offset : Kafka.Record.parseFrom(data).getRecordsList())
+                offsets.put(offset.getTopic(), offset.getOffset());
+        } catch (IOException e) {
+            Log.error("[CONSUMER] Could not look up offsets", e);
+        } finally {
+            lookup.close();
+        }
+
+        return offsets;
+    }
+
+    /**
+     * Closes all current polls. With auto commit on, the
+     * positions polled are committed before leaving.
+     */
+    public void close() {
+        if (pollConsumer != null) pollConsumer.close();
+
         for (PushConsumer<K, V> pushConsumer : pushConsumers) {
             pushConsumer.close();
         }
@@ -196,7 +312,7 @@ public class Consumer<K, V> extends Client {
     @Override
     public void setConnection(Connection conn) {
         this.conn = conn;
-        pollingConsumers.forEach(c -> c.setConnection(conn));
+        if (pollConsumer != null) pollConsumer.setConnection(conn);
     }
 }
 
@@ -1,11 +1,17 @@
 package consumer;
 
-import broker.Constants;
 import common.*;
 import models.ConsumerRecord;
 import protos.Kafka;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.*;
 
 /**
@@ -16,7 +22,34 @@ import java.util.concurrent.*;
  * not too heavy loaded on the broker, it has a timeout to give some time for the broker
  * to respond. If broker doesn't come back, it will request again for more records.
  * <p>
- * Upon received records, data is deserialized. To store the data, it is required for
+ * A single PollConsumer fetches every subscribed topic: each request carries the offset
+ * of every topic and the broker answers with one batch per topic. One thread and one
+ * round trip per fetch cycle, no matter how many topics.
+ * <p>
+ * If the consumer belongs to a group, the group id is sent along and the broker
+ * only returns the records of the partitions assigned to this consumer. The broker
+ * keeps the fetch positions of the group, so after a rebalance records may come
+ * with offsets below the ones already received: they belong to partitions that
+ * just moved to this consumer.
+ * <p>
+ * Offsets are committed to the broker every auto.commit.interval.ms, and once more on
+ * close (the positions returned to the application by Consumer.poll). When a topic is
+ * added, its committed offset is fetched first, so a restarted consumer resumes where
+ * it left off. Members of a group commit the offset of every partition they got records
+ * of, on behalf of the group, and fetch nothing: the broker starts the partitions a
+ * member is assigned from the offsets committed by the group.
+ * <p>
+ * A topic can be repositioned (seek) at any time without stopping the threads. Every
+ * seek bumps the topic epoch: batches fetched before it, and records of that topic
+ * not yet returned to the application, are discarded.
+ * <p>
+ * Fetching is pipelined: as soon as a response arrives the fetch offsets are moved
+ * forward and the next request is sent, while a separate thread turns the batch
+ * into records and queues them for the application. Up to prefetch.depth batches may be
+ * waiting to be processed; when that buffer is full the fetcher waits. A depth of 0
+ * disables prefetching and processes every batch before asking for the next one.
+ * <p>
+ * Key/value of received records are deserialized lazily, when read. To store the data, it is required for
  * the consumer to pass the storage blocking queue where it wants the records to be
  * stored.
  */
@@ -24,26 +57,37 @@ class PollConsumer<K, V> implements ClientUpdateable {
     private final BlockingQueue<ConsumerRecord<K, V>> storage; // append to the consumers storage
     private final Properties props;
     private Connection conn;
-    private int offset;
-    private final String topic;
+    private final Map<String, Integer> offsets = new LinkedHashMap<>(); // next offset to fetch of each topic
+    private final Map<String, Integer> delivered = new ConcurrentHashMap<>(); // last offset handed to the application
+    private final Map<String, Integer> positions; // last offset polled by the application, to be committed
+    private final Map<String, Map<Integer, Integer>> partitionPositions = new HashMap<>(); // group members: last offset polled of each partition
+    private final Set<String> unresolved = new HashSet<>(); // topics whose committed offset is yet to be fetched
+    private long lastCommit = System.currentTimeMillis();
+    private volatile Map<String, Map<Integer, Integer>> lastCommitted = new HashMap<>(); // topic -> partition -> offset
+    private final BlockingQueue<Fetch> prefetched; // fetched batches waiting to be processed
+    private final Map<String, Integer> epochs = new HashMap<>(); // bumped on every seek of a topic
+    private static final long STORAGE_FULL_BACKOFF_MS = 10L;
+    private static final long EMPTY_POLL_BACKOFF_MS = 1000L; // wait after a poll that got nothing
+    private static final long CLOSE_COMMIT_TIMEOUT_MS = 5000L; // wait for the final commit to be acked
     private final Serializer<K> keyDeserializer;
     private final Serializer<V> valueDeserializer;
     private Thread pollingThread;
-    private ExecutorService timeout = Executors.newSingleThreadExecutor();
-    Future<ConsumerRecord<K, V>> future = null;
+    private Thread processingThread;
 
 
     PollConsumer(Properties props,
-                 String topic,
                  BlockingQueue<ConsumerRecord<K, V>> storage,
+                 Map<String, Integer> positions,
                  Connection conn) {
         this.props = props;
-        this.topic = topic;
-        this.offset = props.getConsumerOffset();
         this.storage = storage;
+        this.positions = positions;
         this.keyDeserializer = (Serializer<K>) props.getKeyDeserializer();
         this.valueDeserializer = (Serializer<V>) props.getValueDeserializer();
         this.conn = conn;
+        this.prefetched = props.getPrefetchDepth() > 0
+                ? new ArrayBlockingQueue<>(props.getPrefetchDepth())
+                : null;
     }
 
     public void setConnection(Connection conn) {
@@ -51,12 +95,77 @@ class PollConsumer<K, V> implements ClientUpdateable {
     }
 
     /**
-     * Topic getter
+     * Adds topics to be fetched. Topics already being fetched
+     * keep their offset.
+     *
+     * @param topics
+     */
+    void addTopics(Collection<String> topics) {
+        synchronized (offsets) {
+            for (String topic : topics) {
+                if (offsets.containsKey(topic)) continue;
+                offsets.put(topic, props.getConsumerOffset());
+                if (props.getGroupId() == null) unresolved.add(topic); // groups resume on the broker
+            }
+        }
+    }
+
+    /**
+     * Repositions a topic: next records returned will be the ones after
+     * the given offset. Records fetched before the seek are discarded.
+     *
+     * @param topic
+     * @param offset
+     */
+    void seek(String topic, int offset) {
+        synchronized (offsets) {
+            if (!offsets.containsKey(topic)) return;
+            epochs.merge(topic, 1, Integer::sum);
+            offsets.put(topic, offset);
+            delivered.put(topic, offset);
+            positions.put(topic, offset);
+            unresolved.remove(topic); // seek wins over the committed offset
+            storage.removeIf(record -> record.getTopic().equals(topic));
+        }
+    }
+
+    /**
+     * Hands stored records to the application (Consumer.poll), waiting up
+     * to the timeout for the first one, and moves their positions forward.
+     * Runs under the same lock as seek, so records taken before a seek
+     * never overwrite the position it set.
+     *
+     * @param records
+     * @param timeoutNanos
+     * @param max
+     */
+    void take(List<ConsumerRecord<K, V>> records, long timeoutNanos, int max) throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutNanos;
+        synchronized (offsets) {
+            while (storage.isEmpty()) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) return;
+                TimeUnit.NANOSECONDS.timedWait(offsets, remaining);
+            }
+            storage.drainTo(records, max);
+            for (ConsumerRecord<K, V> record : records) {
+                positions.merge(record.getTopic(), record.getOffset(), Math::max);
+                if (props.getGroupId() != null)
+                    partitionPositions.computeIfAbsent(record.getTopic(), t -> new HashMap<>())
+                            .merge(record.getPartition(), record.getOffset(), Math::max);
+            }
+        }
+    }
+
+    /**
+     * Topics getter
      *
      * @return
      */
-    String getTopic() {
-        return topic;
+    Set<String> getTopics() {
+        synchronized (offsets) {
+            return new HashSet<>(offsets.keySet());
+        }
     }
 
     /**
@@ -64,22 +173,35 @@ class PollConsumer<K, V> implements ClientUpdateable {
      * so, it doesn't overwhelm too much the broker.
      */
     void poll() {
+        if (prefetched != null) {
+            processingThread = new Thread(() -> {
+                while (!Thread.currentThread().isInterrupted()) {
+                    try {
+                        Fetch fetch = prefetched.take();
+                        deliver(fetch.response, fetch.epochs);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            });
+            processingThread.start();
+        }
+
+        // polls on its own thread, backing off when there is nothing new
         pollingThread = new Thread(() -> {
-            long delayMs = 0;
-            ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
-            while (true) {
-                Future<Boolean> future = scheduler.schedule(
-                        () -> pollLogic(),
-                        delayMs,
-                        TimeUnit.MILLISECONDS
-                );
+            while (!Thread.currentThread().isInterrupted()) {
+                boolean received = false;
+                try {
+                    received = pollLogic();
+                } catch (RuntimeException e) {
+                    Log.error("[CONSUMER] Poll failed", e);
+                }
+                if (received) continue;
+
                 try {
-                    if (future.get())
-                        delayMs = 0;
-                    else
-                        delayMs = 1000L;
-                } catch (InterruptedException | ExecutionException e) {
-                    e.printStackTrace();
+                    Thread.sleep(EMPTY_POLL_BACKOFF_MS);
+                } catch (InterruptedException e) {
+                    return;
                 }
             }
         });
@@ -87,63 +209,291 @@ class PollConsumer<K, V> implements ClientUpdateable {
         pollingThread.start();
     }
 
-    // Handles the main polling logic
+    // Handles the main polling logic. Fetches the next batch and hands it
+    // to the processing thread (or processes it right away if prefetching
+    // is disabled). Returns true if any record was received
     boolean pollLogic() {
-        // send request with the latest offset
+        // commits and offset fetches go on this thread too, so
+        // responses on the connection never get mixed up
+        if (!fetchCommittedOffsets()) return false;
+        if (props.isAutoCommit() && System.currentTimeMillis() - lastCommit >= props.getAutoCommitInterval())
+            commitOffsets();
+
+        // send request with the latest offset of every topic
+        Map<String, Integer> requestEpochs = new HashMap<>();
         try {
-            Kafka.Record proto = Kafka.Record.newBuilder()
+            Kafka.Record.Builder proto = Kafka.Record.newBuilder()
                     .setNodeId(props.getId())
                     .setPort(props.getLocalPort())
                     .setRole(Kafka.Record.Role.CONSUMER)
-                    .setType(RequestType.CONSUMER_POLL.name())
-                    .setRole(Kafka.Record.Role.CONSUMER)
-                    .setTopic(topic)
-                    .setOffset(offset)
-                    .build();
+                    .setType(RequestType.CONSUMER_FETCH.name());
+            if (props.getGroupId() != null)
+                proto.setGroupId(props.getGroupId());
+
+            synchronized (offsets) {
+                if (offsets.isEmpty()) return false;
+                for (Map.Entry<String, Integer> offset : offsets.entrySet()) {
+                    proto.addRecords(Kafka.Record.newBuilder()
+                            .setTopic(offset.getKey())
+                            .setOffset(offset.getValue())
+                            .build());
+                    requestEpochs.put(offset.getKey(), getEpoch(offset.getKey()));
+                }
+            }
 
-            byte[] protoBytes = proto.toByteArray();
+            byte[] protoBytes = proto.build().toByteArray();
             conn.send(protoBytes);
         } catch (IOException e) {
             conn.close();
             return false;
         }
 
-        ConsumerRecord<K, V> record;
+        Kafka.Record response = receive();
+        if (response == null) return false;
+
+        // move fetch offsets forward straight from the raw batch, so the
+        // next request does not wait for this one to be processed. The batch
+        // offset is the last one the broker scanned, which may be past the
+        // last record sent if records of other group members were skipped.
+        // Group members may get records behind their offset (partitions that
+        // moved to them), so any record counts as received
+        boolean received = false;
+        for (Kafka.Record batch : response.getRecordsList()) {
+            int count = batch.getRecordsCount();
+            int last = count == 0 ? batch.getOffset() : Math.max(batch.getOffset(), batch.getRecords(count - 1).getOffset());
+            if (setOffset(batch.getTopic(), last, requestEpochs.get(batch.getTopic())) || count > 0)
+                received = true;
+        }
+        if (!received) return false;
+
+        if (prefetched == null) {
+            deliver(response, requestEpochs);
+            return true;
+        }
+
+        try {
+            prefetched.put(new Fetch(response, requestEpochs)); // waits if prefetch buffer is full
+        } catch (InterruptedException e) {
+            return false;
+        }
+        return true;
+    }
+
+    // Fetches the committed offsets of newly added topics. Topics never
+    // committed start from the configured offset. Returns false if the
+    // broker could not be reached
+    private boolean fetchCommittedOffsets() {
+        Kafka.Record.Builder request = Kafka.Record.newBuilder()
+                .setType(RequestType.OFFSET_FETCH.name())
+                .setRole(Kafka.Record.Role.CONSUMER)
+                .setNodeId(props.getId());
+        synchronized (offsets) {
+            if (unresolved.isEmpty()) return true;
+            for (String topic : unresolved)
+                request.addRecords(Kafka.Record.newBuilder().setTopic(topic).build());
+        }
+
+        try {
+            conn.send(request.build().toByteArray());
+        } catch (IOException e) {
+            conn.close();
+            return false;
+        }
+
+        Kafka.Record response = receive();
+        if (response == null) return false;
+
+        synchronized (offsets) {
+            Map<String, Map<Integer, Integer>> resumed = new HashMap<>(lastCommitted);
+            for (Kafka.Record committed : response.getRecordsList()) {
+                String topic = committed.getTopic();
+                if (!unresolved.contains(topic)) continue;
+                Log.info("[CONSUMER] Resuming {} from committed offset {}", topic, committed.getOffset());
+                offsets.put(topic, committed.getOffset());
+                delivered.put(topic, committed.getOffset());
+                positions.put(topic, committed.getOffset());
+                resumed.put(topic, Map.of(0, committed.getOffset()));
+            }
+            lastCommitted = resumed;
+            for (Kafka.Record requested : request.getRecordsList())
+                unresolved.remove(requested.getTopic());
+        }
+        return true;
+    }
+
+    // Commits the positions polled by the application, if any moved
+    // since the last commit
+    private void commitOffsets() {
+        lastCommit = System.currentTimeMillis();
+        Map<String, Map<Integer, Integer>> current = committable();
+        if (current.isEmpty() || current.equals(lastCommitted)) return;
+
+        try {
+            conn.send(commitRequest(current));
+        } catch (IOException e) {
+            conn.close();
+            return;
+        }
+
+        // wait for the broker to ack the commit
+        if (receive() != null) lastCommitted = current;
+    }
+
+    // Commits the positions polled so far, before leaving. The polling thread
+    // may still be waiting on the connection, so it uses one of its own
+    private void commitOnClose() {
+        Map<String, Map<Integer, Integer>> current = committable();
+        if (current.isEmpty() || current.equals(lastCommitted)) return;
+
+        String hostname = conn.hasConnected ? conn.getHostname() : props.getHostname();
+        int port = conn.hasConnected ? conn.getRemotePort() : props.getPort();
+        Connection commit = new Connection(hostname, port);
+        if (!commit.hasConnected) {
+            Log.error("[CONSUMER] Could not commit offsets on close, broker unreachable");
+            return;
+        }
+
+        try {
+            commit.send(commitRequest(current));
+            if (commit.receive(CLOSE_COMMIT_TIMEOUT_MS) == null)
+                Log.error("[CONSUMER] Offsets committed on close were not acked");
+        } catch (IOException e) {
+            Log.error("[CONSUMER] Could not commit offsets on close", e);
+        } finally {
+            commit.close();
+        }
+    }
+
+    // Positions to commit, as topic -> partition -> offset. Consumers
+    // in no group commit each topic as a whole, as partition 0
+    private Map<String, Map<Integer, Integer>> committable() {
+        Map<String, Map<Integer, Integer>> current = new HashMap<>();
+        synchronized (offsets) {
+            if (props.getGroupId() != null) {
+                for (Map.Entry<String, Map<Integer, Integer>> topic : partitionPositions.entrySet())
+                    current.put(topic.getKey(), new HashMap<>(topic.getValue()));
+            } else {
+                for (Map.Entry<String, Integer> position : positions.entrySet())
+                    current.put(position.getKey(), Map.of(0, position.getValue()));
+            }
+        }
+        return current;
+    }
+
+    // Encodes a commit of the given positions. Members of a group commit
+    // them for the group
+    private byte[] commitRequest(Map<String, Map<Integer, Integer>> current) {
+        Kafka.Record.Builder request = Kafka.Record.newBuilder()
+                .setType(RequestType.OFFSET_COMMIT.name())
+                .setRole(Kafka.Record.Role.CONSUMER)
+                .setNodeId(props.getId());
+        if (props.getGroupId() != null)
+            request.setGroupId(props.getGroupId());
+
+        for (Map.Entry<String, Map<Integer, Integer>> topic : current.entrySet()) {
+            for (Map.Entry<Integer, Integer> position : topic.getValue().entrySet()) {
+                request.addRecords(Kafka.Record.newBuilder()
+                        .setTopic(topic.getKey())
+                        .setPartition(position.getKey())
+                        .setOffset(position.getValue())
+                        .build());
+            }
+        }
+        return request.build().toByteArray();
+    }
+
+    // Deserializes a fetched batch and queues its records for the
+    // application. Records already delivered, or fetched before a
+    // seek of their topic, are skipped
+    private void deliver(Kafka.Record response, Map<String, Integer> requestEpochs) {
+        for (Kafka.Record batch : response.getRecordsList()) {
+            String topic = batch.getTopic();
+            Integer epoch = requestEpochs.get(topic);
+            for (Kafka.Record proto : batch.getRecordsList()) {
+                ConsumerRecord<K, V> record = Receiver.from(proto, keyDeserializer, valueDeserializer);
+                try {
+                    if (!store(topic, epoch, record)) break; // topic was repositioned
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    // Queues a record for the application unless its topic was seeked
+    // since it was fetched. The check and the insert happen under the same
+    // lock as seek, so no stale record makes it into the storage. Returns
+    // false if the rest of the batch has to be discarded. Group members
+    // don't skip records behind the last one delivered: the broker sends
+    // each record to the group once, and those come from moved partitions
+    private boolean store(String topic, Integer epoch, ConsumerRecord<K, V> record) throws InterruptedException {
         while (true) {
-            record = receive();
-            if (record == null) return false;
-            if (record.getTopic().equals(Constants.SEGMENT_HANDLER_EMPTY)) return false;
-            if (record.getTopic().equals(Constants.EOT)) return true;
-
-            System.out.println("[CONSUMER] Received offset " + offset);
-
-            synchronized (storage) {
-                int newOffset = record.getOffset(); // update offset!
-                if (newOffset > offset) {
-                    storage.add(record);
-                    offset = newOffset;
+            synchronized (offsets) {
+                if (epoch == null || epoch != getEpoch(topic)) return false;
+                if (props.getGroupId() == null && record.getOffset() <= delivered.getOrDefault(topic, props.getConsumerOffset()))
+                    return true;
+                if (storage.offer(record)) {
+                    delivered.put(topic, record.getOffset());
+                    offsets.notifyAll(); // wakes up take
+                    Log.debug("[CONSUMER] Received {} offset {}", topic, record.getOffset());
+                    return true;
                 }
             }
+            // application is not keeping up
+            Thread.sleep(STORAGE_FULL_BACKOFF_MS);
+        }
+    }
+
+    // current epoch of a topic. Lock on offsets must be held
+    private int getEpoch(String topic) {
+        return epochs.getOrDefault(topic, 0);
+    }
+
+    // moves forward the fetch offset of a topic, unless it was seeked
+    // since the request was sent. Returns true if it moved
+    private boolean setOffset(String topic, int offset, Integer epoch) {
+        synchronized (offsets) {
+            if (epoch == null || epoch != getEpoch(topic)) return false;
+            Integer current = offsets.get(topic);
+            if (current != null && offset <= current) return false;
+            offsets.put(topic, offset);
+            return true;
         }
     }
 
     /**
-     * Helper receive method for incoming data
+     * Helper receive method for the fetch response
      *
      * @return
      */
-    private ConsumerRecord<K, V> receive() {
-        ConsumerRecord<K, V> record = Receiver.receive(conn, keyDeserializer, valueDeserializer);
-        return record;
+    private Kafka.Record receive() {
+        byte[] data = conn.receive();
+        if (data == null) return null;
+        return Receiver.parse(data);
     }
 
     /**
-     * Close poll consumer
+     * Close poll consumer. With auto commit on, positions polled
+     * since the last commit are committed first.
      *
      * @return
      */
     void close() {
+        if (pollingThread != null) pollingThread.interrupt();
+        if (processingThread != null) processingThread.interrupt();
+        if (props.isAutoCommit()) commitOnClose();
         conn.close();
-        timeout.shutdownNow();
+    }
+
+    // A fetched response and the epoch of each topic when it was requested
+    private static class Fetch {
+        final Kafka.Record response;
+        final Map<String, Integer> epochs;
+
+        Fetch(Kafka.Record response, Map<String, Integer> epochs) {
+            this.response = response;
+            this.epochs = epochs;
+        }
     }
 }
@@ -2,9 +2,12 @@ package consumer;
 
 import common.Connection;
 import common.Properties;
+import common.RequestType;
 import common.Serializer;
 import models.ConsumerRecord;
+import protos.Kafka;
 
+import java.io.IOException;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -14,24 +17,36 @@ import java.util.concurrent.Executors;
  * @project dsd-pub-sub
  * <p>
  * Push Consumer logic. It listens for any new records broker may have, and stores
- * them into the Consumer storage. Push Consumer will deserialize the records upon
- * receiving them.
+ * them into the Consumer storage. Key/value of the records are deserialized lazily,
+ * when the application reads them.
+ * <p>
+ * Flow control is credit based. On subscription the broker is granted a number of
+ * records (credits) it may push. As records make it into the (bounded) storage,
+ * more credits are granted. If the application does not keep up, the storage fills
+ * up, no more credits are granted and the broker stops pushing.
  */
 class PushConsumer<K, V> {
     private boolean running = true;
     private final Connection conn;
-    private final Serializer keyDeserializer;
-    private final Serializer valueDeserializer;
+    private final String topic;
+    private final int credits; // credits granted at a time, 0 disables flow control
+    private int consumed = 0; // records stored since last grant
+    private final Serializer<K> keyDeserializer;
+    private final Serializer<V> valueDeserializer;
     private final BlockingQueue<ConsumerRecord<K, V>> storage;
     private final ExecutorService receivingThread = Executors.newSingleThreadExecutor();
 
+    @SuppressWarnings("unchecked") // serializers are configured for K and V
     PushConsumer(
             Connection conn,
+            String topic,
             Properties props,
             BlockingQueue<ConsumerRecord<K, V>> storage) {
         this.storage = storage;
-        this.keyDeserializer = props.getKeyDeserializer();
-        this.valueDeserializer = props.getValueDeserializer();
+        this.topic = topic;
+        this.credits = props.getCredits();
+        this.keyDeserializer = (Serializer<K>) props.getKeyDeserializer();
+        this.valueDeserializer = (Serializer<V>) props.getValueDeserializer();
         this.conn = conn;
 
         // Start listening for records.
@@ -45,11 +60,48 @@ class PushConsumer<K, V> {
         receivingThread.execute(() -> {
             while (running) {
                 ConsumerRecord<K, V> record = Receiver.receive(conn, keyDeserializer, valueDeserializer);
-                if (record != null) storage.add(record);
+                if (record == null) {
+                    if (conn.isClosed()) return;
+                    continue;
+                }
+
+                try {
+                    storage.put(record); // waits if application is not keeping up
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                // replenish credits once half of them have been used.
+                // No credits means no flow control, nothing to replenish
+                if (credits > 0 && ++consumed >= Math.max(1, credits / 2)) {
+                    grantCredits(consumed);
+                    consumed = 0;
+                }
             }
         });
     }
 
+    /**
+     * Grants the broker n more records to push. Credits are
+     * carried in the offset field.
+     *
+     * @param n
+     */
+    private void grantCredits(int n) {
+        Kafka.Record credit = Kafka.Record.newBuilder()
+                .setType(RequestType.CONSUMER_CREDIT.name())
+                .setRole(Kafka.Record.Role.CONSUMER)
+                .setTopic(topic)
+                .setOffset(n)
+                .build();
+
+        try {
+            conn.send(credit.toByteArray());
+        } catch (IOException e) {
+            // connection lost. Receiving thread will notice
+        }
+    }
+
     /**
      * Closes the Push Consumer.
      *
@@ -1,38 +1,64 @@
 package consumer;
 
-import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.CodedInputStream;
 import common.Connection;
+import common.Log;
 import common.Serializer;
 import models.ConsumerRecord;
+import models.LazyConsumerRecord;
 import protos.Kafka;
 
+import java.io.IOException;
+
 /**
  * @author Alberto Delgado on 3/16/22
  * @project dsd-pub-sub
  * <p>
  * Helper class to receive (blocking) data from connection. It creates a ConsumerRecord
- * from the received data by deserializing it.
+ * from the received data.
+ * <p>
+ * Records are parsed without copying: key and value stay as views over the received
+ * bytes and are deserialized lazily, the first time they are read (see
+ * LazyConsumerRecord).
  */
 public class Receiver {
-    public static <K, V> ConsumerRecord<K, V> receive(Connection conn, Serializer keySerde, Serializer valueSerde) {
+    public static <K, V> ConsumerRecord<K, V> receive(Connection conn, Serializer<K> keySerde, Serializer<V> valueSerde) {
         byte[] data = conn.receive();
         if (data == null) return null;
 
-        // Get data from broker response proto and deserialize key/value
-        Kafka.Record proto;
+        // Get data from broker response proto
+        Kafka.Record proto = parse(data);
+        if (proto == null) return null;
+
+        return from(proto, keySerde, valueSerde);
+    }
+
+    // Parses a broker response. Bytes fields alias the given array
+    // instead of being copied, so it must not be modified afterwards
+    public static Kafka.Record parse(byte[] data) {
+        CodedInputStream input = CodedInputStream.newInstance(data);
+        input.enableAliasing(true);
         try {
-            proto = Kafka.Record.parseFrom(data);
-        } catch (InvalidProtocolBufferException e) {
-            e.printStackTrace();
+            return Kafka.Record.parseFrom(input);
+        } catch (IOException e) {
+            Log.error("[CONSUMER] Could not parse record", e);
             return null;
         }
+    }
 
-        String topic = proto.getTopic();
-        K key = (K) keySerde.deserialize(proto.getKey().toByteArray());
-        V value = (V) valueSerde.deserialize(proto.getValue().toByteArray());
-        Long timestamp = proto.getTimestamp();
-        int offset = proto.getOffset();
-
-        return new ConsumerRecord<>(topic, key, value, timestamp, offset);
+    // Creates a ConsumerRecord from a broker record. Key/value are
+    // deserialized on first access. The partition is only set by the
+    // broker on records fetched by members of a group
+    public static <K, V> ConsumerRecord<K, V> from(Kafka.Record proto, Serializer<K> keySerde, Serializer<V> valueSerde) {
+        return new LazyConsumerRecord<>(
+                proto.getTopic(),
+                proto.getKey(),
+                proto.getValue(),
+                keySerde,
+                valueSerde,
+                proto.getTimestamp(),
+                proto.getOffset(),
+                proto.getPartition()
+        );
     }
 }
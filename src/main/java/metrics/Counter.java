@@ -0,0 +1,39 @@
+package metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author Alberto Delgado on 5/5/22
+ * @project dsd-pub-sub
+ * <p>
+ * Monotonic counter. Backed by a LongAdder so threads incrementing
+ * it at the same time don't contend on a single value.
+ */
+public class Counter extends Metric {
+    private final LongAdder value = new LongAdder();
+
+    // adds one
+    public void inc() {
+        value.increment();
+    }
+
+    // adds n
+    public void add(long n) {
+        value.add(n);
+    }
+
+    // current value
+    public long get() {
+        return value.sum();
+    }
+
+    @Override
+    String type() {
+        return "counter";
+    }
+
+    @Override
+    void write(StringBuilder out, String name, String labels) {
+        out.append(name).append(labels).append(' ').append(get()).append('\n');
+    }
+}
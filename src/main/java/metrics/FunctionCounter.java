@@ -0,0 +1,34 @@
+package metrics;
+
+import java.util.function.LongSupplier;
+
+/**
+ * @author Alberto Delgado on 5/5/22
+ * @project dsd-pub-sub
+ * <p>
+ * Monotonic counter kept by someone else (hits of a cache...), read
+ * when scraped. Like a Gauge, but reported as a counter so rate()
+ * works on it.
+ */
+public class FunctionCounter extends Metric {
+    private final LongSupplier value;
+
+    FunctionCounter(LongSupplier value) {
+        this.value = value;
+    }
+
+    // current value
+    public long get() {
+        return value.getAsLong();
+    }
+
+    @Override
+    String type() {
+        return "counter";
+    }
+
+    @Override
+    void write(StringBuilder out, String name, String labels) {
+        out.append(name).append(labels).append(' ').append(get()).append('\n');
+    }
+}
@@ -0,0 +1,33 @@
+package metrics;
+
+import java.util.function.LongSupplier;
+
+/**
+ * @author Alberto Delgado on 5/5/22
+ * @project dsd-pub-sub
+ * <p>
+ * Value read when scraped (queue depths, sizes...), so keeping
+ * it up to date costs nothing.
+ */
+public class Gauge extends Metric {
+    private final LongSupplier value;
+
+    Gauge(LongSupplier value) {
+        this.value = value;
+    }
+
+    // current value
+    public long get() {
+        return value.getAsLong();
+    }
+
+    @Override
+    String type() {
+        return "gauge";
+    }
+
+    @Override
+    void write(StringBuilder out, String name, String labels) {
+        out.append(name).append(labels).append(' ').append(get()).append('\n');
+    }
+}
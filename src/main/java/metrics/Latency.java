@@ -0,0 +1,64 @@
+package metrics;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author Alberto Delgado on 5/5/22
+ * @project dsd-pub-sub
+ * <p>
+ * Latency histogram, in microseconds. Recording is wait-free (HdrHistogram
+ * Recorder). Reported as a summary, in seconds: sum and count since start,
+ * and p50, p99, p999 over the last WINDOW scrapes only, so a recent spike
+ * shows up no matter how long the broker has been running.
+ */
+public class Latency extends Metric {
+    private static final long HIGHEST_US = TimeUnit.HOURS.toMicros(1);
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+    static final int WINDOW = 5; // scrapes covered by the quantiles
+    private final Recorder recorder = new Recorder(HIGHEST_US, 3);
+    private final Histogram[] intervals = new Histogram[WINDOW]; // values recorded between scrapes, oldest recycled
+    private final Histogram window = new Histogram(HIGHEST_US, 3); // sum of the intervals
+    private final LongAdder sumNanos = new LongAdder();
+    private int next = 0; // interval replaced on next scrape
+    private long count = 0;
+
+    // records a latency
+    public void record(long nanos) {
+        if (nanos < 0) return;
+        sumNanos.add(nanos);
+        recorder.recordValue(Math.min(HIGHEST_US, TimeUnit.NANOSECONDS.toMicros(nanos)));
+    }
+
+    // records the time since start (System.nanoTime)
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    @Override
+    String type() {
+        return "summary";
+    }
+
+    @Override
+    synchronized void write(StringBuilder out, String name, String labels) {
+        intervals[next] = recorder.getIntervalHistogram(intervals[next]);
+        count += intervals[next].getTotalCount();
+        next = (next + 1) % WINDOW;
+        window.reset();
+        for (Histogram interval : intervals) {
+            if (interval != null) window.add(interval);
+        }
+
+        String prefix = labels.isEmpty() ? "{" : labels.substring(0, labels.length() - 1) + ",";
+        for (double quantile : QUANTILES) {
+            out.append(name).append(prefix).append("quantile=\"").append(quantile).append("\"} ")
+                    .append(window.getValueAtPercentile(quantile * 100) / 1e6).append('\n');
+        }
+        out.append(name).append("_sum").append(labels).append(' ').append(sumNanos.sum() / 1e9).append('\n');
+        out.append(name).append("_count").append(labels).append(' ').append(count).append('\n');
+    }
+}
@@ -0,0 +1,18 @@
+package metrics;
+
+/**
+ * @author Alberto Delgado on 5/5/22
+ * @project dsd-pub-sub
+ * <p>
+ * A metric of the registry. Knows how to write its samples in the
+ * Prometheus text format.
+ */
+public abstract class Metric {
+
+    // Prometheus type of the metric
+    abstract String type();
+
+    // Writes the samples of the metric. Labels are already
+    // formatted ({name="value",...}) or empty
+    abstract void write(StringBuilder out, String name, String labels);
+}
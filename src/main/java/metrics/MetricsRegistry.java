@@ -0,0 +1,134 @@
+package metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * @author Alberto Delgado on 5/5/22
+ * @project dsd-pub-sub
+ * <p>
+ * Metrics of a broker: counters, gauges and latencies, by name and
+ * labels. Asking for a metric that already exists returns it, so callers
+ * on hot paths should keep the reference instead of looking it up again.
+ * <p>
+ * Scraped (MetricsServer) in the Prometheus text format.
+ */
+public class MetricsRegistry {
+    private final Map<String, Family> families = new ConcurrentSkipListMap<>(); // by name
+
+    /**
+     * Counter with the given name and labels (name, value, name, value...)
+     *
+     * @param name
+     * @param help
+     * @param labels
+     * @return
+     */
+    public Counter counter(String name, String help, String... labels) {
+        return register(name, help, labels, Counter::new);
+    }
+
+    /**
+     * Counter reading its value from the supplier on scrape, for counts
+     * kept elsewhere. Replaces the counter if it already exists.
+     *
+     * @param name
+     * @param help
+     * @param value
+     * @param labels
+     */
+    public void counter(String name, String help, LongSupplier value, String... labels) {
+        family(name, help).metrics.put(format(labels), new FunctionCounter(value));
+    }
+
+    /**
+     * Latency histogram with the given name and labels
+     *
+     * @param name
+     * @param help
+     * @param labels
+     * @return
+     */
+    public Latency latency(String name, String help, String... labels) {
+        return register(name, help, labels, Latency::new);
+    }
+
+    /**
+     * Gauge reading its value from the supplier on scrape.
+     * Replaces the gauge if it already exists.
+     *
+     * @param name
+     * @param help
+     * @param value
+     * @param labels
+     */
+    public void gauge(String name, String help, LongSupplier value, String... labels) {
+        family(name, help).metrics.put(format(labels), new Gauge(value));
+    }
+
+    /**
+     * Removes a metric (e.g. of a replica that is gone)
+     *
+     * @param name
+     * @param labels
+     */
+    public void remove(String name, String... labels) {
+        Family family = families.get(name);
+        if (family != null) family.metrics.remove(format(labels));
+    }
+
+    /**
+     * Every metric in the Prometheus text format
+     *
+     * @return
+     */
+    public String scrape() {
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<String, Family> family : families.entrySet()) {
+            String name = family.getKey();
+            Map<String, Metric> metrics = family.getValue().metrics;
+            if (metrics.isEmpty()) continue;
+
+            out.append("# HELP ").append(name).append(' ').append(family.getValue().help).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(metrics.values().iterator().next().type()).append('\n');
+            for (Map.Entry<String, Metric> metric : metrics.entrySet())
+                metric.getValue().write(out, name, metric.getKey());
+        }
+        return out.toString();
+    }
+
+    // Returns the metric, creating it if needed
+    @SuppressWarnings("unchecked")
+    private <T extends Metric> T register(String name, String help, String[] labels, Supplier<T> create) {
+        return (T) family(name, help).metrics.computeIfAbsent(format(labels), l -> create.get());
+    }
+
+    private Family family(String name, String help) {
+        return families.computeIfAbsent(name, n -> new Family(help));
+    }
+
+    // {name="value",...} or empty if no labels
+    private static String format(String[] labels) {
+        if (labels.length == 0) return "";
+        StringBuilder formatted = new StringBuilder("{");
+        for (int i = 0; i + 1 < labels.length; i += 2) {
+            if (i > 0) formatted.append(',');
+            formatted.append(labels[i]).append("=\"")
+                    .append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\""))
+                    .append('"');
+        }
+        return formatted.append('}').toString();
+    }
+
+    // metrics with the same name
+    private static class Family {
+        final String help;
+        final Map<String, Metric> metrics = new ConcurrentSkipListMap<>(); // by labels
+
+        Family(String help) {
+            this.help = help;
+        }
+    }
+}
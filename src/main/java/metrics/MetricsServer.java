@@ -0,0 +1,54 @@
+package metrics;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+
+/**
+ * @author Alberto Delgado on 5/5/22
+ * @project dsd-pub-sub
+ * <p>
+ * Serves the metrics of a registry at http://host:port/metrics, in the
+ * Prometheus text format. Runs on a single thread of its own.
+ */
+public class MetricsServer {
+    private static final String PATH = "/metrics";
+    private final HttpServer server;
+
+    public MetricsServer(MetricsRegistry registry, int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext(PATH, exchange -> {
+            byte[] body = registry.scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.setExecutor(Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-server");
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    // starts serving
+    public MetricsServer start() {
+        server.start();
+        return this;
+    }
+
+    // port it is listening on
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    // stops serving
+    public void close() {
+        server.stop(0);
+    }
+}
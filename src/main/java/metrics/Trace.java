@@ -0,0 +1,79 @@
+package metrics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Alberto Delgado on 5/7/22
+ * @project dsd-pub-sub
+ * <p>
+ * Timings of one request. Each mark charges the time since the previous
+ * one (or the start) to a stage; stages never marked are not recorded.
+ * Ending the trace records it to the histograms of its tracer.
+ *
+ * @param <S> stages of the request
+ */
+public class Trace<S extends Enum<S>> {
+    private final Tracer<S> tracer;
+    private final long[] durations;
+    private final boolean[] marked;
+    private long start;
+    private long last;
+
+    Trace(Tracer<S> tracer) {
+        this.tracer = tracer;
+        this.durations = new long[tracer.stages.length];
+        this.marked = new boolean[tracer.stages.length];
+    }
+
+    // resets the trace, starting now
+    Trace<S> start() {
+        for (int i = 0; i < durations.length; i++) {
+            durations[i] = 0;
+            marked[i] = false;
+        }
+        start = System.nanoTime();
+        last = start;
+        return this;
+    }
+
+    /**
+     * Charges the time since the previous mark to the stage
+     *
+     * @param stage
+     */
+    public void mark(S stage) {
+        long now = System.nanoTime();
+        durations[stage.ordinal()] += now - last;
+        marked[stage.ordinal()] = true;
+        last = now;
+    }
+
+    /**
+     * Records the stages and the total. Slow requests are counted
+     * and sampled to the log.
+     */
+    public void end() {
+        long total = System.nanoTime() - start;
+        for (int i = 0; i < durations.length; i++) {
+            if (marked[i]) tracer.stageLatency(i).record(durations[i]);
+        }
+        tracer.total.record(total);
+
+        if (total >= tracer.slowNanos) {
+            tracer.slow.inc();
+            tracer.sample(this, total);
+        }
+    }
+
+    // stage=us ... of the stages marked
+    String breakdown() {
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < durations.length; i++) {
+            if (!marked[i]) continue;
+            if (out.length() > 0) out.append(' ');
+            out.append(tracer.stages[i].name().toLowerCase()).append('=')
+                    .append(TimeUnit.NANOSECONDS.toMicros(durations[i])).append("us");
+        }
+        return out.toString();
+    }
+}
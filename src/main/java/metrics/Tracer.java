@@ -0,0 +1,85 @@
+package metrics;
+
+import common.Log;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author Alberto Delgado on 5/7/22
+ * @project dsd-pub-sub
+ * <p>
+ * Traces one kind of request (publish, fetch...) through its stages. Each
+ * trace times the stages it goes through; when it ends every stage is
+ * recorded to its own latency histogram, along with the total, so the
+ * histograms show where the time of slow requests goes.
+ * <p>
+ * Requests slower than the threshold are counted, and a sample of them
+ * (at most one per interval) is logged with its breakdown.
+ *
+ * @param <S> stages of the request
+ */
+public class Tracer<S extends Enum<S>> {
+    final String request;
+    final S[] stages;
+    private final MetricsRegistry metrics;
+    private final Latency[] stageLatencies; // created as stages are first recorded
+    final Latency total;
+    final Counter slow;
+    final long slowNanos;
+    private final long sampleIntervalNanos;
+    private final AtomicLong nextSample = new AtomicLong(System.nanoTime()); // next slow trace logged
+    private final ThreadLocal<Trace<S>> traces; // one per thread, reused
+
+    public Tracer(MetricsRegistry metrics, String request, Class<S> stages, long slowMs, long sampleIntervalMs) {
+        this.request = request;
+        this.stages = stages.getEnumConstants();
+        this.metrics = metrics;
+        this.stageLatencies = new Latency[this.stages.length];
+        this.total = metrics.latency("broker_request_seconds", "Time to handle a request", "request", request);
+        this.slow = metrics.counter("broker_slow_requests_total", "Requests over the slow threshold", "request", request);
+        this.slowNanos = TimeUnit.MILLISECONDS.toNanos(slowMs);
+        this.sampleIntervalNanos = TimeUnit.MILLISECONDS.toNanos(sampleIntervalMs);
+        this.traces = ThreadLocal.withInitial(() -> new Trace<>(this));
+    }
+
+    /**
+     * Starts tracing a request handled by the current thread. The trace is
+     * reused by the next request of the thread, so it must be ended first.
+     *
+     * @return
+     */
+    public Trace<S> start() {
+        return traces.get().start();
+    }
+
+    // Latency of a stage. Racing threads get the same one from the registry
+    Latency stageLatency(int stage) {
+        Latency latency = stageLatencies[stage];
+        if (latency == null) {
+            latency = metrics.latency("broker_request_stage_seconds", "Time spent on each stage of a request",
+                    "request", request, "stage", stages[stage].name().toLowerCase());
+            stageLatencies[stage] = latency;
+        }
+        return latency;
+    }
+
+    /**
+     * Starts tracing a request that is handed over to another thread
+     *
+     * @return
+     */
+    public Trace<S> startDetached() {
+        return new Trace<>(this).start();
+    }
+
+    // Logs a slow trace, unless one was logged less than an interval ago
+    void sample(Trace<S> trace, long totalNanos) {
+        long now = System.nanoTime();
+        long next = nextSample.get();
+        if (now - next < 0) return;
+        if (!nextSample.compareAndSet(next, now + sampleIntervalNanos)) return;
+
+        Log.warn("[TRACE] Slow {} ({}) took {} us", request, trace.breakdown(), TimeUnit.NANOSECONDS.toMicros(totalNanos));
+    }
+}
@@ -11,12 +11,16 @@ public class BrokerConfig {
     public final String hostname;
     public final int brokerPort;
     public final int zkPort;
+    public final int pushWorkers; // push dispatch threads. 0 -> default
+    public final int metricsPort; // metrics http endpoint. 0 -> not served
 
-    BrokerConfig(int id, String hostname, int brokerPort, int zkPort) {
+    BrokerConfig(int id, String hostname, int brokerPort, int zkPort, int pushWorkers, int metricsPort) {
         this.id = id;
         this.brokerPort = brokerPort;
         this.zkPort = zkPort;
         this.hostname = hostname;
+        this.pushWorkers = pushWorkers;
+        this.metricsPort = metricsPort;
     }
 
     /**
@@ -30,7 +34,9 @@ public class BrokerConfig {
                 "   id=" + id + "\n" +
                 "   broker.port=" + brokerPort + "\n" +
                 "   zooKeeper.port=" + zkPort + "\n" +
-                "   hostname=" + hostname + "\n";
+                "   hostname=" + hostname + "\n" +
+                "   push.workers=" + pushWorkers + "\n" +
+                "   metrics.port=" + metricsPort + "\n";
         config += "  }" + "\n";
         return config;
     }
@@ -20,6 +20,7 @@ public class ConsumerConfig {
     public final String pollMethodConsumer;
     public final int timeout;
     public final int offset;
+    public final String groupId;
 
     ConsumerConfig(
             int id,
@@ -31,7 +32,8 @@ public class ConsumerConfig {
             String valueDeserializer,
             String pollMethodConsumer,
             int timeout,
-            int offset
+            int offset,
+            String groupId
     ) {
         this.id = id;
         this.port = port;
@@ -43,6 +45,7 @@ public class ConsumerConfig {
         this.pollMethodConsumer = pollMethodConsumer;
         this.timeout = timeout;
         this.offset = offset;
+        this.groupId = groupId;
     }
 
     /**
@@ -61,6 +64,7 @@ public class ConsumerConfig {
                 "   poll.method.consumer='" + pollMethodConsumer + '\'' + "\n" +
                 "   consumer.timeout=" + timeout + "\n" +
                 "   offset.timeout=" + offset + "\n" +
+                "   group.id=" + groupId + "\n" +
                 "  }" + "\n";
     }
 }
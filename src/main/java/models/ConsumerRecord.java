@@ -8,6 +8,7 @@ package models;
  */
 public class ConsumerRecord<K, V> extends Record<K, V> {
     int offset;
+    int partition; // virtual partition within a consumer group, 0 outside groups
 
     /**
      * Creates a consumer record from a producer record
@@ -30,8 +31,23 @@ public class ConsumerRecord<K, V> extends Record<K, V> {
      * @param offset
      */
     public ConsumerRecord(String topic, K key, V value, Long timestamp, int offset) {
+        this(topic, key, value, timestamp, offset, 0);
+    }
+
+    /**
+     * Creates a consumer record of a (virtual) partition
+     *
+     * @param topic
+     * @param key
+     * @param value
+     * @param timestamp
+     * @param offset
+     * @param partition
+     */
+    public ConsumerRecord(String topic, K key, V value, Long timestamp, int offset, int partition) {
         super(topic, key, value, timestamp);
         this.offset = offset;
+        this.partition = partition;
     }
 
     /**
@@ -43,6 +59,16 @@ public class ConsumerRecord<K, V> extends Record<K, V> {
         return offset;
     }
 
+    /**
+     * Partition getter. Only set for records
+     * fetched by members of a consumer group
+     *
+     * @return
+     */
+    public int getPartition() {
+        return partition;
+    }
+
     /**
      * toString override for better readability
      *
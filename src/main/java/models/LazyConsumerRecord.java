@@ -0,0 +1,90 @@
+package models;
+
+import com.google.protobuf.ByteString;
+import common.Serializer;
+
+/**
+ * @author Alberto Delgado on 4/25/22
+ * @project dsd-pub-sub
+ * <p>
+ * Consumer record that keeps the raw key/value as received and only
+ * deserializes them on first access. Records that are never read (or only
+ * partially read) cost no deserialization, and the work is moved from the
+ * network thread to whoever reads the record.
+ */
+public class LazyConsumerRecord<K, V> extends ConsumerRecord<K, V> {
+    private ByteString rawKey;
+    private ByteString rawValue;
+    private final Serializer<K> keyDeserializer;
+    private final Serializer<V> valueDeserializer;
+
+    /**
+     * Creates a lazy consumer record
+     *
+     * @param topic
+     * @param rawKey
+     * @param rawValue
+     * @param keyDeserializer
+     * @param valueDeserializer
+     * @param timestamp
+     * @param offset
+     * @param partition
+     */
+    public LazyConsumerRecord(String topic,
+                              ByteString rawKey,
+                              ByteString rawValue,
+                              Serializer<K> keyDeserializer,
+                              Serializer<V> valueDeserializer,
+                              Long timestamp,
+                              int offset,
+                              int partition) {
+        super(topic, null, null, timestamp, offset, partition);
+        this.rawKey = rawKey;
+        this.rawValue = rawValue;
+        this.keyDeserializer = keyDeserializer;
+        this.valueDeserializer = valueDeserializer;
+    }
+
+    /**
+     * Key getter. Deserialized on first call
+     *
+     * @return
+     */
+    @Override
+    public synchronized K getKey() {
+        if (rawKey != null) {
+            key = keyDeserializer.deserialize(rawKey.asReadOnlyByteBuffer());
+            rawKey = null; // release raw data
+        }
+        return key;
+    }
+
+    /**
+     * Value getter. Deserialized on first call
+     *
+     * @return
+     */
+    @Override
+    public synchronized V getValue() {
+        if (rawValue != null) {
+            value = valueDeserializer.deserialize(rawValue.asReadOnlyByteBuffer());
+            rawValue = null; // release raw data
+        }
+        return value;
+    }
+
+    /**
+     * toString override for better readability
+     *
+     * @return
+     */
+    @Override
+    public String toString() {
+        return "Record: \n"
+                + "     topic: " + topic + "\n"
+                + "     key: " + getKey() + "\n"
+                + "     value: " + getValue() + "\n"
+                + "     timestamp: " + timestamp + "\n"
+                + "     offset: " + offset;
+    }
+}
@@ -3,6 +3,7 @@ package producer;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.InvalidProtocolBufferException;
 import common.Client;
+import common.Log;
 import common.Properties;
 import common.RequestType;
 import common.Serializer;
@@ -12,7 +13,6 @@ import utils.Demo;
 
 import java.io.IOException;
 import java.util.Arrays;
-import java.util.concurrent.*;
 
 /**
  * @author Alberto Delgado on 2/28/22
@@ -35,8 +35,8 @@ public class Producer<K, V> extends Client {
         keySerializer = (Serializer<K>) props.getKeySerializer();
         valueSerializer = (Serializer<V>) props.getValueSerializer();
 
-        System.out.println("[PRODUCER] Running on port " + props.getLocalPort());
-        System.out.println("[PRODUCER] Connecting to " + props.getHostname() + ":" + props.getPort());
+        Log.info("[PRODUCER] Running on port {}", props.getLocalPort());
+        Log.info("[PRODUCER] Connecting to {}:{}", props.getHostname(), props.getPort());
     }
 
     // Sends data and receives ACK
@@ -57,24 +57,10 @@ public class Producer<K, V> extends Client {
         return Arrays.equals(keySerializer.serialize(data.getKey()), ack.getKey().toByteArray());
     }
 
-    // Receives data
+    // Receives data. Blocks until the ack arrives; null if the connection
+    // is closed (e.g. a new leader replaced it), so the publish is resent
     private byte[] receive() {
-        ExecutorService timeout = Executors.newSingleThreadExecutor();
-        Future<byte[]> future = timeout.submit(conn::receive);
-        long timeoutMs = 400L;
-
-        while (true) {
-            try {
-                return future.get(timeoutMs, TimeUnit.MILLISECONDS);
-            } catch (ExecutionException e) {
-                continue;
-            } catch (InterruptedException e) {
-                continue;
-            } catch (TimeoutException e) {
-                // re-attempt
-                continue;
-            }
-        }
+        return conn.receive();
     }
 
     /**
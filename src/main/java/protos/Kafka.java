@@ -125,6 +125,21 @@ public final class Kafka {
      * <code>int32 recordId = 13;</code>
      */
     int getRecordId();
+
+    /**
+     * <code>string groupId = 14;</code>
+     */
+    java.lang.String getGroupId();
+    /**
+     * <code>string groupId = 14;</code>
+     */
+    com.google.protobuf.ByteString
+        getGroupIdBytes();
+
+    /**
+     * <code>int32 partition = 15;</code>
+     */
+    int getPartition();
   }
   /**
    * Protobuf type {@code Record}
@@ -151,6 +166,8 @@ public final class Kafka {
       role_ = 0;
       port_ = 0;
       recordId_ = 0;
+      groupId_ = "";
+      partition_ = 0;
     }
 
     @java.lang.Override
@@ -252,6 +269,17 @@ public final class Kafka {
               recordId_ = input.readInt32();
               break;
             }
+            case 114: {
+              java.lang.String s = input.readStringRequireUtf8();
+
+              groupId_ = s;
+              break;
+            }
+            case 120: {
+
+              partition_ = input.readInt32();
+              break;
+            }
           }
         }
       } catch (com.google.protobuf.InvalidProtocolBufferException e) {
@@ -636,6 +664,49 @@ public final class Kafka {
       return recordId_;
     }
 
+    public static final int GROUPID_FIELD_NUMBER = 14;
+    private volatile java.lang.Object groupId_;
+    /**
+     * <code>string groupId = 14;</code>
+     */
+    public java.lang.String getGroupId() {
+      java.lang.Object ref = groupId_;
+      if (ref instanceof java.lang.String) {
+        return (java.lang.String) ref;
+      } else {
+        com.google.protobuf.ByteString bs = 
+            (com.google.protobuf.ByteString) ref;
+        java.lang.String s = bs.toStringUtf8();
+        groupId_ = s;
+        return s;
+      }
+    }
+    /**
+     * <code>string groupId = 14;</code>
+     */
+    public com.google.protobuf.ByteString
+        getGroupIdBytes() {
+      java.lang.Object ref = groupId_;
+      if (ref instanceof java.lang.String) {
+        com.google.protobuf.ByteString b = 
+            com.google.protobuf.ByteString.copyFromUtf8(
+                (java.lang.String) ref);
+        groupId_ = b;
+        return b;
+      } else {
+        return (com.google.protobuf.ByteString) ref;
+      }
+    }
+
+    public static final int PARTITION_FIELD_NUMBER = 15;
+    private int partition_;
+    /**
+     * <code>int32 partition = 15;</code>
+     */
+    public int getPartition() {
+      return partition_;
+    }
+
     private byte memoizedIsInitialized = -1;
     public final boolean isInitialized() {
       byte isInitialized = memoizedIsInitialized;
@@ -687,6 +758,12 @@ public final class Kafka {
       if (recordId_ != 0) {
         output.writeInt32(13, recordId_);
       }
+      if (!getGroupIdBytes().isEmpty()) {
+        com.google.protobuf.GeneratedMessageV3.writeString(output, 14, groupId_);
+      }
+      if (partition_ != 0) {
+        output.writeInt32(15, partition_);
+      }
     }
 
     public int getSerializedSize() {
@@ -742,6 +819,13 @@ public final class Kafka {
         size += com.google.protobuf.CodedOutputStream
           .computeInt32Size(13, recordId_);
       }
+      if (!getGroupIdBytes().isEmpty()) {
+        size += com.google.protobuf.GeneratedMessageV3.computeStringSize(14, groupId_);
+      }
+      if (partition_ != 0) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeInt32Size(15, partition_);
+      }
       memoizedSize = size;
       return size;
     }
@@ -783,6 +867,10 @@ public final class Kafka {
           == other.getPort());
       result = result && (getRecordId()
           == other.getRecordId());
+      result = result && getGroupId()
+          .equals(other.getGroupId());
+      result = result && (getPartition()
+          == other.getPartition());
       return result;
     }
 
@@ -822,6 +910,10 @@ public final class Kafka {
       hash = (53 * hash) + getPort();
       hash = (37 * hash) + RECORDID_FIELD_NUMBER;
       hash = (53 * hash) + getRecordId();
+      hash = (37 * hash) + GROUPID_FIELD_NUMBER;
+      hash = (53 * hash) + getGroupId().hashCode();
+      hash = (37 * hash) + PARTITION_FIELD_NUMBER;
+      hash = (53 * hash) + getPartition();
       hash = (29 * hash) + unknownFields.hashCode();
       memoizedHashCode = hash;
       return hash;
@@ -971,6 +1063,10 @@ public final class Kafka {
 
         recordId_ = 0;
 
+        groupId_ = "";
+
+        partition_ = 0;
+
         return this;
       }
 
@@ -1016,6 +1112,8 @@ public final class Kafka {
         result.role_ = role_;
         result.port_ = port_;
         result.recordId_ = recordId_;
+        result.groupId_ = groupId_;
+        result.partition_ = partition_;
         result.bitField0_ = to_bitField0_;
         onBuilt();
         return result;
@@ -1124,6 +1222,13 @@ public final class Kafka {
         if (other.getRecordId() != 0) {
           setRecordId(other.getRecordId());
         }
+        if (!other.getGroupId().isEmpty()) {
+          groupId_ = other.groupId_;
+          onChanged();
+        }
+        if (other.getPartition() != 0) {
+          setPartition(other.getPartition());
+        }
         onChanged();
         return this;
       }
@@ -1898,6 +2003,101 @@ public final class Kafka {
         onChanged();
         return this;
       }
+
+      private java.lang.Object groupId_ = "";
+      /**
+       * <code>string groupId = 14;</code>
+       */
+      public java.lang.String getGroupId() {
+        java.lang.Object ref = groupId_;
+        if (!(ref instanceof java.lang.String)) {
+          com.google.protobuf.ByteString bs =
+              (com.google.protobuf.ByteString) ref;
+          java.lang.String s = bs.toStringUtf8();
+          groupId_ = s;
+          return s;
+        } else {
+          return (java.lang.String) ref;
+        }
+      }
+      /**
+       * <code>string groupId = 14;</code>
+       */
+      public com.google.protobuf.ByteString
+          getGroupIdBytes() {
+        java.lang.Object ref = groupId_;
+        if (ref instanceof String) {
+          com.google.protobuf.ByteString b = 
+              com.google.protobuf.ByteString.copyFromUtf8(
+                  (java.lang.String) ref);
+          groupId_ = b;
+          return b;
+        } else {
+          return (com.google.protobuf.ByteString) ref;
+        }
+      }
+      /**
+       * <code>string groupId = 14;</code>
+       */
+      public Builder setGroupId(
+          java.lang.String value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  
+        groupId_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>string groupId = 14;</code>
+       */
+      public Builder clearGroupId() {
+        
+        groupId_ = getDefaultInstance().getGroupId();
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>string groupId = 14;</code>
+       */
+      public Builder setGroupIdBytes(
+          com.google.protobuf.ByteString value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  checkByteStringIsUtf8(value);
+        
+        groupId_ = value;
+        onChanged();
+        return this;
+      }
+
+      private int partition_ ;
+      /**
+       * <code>int32 partition = 15;</code>
+       */
+      public int getPartition() {
+        return partition_;
+      }
+      /**
+       * <code>int32 partition = 15;</code>
+       */
+      public Builder setPartition(int value) {
+        
+        partition_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>int32 partition = 15;</code>
+       */
+      public Builder clearPartition() {
+        
+        partition_ = 0;
+        onChanged();
+        return this;
+      }
       public final Builder setUnknownFields(
           final com.google.protobuf.UnknownFieldSet unknownFields) {
         return this;
@@ -1961,15 +2161,16 @@ public final class Kafka {
       descriptor;
   static {
     java.lang.String[] descriptorData = {
-      "\n\023protos/record.proto\"\240\002\n\006Record\022\014\n\004type" +
+      "\n\023protos/record.proto\"\304\002\n\006Record\022\014\n\004type" +
       "\030\001 \001(\t\022\r\n\005topic\030\002 \001(\t\022\020\n\010key_type\030\003 \001(\t\022" +
       "\022\n\nvalue_type\030\004 \001(\t\022\013\n\003key\030\005 \001(\014\022\r\n\005valu" +
       "e\030\006 \001(\014\022\021\n\ttimestamp\030\007 \001(\003\022\016\n\006offset\030\010 \001" +
       "(\005\022\030\n\007records\030\t \003(\0132\007.Record\022\016\n\006nodeId\030\n" +
       " \001(\005\022\032\n\004role\030\013 \001(\0162\014.Record.Role\022\014\n\004port" +
-      "\030\014 \001(\005\022\020\n\010recordId\030\r \001(\005\".\n\004Role\022\n\n\006BROK" +
-      "ER\020\000\022\014\n\010PRODUCER\020\001\022\014\n\010CONSUMER\020\002B\017\n\006prot" +
-      "osB\005Kafkab\006proto3"
+      "\030\014 \001(\005\022\020\n\010recordId\030\r \001(\005\022\017\n\007groupId\030\016 \001(" +
+      "\t\022\021\n\tpartition\030\017 \001(\005\".\n\004Role\022\n\n\006BROKER\020\000" +
+      "\022\014\n\010PRODUCER\020\001\022\014\n\010CONSUMER\020\002B\017\n\006protosB\005" +
+      "Kafkab\006proto3"
     };
     com.google.protobuf.Descriptors.FileDescriptor.InternalDescriptorAssigner assigner =
         new com.google.protobuf.Descriptors.FileDescriptor.    InternalDescriptorAssigner() {
@@ -1988,7 +2189,7 @@ public final class Kafka {
     internal_static_Record_fieldAccessorTable = new
       com.google.protobuf.GeneratedMessageV3.FieldAccessorTable(
         internal_static_Record_descriptor,
-        new java.lang.String[] { "Type", "Topic", "KeyType", "ValueType", "Key", "Value", "Timestamp", "Offset", "Records", "NodeId", "Role", "Port", "RecordId", });
+        new java.lang.String[] { "Type", "Topic", "KeyType", "ValueType", "Key", "Value", "Timestamp", "Offset", "Records", "NodeId", "Role", "Port", "RecordId", "GroupId", "Partition", });
   }
 
   // @@protoc_insertion_point(outer_class_scope)
@@ -70,6 +70,11 @@ public final class ZK {
      * <code>.MembershipTable membershipTable = 7;</code>
      */
     protos.ZK.MembershipTableOrBuilder getMembershipTableOrBuilder();
+
+    /**
+     * <code>int32 membershipVersion = 8;</code>
+     */
+    int getMembershipVersion();
   }
   /**
    * Protobuf type {@code Record}
@@ -89,6 +94,7 @@ public final class ZK {
       zkPort_ = 0;
       brokerPort_ = 0;
       leader_ = 0;
+      membershipVersion_ = 0;
     }
 
     @java.lang.Override
@@ -161,6 +167,11 @@ public final class ZK {
 
               break;
             }
+            case 64: {
+
+              membershipVersion_ = input.readInt32();
+              break;
+            }
           }
         }
       } catch (com.google.protobuf.InvalidProtocolBufferException e) {
@@ -309,6 +320,15 @@ public final class ZK {
       return getMembershipTable();
     }
 
+    public static final int MEMBERSHIPVERSION_FIELD_NUMBER = 8;
+    private int membershipVersion_;
+    /**
+     * <code>int32 membershipVersion = 8;</code>
+     */
+    public int getMembershipVersion() {
+      return membershipVersion_;
+    }
+
     private byte memoizedIsInitialized = -1;
     public final boolean isInitialized() {
       byte isInitialized = memoizedIsInitialized;
@@ -342,6 +362,9 @@ public final class ZK {
       if (membershipTable_ != null) {
         output.writeMessage(7, getMembershipTable());
       }
+      if (membershipVersion_ != 0) {
+        output.writeInt32(8, membershipVersion_);
+      }
     }
 
     public int getSerializedSize() {
@@ -375,6 +398,10 @@ public final class ZK {
         size += com.google.protobuf.CodedOutputStream
           .computeMessageSize(7, getMembershipTable());
       }
+      if (membershipVersion_ != 0) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeInt32Size(8, membershipVersion_);
+      }
       memoizedSize = size;
       return size;
     }
@@ -408,6 +435,8 @@ public final class ZK {
         result = result && getMembershipTable()
             .equals(other.getMembershipTable());
       }
+      result = result && (getMembershipVersion()
+          == other.getMembershipVersion());
       return result;
     }
 
@@ -434,6 +463,8 @@ public final class ZK {
         hash = (37 * hash) + MEMBERSHIPTABLE_FIELD_NUMBER;
         hash = (53 * hash) + getMembershipTable().hashCode();
       }
+      hash = (37 * hash) + MEMBERSHIPVERSION_FIELD_NUMBER;
+      hash = (53 * hash) + getMembershipVersion();
       hash = (29 * hash) + unknownFields.hashCode();
       memoizedHashCode = hash;
       return hash;
@@ -570,6 +601,8 @@ public final class ZK {
           membershipTable_ = null;
           membershipTableBuilder_ = null;
         }
+        membershipVersion_ = 0;
+
         return this;
       }
 
@@ -603,6 +636,7 @@ public final class ZK {
         } else {
           result.membershipTable_ = membershipTableBuilder_.build();
         }
+        result.membershipVersion_ = membershipVersion_;
         onBuilt();
         return result;
       }
@@ -667,6 +701,9 @@ public final class ZK {
         if (other.hasMembershipTable()) {
           mergeMembershipTable(other.getMembershipTable());
         }
+        if (other.getMembershipVersion() != 0) {
+          setMembershipVersion(other.getMembershipVersion());
+        }
         onChanged();
         return this;
       }
@@ -1051,6 +1088,32 @@ public final class ZK {
         }
         return membershipTableBuilder_;
       }
+
+      private int membershipVersion_ ;
+      /**
+       * <code>int32 membershipVersion = 8;</code>
+       */
+      public int getMembershipVersion() {
+        return membershipVersion_;
+      }
+      /**
+       * <code>int32 membershipVersion = 8;</code>
+       */
+      public Builder setMembershipVersion(int value) {
+        
+        membershipVersion_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>int32 membershipVersion = 8;</code>
+       */
+      public Builder clearMembershipVersion() {
+        
+        membershipVersion_ = 0;
+        onChanged();
+        return this;
+      }
       public final Builder setUnknownFields(
           final com.google.protobuf.UnknownFieldSet unknownFields) {
         return this;
@@ -3412,17 +3475,17 @@ public final class ZK {
       descriptor;
   static {
     java.lang.String[] descriptorData = {
-      "\n\026protos/zookeeper.proto\"\227\001\n\006Record\022\014\n\004t" +
+      "\n\026protos/zookeeper.proto\"\262\001\n\006Record\022\014\n\004t" +
       "ype\030\001 \001(\t\022\016\n\006hostId\030\002 \001(\005\022\020\n\010hostname\030\003 " +
       "\001(\t\022\016\n\006zkPort\030\004 \001(\005\022\022\n\nbrokerPort\030\005 \001(\005\022" +
       "\016\n\006leader\030\006 \001(\005\022)\n\017membershipTable\030\007 \001(\013" +
-      "2\020.MembershipTable\"[\n\017MembershipTable\022\024\n" +
-      "\005nodes\030\001 \003(\0132\005.Node\022\030\n\tproducers\030\002 \003(\0132\005" +
-      ".Node\022\030\n\tconsumers\030\003 \003(\0132\005.Node\"l\n\004Node\022" +
-      "\n\n\002id\030\001 \001(\005\022\020\n\010hostname\030\002 \001(\t\022\014\n\004port\030\003 " +
-      "\001(\005\022\017\n\007zk_port\030\004 \001(\005\022\023\n\013broker_port\030\005 \001(" +
-      "\005\022\022\n\nhasCrashed\030\006 \001(\010B\014\n\006protosB\002ZKb\006pro",
-      "to3"
+      "2\020.MembershipTable\022\031\n\021membershipVersion\030" +
+      "\010 \001(\005\"[\n\017MembershipTable\022\024\n\005nodes\030\001 \003(\0132" +
+      "\005.Node\022\030\n\tproducers\030\002 \003(\0132\005.Node\022\030\n\tcons" +
+      "umers\030\003 \003(\0132\005.Node\"l\n\004Node\022\n\n\002id\030\001 \001(\005\022\020" +
+      "\n\010hostname\030\002 \001(\t\022\014\n\004port\030\003 \001(\005\022\017\n\007zk_por" +
+      "t\030\004 \001(\005\022\023\n\013broker_port\030\005 \001(\005\022\022\n\nhasCrash",
+      "ed\030\006 \001(\010B\014\n\006protosB\002ZKb\006proto3"
     };
     com.google.protobuf.Descriptors.FileDescriptor.InternalDescriptorAssigner assigner =
         new com.google.protobuf.Descriptors.FileDescriptor.    InternalDescriptorAssigner() {
@@ -3441,7 +3504,7 @@ public final class ZK {
     internal_static_Record_fieldAccessorTable = new
       com.google.protobuf.GeneratedMessageV3.FieldAccessorTable(
         internal_static_Record_descriptor,
-        new java.lang.String[] { "Type", "HostId", "Hostname", "ZkPort", "BrokerPort", "Leader", "MembershipTable", });
+        new java.lang.String[] { "Type", "HostId", "Hostname", "ZkPort", "BrokerPort", "Leader", "MembershipTable", "MembershipVersion", });
     internal_static_MembershipTable_descriptor =
       getDescriptor().getMessageTypes().get(1);
     internal_static_MembershipTable_fieldAccessorTable = new
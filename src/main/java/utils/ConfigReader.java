@@ -2,6 +2,7 @@ package utils;
 
 import com.google.gson.Gson;
 import com.google.gson.annotations.SerializedName;
+import common.Log;
 import models.BrokerConfig;
 import models.ConsumerConfig;
 import models.ProducerConfig;
@@ -33,7 +34,7 @@ public class ConfigReader {
         try {
             config = gson.fromJson(new FileReader(file), Config.class);
         } catch (FileNotFoundException e) {
-            System.err.println("Config file " + file + " not found: " + e.getMessage());
+            Log.error("Config file {} not found: {}", file, e.getMessage());
             System.exit(-1);
         }
         return config;
@@ -1,6 +1,7 @@
 package utils;
 
 import broker.Constants;
+import common.Log;
 
 /**
  * @author Alberto Delgado on 4/21/22
@@ -28,7 +29,7 @@ public class Demo {
             if (args[i].equals(DEMO_FLAG)) {
                 isDemo = true;
                 Constants.BROKER_DATASTORE_CACHE_CAPACITY = 5; // make it easier to watch persistence
-                System.out.println("[DEMO] Decreasing broker store cache capacity to " + Constants.BROKER_DATASTORE_CACHE_CAPACITY);
+                Log.info("[DEMO] Decreasing broker store cache capacity to {}", Constants.BROKER_DATASTORE_CACHE_CAPACITY);
             }
             if (args[i].equals(MEMBERSHIP_TABLE_FLAG))
                 printMembershipTable = true;
@@ -45,7 +46,17 @@ public class Demo {
      * @param msg
      */
     public static void printMembershipTable(String msg) {
-        if (printMembershipTable) System.out.println(msg);
+        if (printMembershipTable) Log.info(msg);
+    }
+
+    /**
+     * Checks if the membership table is printed. Lets callers skip
+     * building it on every heartbeat
+     *
+     * @return
+     */
+    public static boolean isPrintingMembershipTable() {
+        return printMembershipTable;
     }
 
     /**
@@ -54,7 +65,17 @@ public class Demo {
      * @param msg
      */
     public static void printReplication(String msg) {
-        if (printReplication) System.out.println(msg);
+        if (printReplication) Log.info(msg);
+    }
+
+    /**
+     * Checks if replication details are printed. Lets callers skip
+     * building the message on hot paths
+     *
+     * @return
+     */
+    public static boolean isPrintingReplication() {
+        return printReplication;
     }
 
     /**
@@ -63,7 +84,17 @@ public class Demo {
      * @param msg
      */
     public static void printHeartbeat(String msg) {
-        if (printHeartbeat) System.out.println(msg);
+        if (printHeartbeat) Log.info(msg);
+    }
+
+    /**
+     * Checks if heartbeats are printed. Lets callers skip building
+     * the message on every heartbeat
+     *
+     * @return
+     */
+    public static boolean isPrintingHeartbeat() {
+        return printHeartbeat;
     }
 
     /**
@@ -87,7 +118,7 @@ public class Demo {
      * @param msg
      */
     public static void printAndDelay(String msg) {
-        if (isDemo) System.out.println(msg);
+        if (isDemo) Log.info(msg);
         printAndDelay();
     }
 }
@@ -0,0 +1,291 @@
+package utils;
+
+import broker.Broker;
+import broker.Constants;
+import common.Log;
+import common.Properties;
+import common.SerializeableItems;
+import consumer.Consumer;
+import models.ConsumerRecord;
+import models.ProducerRecord;
+import org.HdrHistogram.Histogram;
+import producer.Producer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @author Alberto Delgado on 5/4/22
+ * @project dsd-pub-sub
+ * <p>
+ * Load generator. Drives N producers and M consumers against a broker,
+ * at a target rate or as fast as possible, and reports throughput along
+ * with publish (ack) and end-to-end latency percentiles.
+ * <p>
+ * If no broker is given one is started in-process, on loopback. Each
+ * record carries the time it was sent in its first 8 bytes, so consumers
+ * (in this same process) measure end-to-end latency from it.
+ * <p>
+ * With --rate, latencies are measured from the time each record was
+ * scheduled to be sent, not from when it actually was. A producer that
+ * falls behind keeps its backlog in the numbers instead of hiding it
+ * (coordinated omission).
+ * <p>
+ * Usage: LoadGenerator [--broker host:port] [--producers 1] [--consumers 1]
+ * [--records 100000] [--record-size 100] [--rate -1] [--topic load-test]
+ * [--consumer-method poll.consumer|push.consumer] [--batch-size 100]
+ * <p>
+ * --rate is records per second over all producers, -1 for no limit.
+ * --batch-size is the number of records the in-process broker keeps in
+ * memory before persisting (only persisted records are polled).
+ */
+public class LoadGenerator {
+    private static final String TAG = "[LOAD GENERATOR] ";
+    private static final long HIGHEST_LATENCY_US = TimeUnit.MINUTES.toMicros(1);
+    private static final long CONSUMER_IDLE_TIMEOUT_MS = 10000; // stop waiting for records after this
+    private static final int BROKER_ID = 1;
+    private static final int PRODUCER_BASE_ID = 1000;
+    private static final int CONSUMER_BASE_ID = 2000;
+
+    // Brokers drop records with the same timestamp as one still in memory.
+    // Every record gets a distinct one (ms, ahead of the clock if needed).
+    private static final AtomicLong timestamps = new AtomicLong();
+
+    public static void main(String[] args) throws InterruptedException {
+        Map<String, String> options = parseArgs(args);
+        String topic = options.getOrDefault("topic", "load-test");
+        int producers = Integer.parseInt(options.getOrDefault("producers", "1"));
+        int consumers = Integer.parseInt(options.getOrDefault("consumers", "1"));
+        int records = Integer.parseInt(options.getOrDefault("records", "100000"));
+        int recordSize = Math.max(Long.BYTES, Integer.parseInt(options.getOrDefault("record-size", "100")));
+        long rate = Long.parseLong(options.getOrDefault("rate", "-1"));
+        String consumerMethod = options.getOrDefault("consumer-method", Properties.POLL_CONSUMER);
+
+        String hostname = "localhost";
+        int port;
+        if (options.containsKey("broker")) {
+            String[] broker = options.get("broker").split(":");
+            hostname = broker[0];
+            port = Integer.parseInt(broker[1]);
+        } else {
+            if (options.containsKey("batch-size"))
+                Constants.BROKER_DATASTORE_CACHE_CAPACITY = Integer.parseInt(options.get("batch-size"));
+            port = startBroker();
+        }
+
+        // consumers first, so they are subscribed before records arrive
+        long expected = (long) (records / producers) * producers;
+        List<ConsumerRun> consumerRuns = new ArrayList<>();
+        for (int i = 0; i < consumers; i++) {
+            ConsumerRun run = new ConsumerRun(CONSUMER_BASE_ID + i, hostname, port, topic, consumerMethod, expected);
+            consumerRuns.add(run);
+            run.thread.start();
+        }
+
+        List<ProducerRun> producerRuns = new ArrayList<>();
+        CountDownLatch start = new CountDownLatch(1);
+        long intervalNs = rate > 0 ? TimeUnit.SECONDS.toNanos(1) * producers / rate : 0;
+        for (int i = 0; i < producers; i++) {
+            ProducerRun run = new ProducerRun(PRODUCER_BASE_ID + i, hostname, port, topic, records / producers, recordSize, intervalNs, start);
+            producerRuns.add(run);
+            run.thread.start();
+        }
+
+        System.out.println(TAG + "Sending " + expected + " records of " + recordSize + " bytes"
+                + (rate > 0 ? " at " + rate + " records/sec" : " as fast as possible")
+                + " with " + producers + " producers and " + consumers + " consumers.");
+        long startNs = System.nanoTime();
+        start.countDown();
+
+        Histogram publishLatency = new Histogram(HIGHEST_LATENCY_US, 3);
+        long sent = 0;
+        for (ProducerRun run : producerRuns) {
+            run.thread.join();
+            publishLatency.add(run.latency);
+            sent += run.sent;
+        }
+        long produceNs = System.nanoTime() - startNs;
+        report("Produced", sent, recordSize, produceNs, "publish latency", publishLatency);
+
+        Histogram endToEndLatency = new Histogram(HIGHEST_LATENCY_US, 3);
+        long received = 0;
+        long consumeNs = 0;
+        for (ConsumerRun run : consumerRuns) {
+            run.thread.join();
+            endToEndLatency.add(run.latency);
+            received += run.received;
+            consumeNs = Math.max(consumeNs, run.lastReceivedNs - startNs);
+        }
+        if (consumers > 0)
+            report("Consumed", received, recordSize, consumeNs, "end-to-end latency", endToEndLatency);
+        if (received < expected * consumers)
+            System.out.println(TAG + (expected * consumers - received) + " records not consumed"
+                    + " (still in broker memory, not persisted yet, or lost).");
+
+        System.exit(0);
+    }
+
+    // Prints throughput and latency percentiles
+    private static void report(String what, long records, int recordSize, long elapsedNs, String latencyName, Histogram latency) {
+        Log.flush(); // broker and client logs first
+        double seconds = Math.max(elapsedNs, 1) / 1e9;
+        System.out.printf(TAG + "%s %d records in %.2f s: %.1f records/sec (%.2f MB/sec)%n",
+                what, records, seconds, records / seconds, records * (double) recordSize / seconds / (1024 * 1024));
+        System.out.printf(TAG + "%s ms: avg %.2f, p50 %.2f, p99 %.2f, p999 %.2f, max %.2f%n",
+                latencyName,
+                latency.getMean() / 1000,
+                latency.getValueAtPercentile(50) / 1000.0,
+                latency.getValueAtPercentile(99) / 1000.0,
+                latency.getValueAtPercentile(99.9) / 1000.0,
+                latency.getMaxValue() / 1000.0);
+    }
+
+    // Starts a broker on loopback, in this process. Returns its port
+    private static int startBroker() throws InterruptedException {
+        int port = freePort();
+        Broker broker = new Broker(BROKER_ID, port);
+        broker.addZooKeeper(freePort());
+        new Thread(broker).start();
+        Thread.sleep(3000); // let it boot and become leader
+        return port;
+    }
+
+    // A port nothing is listening on
+    private static int freePort() {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        } catch (IOException e) {
+            throw new IllegalStateException("No free port available", e);
+        }
+    }
+
+    // --name value pairs
+    private static Map<String, String> parseArgs(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) throw new IllegalArgumentException("Unexpected argument " + args[i]);
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        return options;
+    }
+
+    /**
+     * Publishes its records, paced to the given interval (0 for no pacing),
+     * and records the time each publish takes to be acked.
+     */
+    private static class ProducerRun implements Runnable {
+        final Thread thread = new Thread(this);
+        final Histogram latency = new Histogram(HIGHEST_LATENCY_US, 3);
+        final Producer<String, ByteBuffer> producer;
+        final String topic;
+        final int records;
+        final int recordSize;
+        final long intervalNs;
+        final CountDownLatch start;
+        long sent = 0;
+
+        ProducerRun(int id, String hostname, int port, String topic, int records, int recordSize, long intervalNs, CountDownLatch start) {
+            Properties props = new Properties();
+            props.put(Properties.ID, String.valueOf(id));
+            props.put(Properties.HOSTNAME, hostname);
+            props.put(Properties.PORT, String.valueOf(port));
+            props.put(Properties.LOCAL_PORT, String.valueOf(freePort()));
+            props.put(Properties.KEY_SERIALIZER, SerializeableItems.STRING.name());
+            props.put(Properties.VALUE_SERIALIZER, SerializeableItems.BYTES.name());
+            this.producer = new Producer<>(props);
+            this.producer.run();
+            this.topic = topic;
+            this.records = records;
+            this.recordSize = recordSize;
+            this.intervalNs = intervalNs;
+            this.start = start;
+        }
+
+        @Override
+        public void run() {
+            try {
+                start.await();
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            ByteBuffer value = ByteBuffer.allocate(recordSize);
+            long next = System.nanoTime();
+            for (int i = 0; i < records; i++) {
+                long sendNs; // when the record is due: its schedule if paced, now otherwise
+                if (intervalNs > 0) {
+                    long wait = next - System.nanoTime();
+                    if (wait > 0) LockSupport.parkNanos(wait);
+                    sendNs = next;
+                    next += intervalNs;
+                } else {
+                    sendNs = System.nanoTime();
+                }
+
+                value.putLong(0, sendNs);
+                long timestamp = timestamps.updateAndGet(last -> Math.max(System.currentTimeMillis(), last + 1));
+                if (producer.publish(new ProducerRecord<>(topic, String.valueOf(i), value, timestamp))) sent++;
+                latency.recordValue(Math.min(HIGHEST_LATENCY_US, (System.nanoTime() - sendNs) / 1000));
+            }
+        }
+    }
+
+    /**
+     * Consumes until every record is received, or none arrives for a while,
+     * and records the time from each one being sent to being received.
+     */
+    private static class ConsumerRun implements Runnable {
+        final Thread thread = new Thread(this);
+        final Histogram latency = new Histogram(HIGHEST_LATENCY_US, 3);
+        final Consumer<String, ByteBuffer> consumer;
+        final long expected;
+        long received = 0;
+        long lastReceivedNs = 0;
+
+        ConsumerRun(int id, String hostname, int port, String topic, String method, long expected) {
+            Properties props = new Properties();
+            props.put(Properties.ID, String.valueOf(id));
+            props.put(Properties.HOSTNAME, hostname);
+            props.put(Properties.PORT, String.valueOf(port));
+            props.put(Properties.LOCAL_PORT, String.valueOf(freePort()));
+            props.put(Properties.KEY_DESERIALIZER, SerializeableItems.STRING.name());
+            props.put(Properties.VALUE_DESERIALIZER, SerializeableItems.BYTES.name());
+            props.put(Properties.POLL_METHOD_CONSUMER, method);
+            props.put(Properties.ENABLE_AUTO_COMMIT, "false");
+            this.consumer = new Consumer<>(props);
+            this.consumer.run();
+            this.consumer.subscribe(List.of(topic));
+            this.expected = expected;
+        }
+
+        @Override
+        public void run() {
+            long idleSince = System.currentTimeMillis();
+            while (received < expected && System.currentTimeMillis() - idleSince < CONSUMER_IDLE_TIMEOUT_MS) {
+                ArrayList<ConsumerRecord<String, ByteBuffer>> records = consumer.poll(Duration.ofMillis(100));
+                if (records.isEmpty()) continue;
+
+                long now = System.nanoTime();
+                for (ConsumerRecord<String, ByteBuffer> record : records) {
+                    ByteBuffer value = record.getValue();
+                    long sendNs = value.getLong(value.position());
+                    latency.recordValue(Math.max(0, Math.min(HIGHEST_LATENCY_US, (now - sendNs) / 1000)));
+                }
+                received += records.size();
+                lastReceivedNs = now;
+                idleSince = System.currentTimeMillis();
+            }
+            consumer.close();
+        }
+    }
+}
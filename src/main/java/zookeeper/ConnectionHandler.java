@@ -8,6 +8,8 @@ import utils.Demo;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author Alberto Delgado on 4/11/22
@@ -19,6 +21,8 @@ class ConnectionHandler extends ServerConnectionHandler {
     final ZooKeeper zk;
     final String TAG;
     Context context;
+    // version of the membership table of each node, as last gossiped to us
+    private final Map<Integer, Integer> membershipVersions = new ConcurrentHashMap<>();
 
     ConnectionHandler(ZooKeeper zk) {
         this.zk = zk;
@@ -49,11 +53,24 @@ class ConnectionHandler extends ServerConnectionHandler {
         int port = record.getZkPort();
 
         // log for testing purposes
-        Demo.printHeartbeat("[HEARTBEAT] Node " + fromNode + " -> " + hostname + ":" + port);
-        Demo.printMembershipTable(zk.membersToString());
+        if (Demo.isPrintingHeartbeat())
+            Demo.printHeartbeat("[HEARTBEAT] Node " + fromNode + " -> " + hostname + ":" + port);
+        if (Demo.isPrintingMembershipTable())
+            Demo.printMembershipTable(zk.membersToString());
 
         zk.failureDetector.heartbeatReceived(fromNode);
 
+        // Heartbeats only carry the membership changes we are missing.
+        // If none came but versions differ, our copy is out of date:
+        // ask for the whole table
+        int version = record.getMembershipVersion();
+        if (!record.hasMembershipTable()) {
+            Integer known = membershipVersions.get(fromNode);
+            if (known == null || known != version) zk.requestMembership(fromNode);
+            return;
+        }
+        membershipVersions.put(fromNode, version);
+
         // Subscribe to each node from received membership table
         // if not already subscribed
         ZK.MembershipTable remoteMembershipTable = record.getMembershipTable();
@@ -107,7 +124,7 @@ class ConnectionHandler extends ServerConnectionHandler {
                     conn.send(alive.toByteArray());
             }
         } catch (IOException e) {
-            System.out.println(TAG + "Failed sending ALIVE message");
+            Log.warn("{}Failed sending ALIVE message", TAG);
             // Other side will time out if no response from this server
             // No need to re-send
         }
@@ -139,8 +156,10 @@ class ConnectionHandler extends ServerConnectionHandler {
                 handleSubscription(record);
             } else if (requestType.equals(RequestType.ZOOKEEPER_HEARTBEAT.name())) {
                 handleHeartbeat(record);
+            } else if (requestType.equals(RequestType.ZOOKEEPER_MEMBERSHIP_SYNC.name())) {
+                zk.resendMembership(record.getHostId());
             } else if (requestType.equals(RequestType.ZOOKEEPER_LEADER_VICTORY.name())) {
-                System.out.println(TAG + " New leader is Broker " + record.getHostId());
+                Log.info("{} New leader is Broker {}", TAG, record.getHostId());
                 zk.setLeader(record.getHostId());
             } else if (requestType.equals(RequestType.ZOOKEEPER_LEADER_CANDIDATE.name())) {
                 handleElection(conn, record);
@@ -153,10 +172,10 @@ class ConnectionHandler extends ServerConnectionHandler {
     }
 
     private void print(String msg) {
-        System.out.println(TAG + msg);
+        Log.info("{}{}", TAG, msg);
     }
 
     private void print(Integer msg) {
-        System.out.println(TAG + msg);
+        Log.info("{}{}", TAG, msg);
     }
 }
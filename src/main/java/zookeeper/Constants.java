@@ -12,6 +12,7 @@ public class Constants {
     public static final long HEARTBEAT_CHECK_INTERVAL_MS = 1000L;
     public static final long FAILURE_DETECTOR_TIMEOUT_MS = 4000L;
     public static final int MAX_NODE_FAILURE_DETECTIONS = 3;
+    public static final int MEMBERSHIP_CHANGELOG_CAPACITY = 256; // older changes resend the whole table
 
     public static final long LEADER_DISCOVERY_PHASE_MS = 3000L;
     public static final long ALIVE_TIMEOUT_MS = 2000L;
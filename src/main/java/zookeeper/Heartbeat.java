@@ -1,10 +1,12 @@
 package zookeeper;
 
 import common.Connection;
+import common.Log;
 import common.RequestType;
 import protos.ZK;
 
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author Alberto Delgado on 4/8/22
@@ -13,6 +15,10 @@ import java.io.IOException;
  * Heartbeat takes care of sending the actual message to the broker.
  * It additionally sends the membership table so other brokers can
  * also subscribe to nodes they might be missing. Gossipping.
+ * <p>
+ * Only the changes since the last version sent go out, along with the
+ * current version of the table. The first heartbeat, and any after a
+ * failed send or a resync request, carries the whole table.
  */
 public class Heartbeat implements Runnable {
     private MembershipTable membershipTable;
@@ -22,10 +28,12 @@ public class Heartbeat implements Runnable {
     private boolean isRunning = true;
     private int zkPort;
     private Connection conn;
+    // version of the membership table the remote node has, -1 if unknown
+    private final AtomicInteger sentVersion = new AtomicInteger(-1);
 
     Heartbeat(ZKNode node) {
         this(node, Constants.UNASSIGNED_LEADER_ID);
-        System.out.println("New heartbeat " + node.HOSTNAME + ":" + node.ZK_PORT);
+        Log.info("New heartbeat {}:{}", node.HOSTNAME, node.ZK_PORT);
         conn = new Connection(node.HOSTNAME, node.ZK_PORT);
     }
 
@@ -50,22 +58,33 @@ public class Heartbeat implements Runnable {
         this.zkPort = port;
     }
 
+    // next heartbeat carries the whole membership table. Used when
+    // the remote node finds its copy out of date
+    void resendMembership() {
+        sentVersion.set(-1);
+    }
+
     // Sends the heartbeat
     void send() {
         if (!isRunning) return;
         if (localId == Constants.UNASSIGNED_LEADER_ID) return; // hb needs to know the "local" id
+        int sent = sentVersion.get();
+        int version = membershipTable.getVersion();
         try {
-            ZK.Record hb = ZK.Record.newBuilder()
+            ZK.Record.Builder hb = ZK.Record.newBuilder()
                     .setType(RequestType.ZOOKEEPER_HEARTBEAT.toString())
                     .setHostId(localId)
                     .setHostname(node.getLocalHostname())
                     .setZkPort(zkPort)
                     .setLeader(membershipTable.getLeaderId())
-                    .setMembershipTable(membershipTable.toProtobuf())
-                    .build();
+                    .setMembershipVersion(version);
+            if (sent != version)
+                hb.setMembershipTable(membershipTable.changesSince(sent));
 
-            conn.send(hb.toByteArray());
+            conn.send(hb.build().toByteArray());
+            sentVersion.compareAndSet(sent, version); // unless a resync came in meanwhile
         } catch (IOException e) {
+            sentVersion.set(-1); // not sure what got through
             // we are not handling this here... we are going to keep
             // trying sending. It is up to the failure detector to
             // close the connection.
@@ -1,5 +1,7 @@
 package zookeeper;
 
+import metrics.MetricsRegistry;
+
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -11,9 +13,18 @@ import java.util.Map;
  * <p>
  * Data Structure to store the Received Times of the heartbeats as well
  * as a centralized method to define actions on how to update/remove items
+ * <p>
+ * Heartbeats are one way, so there is no round trip to time. The time
+ * between two heartbeats of a node is recorded instead: anything over
+ * the heartbeat interval is delay on the network (or on either host).
  */
 public class HeartbeatReceivedTimes {
     private final Map<Integer, HeartbeatRecord> receivedTimes = new HashMap<>();
+    private final MetricsRegistry metrics;
+
+    HeartbeatReceivedTimes(MetricsRegistry metrics) {
+        this.metrics = metrics;
+    }
 
     List<HeartbeatRecord> getRecords() {
         synchronized (receivedTimes) {
@@ -26,6 +37,9 @@ public class HeartbeatReceivedTimes {
         long currentTime = System.nanoTime();
         if (receivedTimes.containsKey(nodeId)) {
             HeartbeatRecord record = receivedTimes.get(nodeId);
+            if (!record.hasCrashed)
+                metrics.latency("zookeeper_heartbeat_interval_seconds", "Time between two heartbeats of a node", "node", String.valueOf(nodeId))
+                        .record(currentTime - record.lastReceived);
             record.lastReceived = currentTime;
         } else {
             HeartbeatRecord record = new HeartbeatRecord(nodeId, currentTime);
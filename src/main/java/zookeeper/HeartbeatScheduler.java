@@ -1,8 +1,6 @@
 package zookeeper;
 
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import common.TimerWheel;
 
 /**
  * @author Alberto Delgado on 4/6/22
@@ -13,13 +11,13 @@ import java.util.concurrent.TimeUnit;
  * https://martinfowler.com/articles/patterns-of-distributed-systems/heartbeat.html
  * <p>
  * Schedule tasks - mainly used to schedule heartbeats and to schedule
- * a failure detector
+ * a failure detector. Every scheduler runs on the shared timer wheel,
+ * so there are no threads per heartbeat.
  */
 class HeartbeatScheduler {
     long heartbeatIntervalMs;
-    private final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
     private final Runnable action;
-    private ScheduledFuture<?> scheduledTask;
+    private TimerWheel.Timeout scheduledTask;
 
     HeartbeatScheduler(Runnable action, long heartbeatIntervalMs) {
         this.heartbeatIntervalMs = heartbeatIntervalMs;
@@ -28,15 +26,14 @@ class HeartbeatScheduler {
 
     // Starts the scheduler
     HeartbeatScheduler start() {
-        scheduledTask = executor.scheduleWithFixedDelay(action, heartbeatIntervalMs, heartbeatIntervalMs, TimeUnit.MILLISECONDS);
+        scheduledTask = TimerWheel.shared().scheduleWithFixedDelay(action, heartbeatIntervalMs, heartbeatIntervalMs);
         return this;
     }
 
     // Cancels the scheduler
     void cancel() {
         if (scheduledTask != null) {
-            scheduledTask.cancel(true);
+            scheduledTask.cancel();
         }
-        executor.shutdownNow();
     }
 }
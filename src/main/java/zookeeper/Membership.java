@@ -1,5 +1,6 @@
 package zookeeper;
 
+import common.Log;
 import common.RequestType;
 import models.Node;
 import protos.ZK;
@@ -63,8 +64,8 @@ class Membership {
             node.send(request.toByteArray());
         } catch (IOException e) {
             if (attempts < 3) {
-                System.out.println("[HEARTBEAT] Attempting connect with " + node.ID + " failed. Retrying.");
-                System.out.println("[HEARTBEAT] Node hostname " + props.HOSTNAME + ":" + node.ZK_PORT);
+                Log.warn("[HEARTBEAT] Attempting connect with {} failed. Retrying.", node.ID);
+                Log.warn("[HEARTBEAT] Node hostname {}:{}", props.HOSTNAME, node.ZK_PORT);
                 node.reconnect();
                 return subscribe(node, ++attempts);
             } else return false;
@@ -73,6 +74,21 @@ class Membership {
         return true;
     }
 
+    // asks the remote node for its whole membership table. If it fails
+    // the next heartbeat without changes will ask again
+    void requestTable(ZKNode node) {
+        ZK.Record request = ZK.Record.newBuilder()
+                .setType(RequestType.ZOOKEEPER_MEMBERSHIP_SYNC.name())
+                .setHostId(props.ID)
+                .build();
+
+        try {
+            node.send(request.toByteArray());
+        } catch (IOException e) {
+            Log.warn("[HEARTBEAT] Failed requesting membership table from {}", node.ID);
+        }
+    }
+
     // checks if node is already subscribed
     private boolean isSubscribed(Node n) {
         return membershipTable.has(n.ID);
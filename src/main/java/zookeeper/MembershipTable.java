@@ -3,10 +3,15 @@ package zookeeper;
 import models.Node;
 import protos.ZK;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.stream.Collectors;
 
@@ -17,17 +22,29 @@ import java.util.stream.Collectors;
  * Data structure to handle the actions on the membership table; to have
  * some sort of concurrently control over it. Therefore, nodes, producers
  * and consumer (the caching maps) are kept as private.
+ * <p>
+ * Consumer groups are tracked next to the consumers: group id to the
+ * (sorted) ids of its members.
+ * <p>
+ * The table is versioned: every change that is gossiped (new node, crashed
+ * node, new producer, new or moved consumer) bumps the version and goes to
+ * a bounded log of changes, so heartbeats only need to carry what changed
+ * since the version the remote node already has.
  */
 class MembershipTable {
     private final Map<Integer, ZKNode> nodes = new HashMap<>();
     private final Map<Integer, Node> producers = new HashMap<>();
     private final Map<Integer, Node> consumers = new HashMap<>();
+    private final Map<String, Set<Integer>> groups = new HashMap<>();
 
-    // zookeeper nodes lock // producers lock // consumers lock
+    // zookeeper nodes lock // producers lock // consumers lock // groups lock
     private final ReentrantReadWriteLock zLock = new ReentrantReadWriteLock();
     private final ReentrantReadWriteLock pLock = new ReentrantReadWriteLock();
     private final ReentrantReadWriteLock cLock = new ReentrantReadWriteLock();
+    private final ReentrantReadWriteLock gLock = new ReentrantReadWriteLock();
     private int leaderId = Constants.UNASSIGNED_LEADER_ID;
+    private final Deque<Change> changes = new ArrayDeque<>(); // latest changes, guards version
+    private int version = 0;
 
     MembershipTable() {
     }
@@ -51,18 +68,21 @@ class MembershipTable {
         } finally {
             zLock.writeLock().unlock();
         }
+        logChange(ChangeType.NODE, node.toProtobuf());
     }
 
     // Removes remote node
     void removeNode(int nodeId) {
+        ZKNode node;
         zLock.writeLock().lock();
         try {
-            ZKNode node = nodes.get(nodeId);
+            node = nodes.get(nodeId);
             node.setHasCrashed();
             node.close();
         } finally {
             zLock.writeLock().unlock();
         }
+        logChange(ChangeType.NODE, node.toProtobuf());
     }
 
     // Sets a new leader and sets to "false"
@@ -157,11 +177,12 @@ class MembershipTable {
     public void addProducer(Node producer) {
         pLock.writeLock().lock();
         try {
-            if (!producers.containsKey(producer.ID))
-                producers.put(producer.ID, producer);
+            if (producers.containsKey(producer.ID)) return;
+            producers.put(producer.ID, producer);
         } finally {
             pLock.writeLock().unlock();
         }
+        logChange(ChangeType.PRODUCER, producer.toProtobuf());
     }
 
     // Removes a producer - to be tested
@@ -189,10 +210,13 @@ class MembershipTable {
     public void addConsumer(Node consumer) {
         cLock.writeLock().lock();
         try {
-            consumers.put(consumer.ID, consumer);
+            Node previous = consumers.put(consumer.ID, consumer);
+            if (previous != null && previous.PORT == consumer.PORT && previous.HOSTNAME.equals(consumer.HOSTNAME))
+                return; // nothing new to gossip
         } finally {
             cLock.writeLock().unlock();
         }
+        logChange(ChangeType.CONSUMER, consumer.toProtobuf());
     }
 
     // removes a consumer - to be tested
@@ -205,6 +229,95 @@ class MembershipTable {
         }
     }
 
+    // adds a consumer to a group. Returns true if
+    // it is a new member (group has to rebalance)
+    boolean joinGroup(String group, int consumerId) {
+        gLock.writeLock().lock();
+        try {
+            return groups.computeIfAbsent(group, g -> new TreeSet<>()).add(consumerId);
+        } finally {
+            gLock.writeLock().unlock();
+        }
+    }
+
+    // removes a consumer from a group. Returns true if
+    // it was a member (group has to rebalance)
+    boolean leaveGroup(String group, int consumerId) {
+        gLock.writeLock().lock();
+        try {
+            Set<Integer> members = groups.get(group);
+            if (members == null || !members.remove(consumerId)) return false;
+            if (members.isEmpty()) groups.remove(group);
+            return true;
+        } finally {
+            gLock.writeLock().unlock();
+        }
+    }
+
+    // returns the members of a group sorted by id
+    List<Integer> getGroupMembers(String group) {
+        gLock.readLock().lock();
+        try {
+            Set<Integer> members = groups.get(group);
+            if (members == null) return new ArrayList<>();
+            return new ArrayList<>(members);
+        } finally {
+            gLock.readLock().unlock();
+        }
+    }
+
+    // returns the current version of the table
+    int getVersion() {
+        synchronized (changes) {
+            return version;
+        }
+    }
+
+    /**
+     * Changes made after the given version, latest state of each entry.
+     * The whole table if they are no longer in the log (or since < 0).
+     * Entries are only ever added (or marked crashed) so the result can
+     * be merged into the remote table either way.
+     *
+     * @param since
+     * @return
+     */
+    ZK.MembershipTable changesSince(int since) {
+        synchronized (changes) {
+            int oldest = changes.isEmpty() ? version + 1 : changes.peekFirst().version;
+            if (since >= 0 && since + 1 >= oldest) {
+                Map<Integer, ZK.Node> changedNodes = new LinkedHashMap<>();
+                Map<Integer, ZK.Node> changedProducers = new LinkedHashMap<>();
+                Map<Integer, ZK.Node> changedConsumers = new LinkedHashMap<>();
+                for (Change change : changes) {
+                    if (change.version <= since) continue;
+                    switch (change.type) {
+                        case NODE -> changedNodes.put(change.node.getId(), change.node);
+                        case PRODUCER -> changedProducers.put(change.node.getId(), change.node);
+                        case CONSUMER -> changedConsumers.put(change.node.getId(), change.node);
+                    }
+                }
+                return ZK.MembershipTable.newBuilder()
+                        .addAllNodes(changedNodes.values())
+                        .addAllProducers(changedProducers.values())
+                        .addAllConsumers(changedConsumers.values())
+                        .build();
+            }
+        }
+        return toProtobuf();
+    }
+
+    // bumps the version and logs the change, dropping the oldest
+    // one if the log is full
+    private void logChange(ChangeType type, ZK.Node node) {
+        synchronized (changes) {
+            version++;
+            if (changes.size() == Constants.MEMBERSHIP_CHANGELOG_CAPACITY)
+                changes.pollFirst();
+            changes.addLast(new Change(version, type, node));
+        }
+    }
+
     /**
      * Will I deadlock? Looks bad
      *
@@ -251,4 +364,19 @@ class MembershipTable {
                 .collect(Collectors.toList());
     }
 
+    private enum ChangeType {NODE, PRODUCER, CONSUMER}
+
+    // An entry of the table as it was after the change
+    private static class Change {
+        final int version;
+        final ChangeType type;
+        final ZK.Node node;
+
+        Change(int version, ChangeType type, ZK.Node node) {
+            this.version = version;
+            this.type = type;
+            this.node = node;
+        }
+    }
+
 }
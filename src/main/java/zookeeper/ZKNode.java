@@ -5,7 +5,6 @@ import models.Node;
 import protos.ZK;
 
 import java.io.IOException;
-import java.util.concurrent.*;
 
 /**
  * @author Alberto Delgado on 4/6/22
@@ -39,24 +38,20 @@ public class ZKNode extends Node {
     ZKNode(int id, String hostname, int zPort, int brokerPort, boolean initConnection) {
         super(id, hostname, zPort, brokerPort);
         if (initConnection) {
-            ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
             int tries = 0;
             int delayFactor = 2;
             int delayMs = 200;
             int maxConnectionTries = 4;
             while (tries < maxConnectionTries && !hasConnected) {
-                ScheduledFuture<Connection> futureConn = scheduler.schedule(
-                        () -> new Connection(hostname, zPort),
-                        delayMs * delayFactor,
-                        TimeUnit.MILLISECONDS
-                );
-
+                // waits and connects on the calling thread, connecting
+                // blocks and must not take a worker of the shared timer
                 try {
-                    conn = futureConn.get();
-                } catch (ExecutionException | InterruptedException e) {
-                    tries++;
-                    continue; // we'll try again then...
+                    Thread.sleep(delayMs * delayFactor);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
                 }
+                conn = new Connection(hostname, zPort);
 
                 if (!conn.hasConnected) {
                     tries++;
@@ -111,6 +106,11 @@ public class ZKNode extends Node {
         return conn.receive();
     }
 
+    // Receives data from the node, null if nothing arrives in time
+    public byte[] receive(long timeoutMs) {
+        return conn.receive(timeoutMs);
+    }
+
     // Retrieves the local hostname
     String getLocalHostname() {
         return conn.getLocalHostname();
@@ -1,8 +1,10 @@
 package zookeeper;
 
 import common.Context;
+import common.Log;
 import common.Server;
 import common.State;
+import metrics.MetricsRegistry;
 import models.Node;
 import utils.Demo;
 
@@ -41,12 +43,16 @@ public class ZooKeeper implements Runnable {
     }
 
     public ZooKeeper(ZKProperties props) {
+        this(props, new MetricsRegistry());
+    }
+
+    public ZooKeeper(ZKProperties props, MetricsRegistry metrics) {
         ID = props.ID;
         HOSTNAME = props.HOSTNAME;
         ZK_PORT = props.ZK_PORT;
         BROKER_PORT = props.BROKER_PORT;
         membershipTable = new MembershipTable();
-        heartbeatReceivedTimes = new HeartbeatReceivedTimes();
+        heartbeatReceivedTimes = new HeartbeatReceivedTimes(metrics);
         membership = new Membership(props, membershipTable);
         heartbeatManager = new HeartbeatManager(this, membershipTable);
         failureDetector = new FailureDetector(this, heartbeatReceivedTimes);
@@ -104,6 +110,20 @@ public class ZooKeeper implements Runnable {
         membershipTableManager.notifyUnsubscribed(getNode(id));
     }
 
+    // Asks a node to send its whole membership table
+    // with the next heartbeat
+    void requestMembership(int nodeId) {
+        ZKNode node = getNode(nodeId);
+        if (node != null) membership.requestTable(node);
+    }
+
+    // A node asked for the whole membership table, it
+    // goes with the next heartbeat to that node
+    void resendMembership(int nodeId) {
+        ZKNode node = getNode(nodeId);
+        if (node != null && node.heartbeat != null) node.heartbeat.resendMembership();
+    }
+
     // Adds listener to membership table
     public void addMembershipTableListener(MembershipTableListener listener) {
         membershipTableManager.subscribe(listener);
@@ -115,10 +135,11 @@ public class ZooKeeper implements Runnable {
         // Only care about the misses in running state
         if (context.getState() != State.RUNNING) return;
 
-        System.out.println("[ZOOKEEPER " + ID + "] Missing heartbeat from " + record.id);
+        Log.warn("[ZOOKEEPER {}] Missing heartbeat from {}", ID, record.id);
         synchronized (record) {
             record.misses++;
-            Demo.printHeartbeat("Node " + record.id + " has " + record.misses + "right now");
+            if (Demo.isPrintingHeartbeat())
+                Demo.printHeartbeat("Node " + record.id + " has " + record.misses + "right now");
 
             if (record.misses == Constants.MAX_NODE_FAILURE_DETECTIONS) {
                 unsubscribe(record.id);
@@ -178,9 +199,26 @@ public class ZooKeeper implements Runnable {
         return membershipTable.getConsumers();
     }
 
+    // Adds a consumer to a consumer group. Returns true if the
+    // group membership changed
+    public boolean joinGroup(String group, int consumerId) {
+        return membershipTable.joinGroup(group, consumerId);
+    }
+
+    // Removes a consumer from a consumer group. Returns true if
+    // the group membership changed
+    public boolean leaveGroup(String group, int consumerId) {
+        return membershipTable.leaveGroup(group, consumerId);
+    }
+
+    // Returns the members of a consumer group sorted by id
+    public List<Integer> getGroupMembers(String group) {
+        return membershipTable.getGroupMembers(group);
+    }
+
     // print members - for testing purposes
     public void printMembers() {
-        System.out.println(membersToString());
+        Log.info("{}", membersToString());
     }
 
     // stringifies membership table
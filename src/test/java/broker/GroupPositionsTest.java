@@ -0,0 +1,90 @@
+package broker;
+
+import org.junit.Test;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+
+import java.util.Set;
+
+/**
+ * @author Alberto Delgado on 5/8/22
+ * @project dsd-pub-sub
+ */
+public class GroupPositionsTest {
+
+    @Test
+    @DisplayName("should start partitions never fetched at the requested offset")
+    public void testInitial() {
+        GroupPositions.Group group = new GroupPositions(8).get("group");
+
+        Assertions.assertEquals(-1, group.from("topic", Set.of(0, 1), p -> -1));
+        group.advance("topic", Set.of(0, 1), 100);
+
+        // joining partitions start at the offset requested, the rest keep theirs
+        Assertions.assertEquals(50, group.from("topic", Set.of(1, 2), p -> 50));
+        Assertions.assertEquals(100, group.from("topic", Set.of(0, 1), p -> -1));
+    }
+
+    @Test
+    @DisplayName("should not send records twice to a member that joins")
+    public void testJoin() {
+        GroupPositions positions = new GroupPositions(8);
+        positions.get("group").advance("topic", Set.of(0, 1, 2, 3), 100);
+
+        // new member takes partition 1 over, starting from scratch
+        GroupPositions.Group group = positions.get("group");
+        Assertions.assertEquals(100, group.from("topic", Set.of(1), p -> -1));
+        Assertions.assertFalse(group.isPending("topic", 1, 80));
+        Assertions.assertTrue(group.isPending("topic", 1, 120));
+    }
+
+    @Test
+    @DisplayName("should not skip records of a partition that moved to another member")
+    public void testMovedPartition() {
+        GroupPositions.Group group = new GroupPositions(8).get("group");
+        group.advance("topic", Set.of(0, 1), 100);
+
+        // first member keeps only partition 0 and goes ahead
+        group.advance("topic", Set.of(0), 200);
+
+        // second member gets partition 1 from where it was left
+        Assertions.assertEquals(100, group.from("topic", Set.of(1), p -> 300));
+        Assertions.assertTrue(group.isPending("topic", 1, 150));
+        Assertions.assertFalse(group.isPending("topic", 0, 150));
+    }
+
+    @Test
+    @DisplayName("should keep positions of each group apart")
+    public void testGroups() {
+        GroupPositions positions = new GroupPositions(8);
+        positions.get("a").advance("topic", Set.of(0), 100);
+
+        Assertions.assertEquals(-1, positions.get("b").from("topic", Set.of(0), p -> -1));
+        Assertions.assertEquals(-1, positions.get("a").from("other", Set.of(0), p -> -1));
+    }
+
+    @Test
+    @DisplayName("should start partitions never fetched at the offset committed by the group")
+    public void testCommitted() {
+        GroupPositions.Group group = new GroupPositions(8).get("group");
+
+        // partition 1 was committed, partition 0 never
+        Assertions.assertEquals(-1, group.from("topic", Set.of(0, 1), p -> p == 1 ? 100 : -1));
+        Assertions.assertFalse(group.isPending("topic", 1, 100));
+        Assertions.assertTrue(group.isPending("topic", 0, 100));
+    }
+
+    @Test
+    @DisplayName("should send again records of a member that left before committing them")
+    public void testRewind() {
+        GroupPositions.Group group = new GroupPositions(8).get("group");
+        group.advance("topic", Set.of(0, 1), 300);
+
+        // member owning partition 0 left having committed up to 100,
+        // partition 1 was never committed
+        group.rewind(Set.of(0, 1), (topic, partition) -> partition == 0 ? 100 : null);
+        Assertions.assertEquals(100, group.from("topic", Set.of(0), p -> -1));
+        Assertions.assertTrue(group.isPending("topic", 0, 200));
+        Assertions.assertFalse(group.isPending("topic", 1, 200));
+    }
+}
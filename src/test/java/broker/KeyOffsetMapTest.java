@@ -0,0 +1,38 @@
+package broker;
+
+import com.google.protobuf.ByteString;
+import org.junit.Test;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+
+/**
+ * @author Alberto Delgado on 5/8/22
+ * @project dsd-pub-sub
+ */
+public class KeyOffsetMapTest {
+
+    @Test
+    @DisplayName("should keep the latest offset of each key")
+    public void testPut() {
+        KeyOffsetMap map = new KeyOffsetMap(2);
+        map.put(ByteString.copyFromUtf8("a"), 10);
+        map.put(ByteString.copyFromUtf8("b"), 20);
+        map.put(ByteString.copyFromUtf8("a"), 30);
+
+        Assertions.assertEquals(30, map.get(ByteString.copyFromUtf8("a")));
+        Assertions.assertEquals(20, map.get(ByteString.copyFromUtf8("b")));
+        Assertions.assertEquals(-1, map.get(ByteString.copyFromUtf8("c")));
+    }
+
+    @Test
+    @DisplayName("should find every key when it is full up to the expected keys")
+    public void testExpectedKeys() {
+        int keys = 10_000;
+        KeyOffsetMap map = new KeyOffsetMap(keys);
+        for (int i = 0; i < keys; i++)
+            map.put(ByteString.copyFromUtf8("key-" + i), i);
+
+        for (int i = 0; i < keys; i++)
+            Assertions.assertEquals(i, map.get(ByteString.copyFromUtf8("key-" + i)));
+    }
+}
@@ -0,0 +1,67 @@
+package broker;
+
+import org.junit.Test;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import protos.Kafka;
+
+/**
+ * @author Alberto Delgado on 5/8/22
+ * @project dsd-pub-sub
+ */
+public class OffsetStoreTest {
+
+    @Test
+    @DisplayName("should keep commits of a group apart by partition")
+    public void testCommit() {
+        OffsetStore store = new OffsetStore();
+        String group = OffsetStore.groupOwner("group");
+        store.apply(store.record(group, "topic", 0, 100));
+        store.apply(store.record(group, "topic", 1, 200));
+
+        Assertions.assertEquals(100, (int) store.fetch(group, "topic", 0));
+        Assertions.assertEquals(200, (int) store.fetch(group, "topic", 1));
+        Assertions.assertNull(store.fetch(group, "topic", 2));
+        Assertions.assertNull(store.fetch(OffsetStore.groupOwner("other"), "topic", 0));
+    }
+
+    @Test
+    @DisplayName("should not take a commit for a duplicate of the previous one")
+    public void testUniqueTimestamps() {
+        OffsetStore store = new OffsetStore();
+        Kafka.Record first = store.record("owner", "topic", 0, 100);
+        Kafka.Record second = store.record("owner", "topic", 0, 200);
+
+        Assertions.assertEquals(OffsetStore.TOPIC, first.getTopic());
+        Assertions.assertEquals(first.getKey(), second.getKey()); // compacted together
+        Assertions.assertTrue(second.getTimestamp() > first.getTimestamp());
+    }
+
+    @Test
+    @DisplayName("should keep the latest commit when records are applied again or out of order")
+    public void testApplyOrder() {
+        OffsetStore leader = new OffsetStore();
+        Kafka.Record older = leader.record("owner", "topic", 0, 100);
+        Kafka.Record newer = leader.record("owner", "topic", 0, 200);
+
+        OffsetStore follower = new OffsetStore();
+        follower.apply(newer);
+        follower.apply(older);
+        follower.apply(newer);
+        Assertions.assertEquals(200, (int) follower.fetch("owner", "topic", 0));
+
+        // commits made once the follower takes over go after the ones it got
+        Kafka.Record next = follower.record("owner", "topic", 0, 300);
+        Assertions.assertTrue(next.getTimestamp() > newer.getTimestamp());
+    }
+
+    @Test
+    @DisplayName("should commit for the group, or for the consumer if it is in none")
+    public void testOwner() {
+        Kafka.Record member = Kafka.Record.newBuilder().setNodeId(1).setGroupId("group").build();
+        Kafka.Record consumer = Kafka.Record.newBuilder().setNodeId(1).build();
+
+        Assertions.assertEquals(OffsetStore.groupOwner("group"), OffsetStore.ownerOf(member));
+        Assertions.assertNotEquals(OffsetStore.ownerOf(member), OffsetStore.ownerOf(consumer));
+    }
+}
@@ -0,0 +1,42 @@
+package broker;
+
+import org.junit.Test;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * @author Alberto Delgado on 4/26/22
+ * @project dsd-pub-sub
+ */
+public class RangeAssignorTest {
+
+    @Test
+    @DisplayName("should assign every partition to exactly one member")
+    public void testAssign() {
+        List<Integer> members = List.of(3, 5, 9);
+        Set<Integer> all = new HashSet<>();
+        int total = 0;
+        for (int member : members) {
+            Set<Integer> assigned = RangeAssignor.assign(member, members, 8);
+            total += assigned.size();
+            all.addAll(assigned);
+        }
+
+        Assertions.assertEquals(8, total);
+        Assertions.assertEquals(8, all.size());
+        Assertions.assertEquals(Set.of(0, 1, 2), RangeAssignor.assign(3, members, 8));
+        Assertions.assertEquals(Set.of(6, 7), RangeAssignor.assign(9, members, 8));
+    }
+
+    @Test
+    @DisplayName("should rebalance when a member leaves")
+    public void testRebalance() {
+        Assertions.assertEquals(Set.of(0, 1, 2, 3), RangeAssignor.assign(5, List.of(5, 9), 8));
+        Assertions.assertEquals(Set.of(0, 1, 2, 3, 4, 5, 6, 7), RangeAssignor.assign(5, List.of(5), 8));
+        Assertions.assertTrue(RangeAssignor.assign(1, List.of(5, 9), 8).isEmpty());
+    }
+}
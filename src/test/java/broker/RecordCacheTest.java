@@ -0,0 +1,75 @@
+package broker;
+
+import com.google.protobuf.ByteString;
+import org.junit.Test;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+
+/**
+ * @author Alberto Delgado on 5/8/22
+ * @project dsd-pub-sub
+ */
+public class RecordCacheTest {
+
+    @Test
+    @DisplayName("should evict the least recently used records first")
+    public void testEvictionOrder() {
+        RecordCache cache = new RecordCache(30);
+        cache.put("topic", 0, bytes(10));
+        cache.put("topic", 10, bytes(10));
+        cache.put("topic", 20, bytes(10));
+
+        cache.get("topic", 0); // 10 is now the least recently used
+        cache.put("topic", 30, bytes(10));
+
+        Assertions.assertNull(cache.get("topic", 10));
+        Assertions.assertNotNull(cache.get("topic", 0));
+        Assertions.assertNotNull(cache.get("topic", 20));
+        Assertions.assertNotNull(cache.get("topic", 30));
+        Assertions.assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    @DisplayName("should keep the bytes cached within its size")
+    public void testBytes() {
+        RecordCache cache = new RecordCache(30);
+        cache.put("topic", 0, bytes(10));
+        cache.put("other", 0, bytes(15));
+        Assertions.assertEquals(25, cache.getBytes());
+
+        // replacing a record counts only the new one
+        cache.put("topic", 0, bytes(5));
+        Assertions.assertEquals(20, cache.getBytes());
+
+        // evicts as many records as needed to fit
+        cache.put("topic", 5, bytes(28));
+        Assertions.assertEquals(28, cache.getBytes());
+        Assertions.assertEquals(2, cache.getEvictions());
+
+        // records bigger than the cache are not cached
+        cache.put("topic", 33, bytes(31));
+        Assertions.assertEquals(28, cache.getBytes());
+        Assertions.assertNull(cache.get("topic", 33));
+    }
+
+    @Test
+    @DisplayName("should count misses without caching them")
+    public void testMisses() {
+        RecordCache cache = new RecordCache(30);
+        cache.put("topic", 0, bytes(10));
+
+        Assertions.assertNull(cache.get("topic", 10));
+        Assertions.assertNull(cache.get("topic", 10));
+        Assertions.assertNull(cache.get("other", 0));
+        Assertions.assertNotNull(cache.get("topic", 0));
+
+        Assertions.assertEquals(10, cache.getBytes());
+        Assertions.assertEquals(3, cache.getMisses());
+        Assertions.assertEquals(1, cache.getHits());
+        Assertions.assertEquals(0.25, cache.getHitRatio());
+    }
+
+    private static ByteString bytes(int size) {
+        return ByteString.copyFrom(new byte[size]);
+    }
+}
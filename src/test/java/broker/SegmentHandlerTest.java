@@ -0,0 +1,116 @@
+package broker;
+
+import com.google.protobuf.ByteString;
+import metrics.MetricsRegistry;
+import org.junit.Test;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import protos.Kafka;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author Alberto Delgado on 5/8/22
+ * @project dsd-pub-sub
+ */
+public class SegmentHandlerTest {
+    private static final String TOPIC = "topic";
+    private static final int RECORD_BYTES = Constants.SEGMENT_MAX_BYTES / 4; // 4 records per segment
+
+    @Test
+    @DisplayName("should keep only the latest record of each key in rolled segments")
+    public void testCompact() {
+        SegmentHandler segmentHandler = compacted();
+        add(segmentHandler, "a", 1, "b", 2, "a", 3, "c", 4); // rolled
+        add(segmentHandler, "b", 5, "a", 6, "d", 7, "e", 8); // rolled
+        add(segmentHandler, "a", 9, "b", 10, "f", 11, "f", 12); // active
+
+        Assertions.assertEquals(5L * RECORD_BYTES, segmentHandler.cleanUp());
+        Assertions.assertEquals(Arrays.asList(4, 7, 8, 9, 10, 11, 12), ids(segmentHandler.get(TOPIC, -1)));
+    }
+
+    @Test
+    @DisplayName("should leave the active segment untouched")
+    public void testActiveSegment() {
+        SegmentHandler segmentHandler = compacted();
+        add(segmentHandler, "a", 1, "b", 2, "c", 3, "d", 4); // rolled, nothing to remove
+        add(segmentHandler, "e", 5, "e", 6, "e", 7); // active
+
+        Assertions.assertEquals(0, segmentHandler.cleanUp());
+        Assertions.assertEquals(Arrays.asList(1, 2, 3, 4, 5, 6, 7), ids(segmentHandler.get(TOPIC, -1)));
+    }
+
+    @Test
+    @DisplayName("should keep offsets when compacting segments already compacted")
+    public void testCompactAgain() {
+        SegmentHandler segmentHandler = compacted();
+        add(segmentHandler, "a", 1, "b", 2, "a", 3, "c", 4);
+        add(segmentHandler, "b", 5, "a", 6, "d", 7, "e", 8);
+        add(segmentHandler, "a", 9, "b", 10, "f", 11, "f", 12);
+        Map<Integer, Integer> offsets = offsets(segmentHandler.get(TOPIC, -1));
+        segmentHandler.cleanUp();
+
+        // rolls the active segment, compacted segments lose a record each
+        add(segmentHandler, "c", 13, "d", 14);
+        offsets.putAll(offsets(segmentHandler.get(TOPIC, offsets.get(12))));
+        Assertions.assertEquals(3L * RECORD_BYTES, segmentHandler.cleanUp());
+
+        List<Kafka.Record> records = segmentHandler.get(TOPIC, -1);
+        Assertions.assertEquals(Arrays.asList(8, 9, 10, 12, 13, 14), ids(records));
+        for (Kafka.Record record : records)
+            Assertions.assertEquals((int) offsets.get(id(record)), record.getOffset());
+
+        // fetching from an offset resolves within the compacted segments
+        Assertions.assertEquals(Arrays.asList(9, 10), ids(segmentHandler.get(TOPIC, offsets.get(8), 2)));
+        Assertions.assertEquals(Arrays.asList(13, 14), ids(segmentHandler.get(TOPIC, offsets.get(12))));
+    }
+
+    // segment handler with a compacted topic that reads every record from its segment
+    private static SegmentHandler compacted() {
+        SegmentHandler segmentHandler = new SegmentHandler("compaction-test-" + System.nanoTime() + "/", new MetricsRegistry(), 0);
+        segmentHandler.setCleanupPolicy(TOPIC, Constants.CLEANUP_POLICY_COMPACT);
+        return segmentHandler;
+    }
+
+    // persists (key, id) pairs, each record filled with its id
+    private static void add(SegmentHandler segmentHandler, Object... keysAndIds) {
+        List<Kafka.Record> records = new ArrayList<>();
+        for (int i = 0; i < keysAndIds.length; i += 2) {
+            byte[] value = new byte[RECORD_BYTES];
+            Arrays.fill(value, (byte) (int) keysAndIds[i + 1]);
+            records.add(Kafka.Record.newBuilder()
+                    .setTopic(TOPIC)
+                    .setKey(ByteString.copyFromUtf8((String) keysAndIds[i]))
+                    .setValue(ByteString.copyFrom(value))
+                    .build());
+        }
+        segmentHandler.add(TOPIC, records);
+    }
+
+    // id of a record, checking the whole value was read back
+    private static int id(Kafka.Record record) {
+        ByteString value = record.getValue();
+        Assertions.assertEquals(RECORD_BYTES, value.size());
+        Assertions.assertEquals(value.byteAt(0), value.byteAt(RECORD_BYTES - 1));
+        return value.byteAt(0);
+    }
+
+    private static List<Integer> ids(List<Kafka.Record> records) {
+        List<Integer> ids = new ArrayList<>();
+        for (Kafka.Record record : records)
+            ids.add(id(record));
+        return ids;
+    }
+
+    // offset of each record by id
+    private static Map<Integer, Integer> offsets(List<Kafka.Record> records) {
+        Map<Integer, Integer> offsets = new HashMap<>();
+        for (Kafka.Record record : records)
+            offsets.put(id(record), record.getOffset());
+        return offsets;
+    }
+}
@@ -0,0 +1,74 @@
+package broker;
+
+import com.google.protobuf.ByteString;
+import org.junit.Test;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import protos.Kafka;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author Alberto Delgado on 5/8/22
+ * @project dsd-pub-sub
+ */
+public class SyncCheckpointsTest {
+
+    @Test
+    @DisplayName("should resume a sync right after the last record received")
+    public void testResume() {
+        SegmentHandler leader = leaderWith("topic", 5);
+        SyncCheckpoints checkpoints = new SyncCheckpoints();
+
+        // first chunk arrives, then the connection is lost
+        List<Kafka.Record> chunk = leader.get("topic", -1, 2);
+        chunk.forEach(checkpoints::received);
+
+        List<Kafka.Record> rest = leader.get("topic", requested(checkpoints).get("topic"), 10);
+        Assertions.assertEquals(3, rest.size());
+        Assertions.assertEquals(chunk.get(1).getOffset() + 10, rest.get(0).getOffset());
+    }
+
+    @Test
+    @DisplayName("should not move checkpoints with in-memory records of a catch-up")
+    public void testInMemoryRecords() {
+        SegmentHandler leader = leaderWith("topic", 3);
+        SyncCheckpoints checkpoints = new SyncCheckpoints();
+
+        // catch-up sends in-memory records (no offset) of a topic with
+        // nothing persisted yet, then fails
+        checkpoints.received(Kafka.Record.newBuilder().setTopic("topic").build());
+        Assertions.assertFalse(requested(checkpoints).containsKey("topic"));
+
+        // retry asks for the topic from the beginning, first record included
+        Assertions.assertEquals(3, leader.get("topic", requested(checkpoints).getOrDefault("topic", -1), 10).size());
+    }
+
+    // persists n records of 10 bytes on a fresh segment handler
+    private static SegmentHandler leaderWith(String topic, int n) {
+        SegmentHandler segmentHandler = new SegmentHandler(System.getProperty("java.io.tmpdir") + "/sync-test-" + System.nanoTime() + "/");
+        List<Kafka.Record> records = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            records.add(Kafka.Record.newBuilder()
+                    .setTopic(topic)
+                    .setValue(ByteString.copyFrom(new byte[10]))
+                    .setTimestamp(i)
+                    .build());
+        }
+        segmentHandler.add(topic, records);
+        return segmentHandler;
+    }
+
+    // offsets a sync request would carry
+    private static Map<String, Integer> requested(SyncCheckpoints checkpoints) {
+        Kafka.Record.Builder request = Kafka.Record.newBuilder();
+        checkpoints.addTo(request);
+        Map<String, Integer> offsets = new HashMap<>();
+        for (Kafka.Record offset : request.getRecordsList())
+            offsets.put(offset.getTopic(), offset.getOffset());
+        return offsets;
+    }
+}
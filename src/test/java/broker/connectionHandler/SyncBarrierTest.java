@@ -0,0 +1,101 @@
+package broker.connectionHandler;
+
+import org.junit.Test;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Alberto Delgado on 4/22/22
+ * @project dsd-pub-sub
+ */
+public class SyncBarrierTest {
+
+    @Test
+    @DisplayName("should run publishes right away when not syncing")
+    public void testOpen() {
+        SyncBarrier barrier = new SyncBarrier(10);
+        List<Integer> published = new ArrayList<>();
+
+        barrier.publish(() -> published.add(1));
+
+        Assertions.assertEquals(1, published.size());
+        Assertions.assertFalse(barrier.isSyncing());
+    }
+
+    @Test
+    @DisplayName("should buffer publishes while syncing and run them in order on open")
+    public void testBuffered() {
+        SyncBarrier barrier = new SyncBarrier(10);
+        List<Integer> published = new ArrayList<>();
+
+        barrier.close();
+        for (int i = 0; i < 5; i++) {
+            int j = i;
+            barrier.publish(() -> published.add(j));
+        }
+        Assertions.assertTrue(published.isEmpty());
+        Assertions.assertTrue(barrier.isSyncing());
+
+        barrier.open();
+        Assertions.assertEquals(List.of(0, 1, 2, 3, 4), published);
+        Assertions.assertEquals(5, barrier.getBufferedPublishes());
+        Assertions.assertFalse(barrier.isSyncing());
+    }
+
+    @Test
+    @DisplayName("should count the time publishes spend buffered as blocked time")
+    public void testBufferedTime() throws InterruptedException {
+        SyncBarrier barrier = new SyncBarrier(10);
+
+        barrier.close();
+        barrier.publish(() -> {
+        });
+        Thread.sleep(50);
+        barrier.open();
+
+        Assertions.assertTrue(barrier.getBlockedTimeMs() >= 50);
+        Assertions.assertEquals(0, barrier.getBlockedPublishes());
+    }
+
+    @Test
+    @DisplayName("should block publisher when buffer is full until barrier opens")
+    public void testBlocked() throws InterruptedException {
+        SyncBarrier barrier = new SyncBarrier(1);
+        List<Integer> published = new ArrayList<>();
+
+        barrier.close();
+        barrier.publish(() -> published.add(0));
+        Thread publisher = new Thread(() -> barrier.publish(() -> published.add(1)));
+        publisher.start();
+
+        Thread.sleep(100);
+        Assertions.assertTrue(published.isEmpty());
+
+        barrier.open();
+        publisher.join(1000);
+        Assertions.assertEquals(List.of(0, 1), published);
+        Assertions.assertEquals(1, barrier.getBlockedPublishes());
+    }
+
+    @Test
+    @DisplayName("should stay closed until every sync has opened it")
+    public void testNestedSyncs() {
+        SyncBarrier barrier = new SyncBarrier(10);
+        List<Integer> published = new ArrayList<>();
+
+        barrier.close();
+        barrier.close();
+        barrier.publish(() -> published.add(0));
+
+        barrier.open();
+        Assertions.assertTrue(barrier.isSyncing());
+        Assertions.assertTrue(published.isEmpty());
+
+        barrier.open();
+        Assertions.assertFalse(barrier.isSyncing());
+        Assertions.assertEquals(1, published.size());
+    }
+}
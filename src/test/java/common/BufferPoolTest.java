@@ -0,0 +1,82 @@
+package common;
+
+import org.junit.Test;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+
+/**
+ * @author Alberto Delgado on 5/8/22
+ * @project dsd-pub-sub
+ */
+public class BufferPoolTest {
+
+    @Test
+    @DisplayName("should hand out buffers limited to the size requested")
+    public void testAcquire() {
+        BufferPool pool = new BufferPool(4096, 16 * 1024);
+        BufferPool.Buffer buffer = pool.acquire(300);
+
+        Assertions.assertEquals(300, buffer.nioBuffer().limit());
+        Assertions.assertEquals(512, buffer.nioBuffer().capacity()); // next power of two
+        Assertions.assertEquals(1, pool.getAllocations());
+    }
+
+    @Test
+    @DisplayName("should reuse released buffers instead of allocating")
+    public void testRecycle() {
+        BufferPool pool = new BufferPool(4096, 16 * 1024);
+        BufferPool.Buffer buffer = pool.acquire(1000);
+        buffer.release();
+        Assertions.assertEquals(1024, pool.getPooledBytes());
+
+        BufferPool.Buffer reused = pool.acquire(600);
+        Assertions.assertEquals(1, pool.getAllocations());
+        Assertions.assertEquals(0, pool.getPooledBytes());
+        Assertions.assertEquals(600, reused.nioBuffer().limit());
+        Assertions.assertEquals(0, reused.nioBuffer().position());
+    }
+
+    @Test
+    @DisplayName("should not pool buffers bigger than maxBufferSize")
+    public void testMaxBufferSize() {
+        BufferPool pool = new BufferPool(1024, 16 * 1024);
+        BufferPool.Buffer buffer = pool.acquire(2000);
+        Assertions.assertFalse(buffer.nioBuffer().isDirect());
+
+        buffer.release();
+        Assertions.assertEquals(0, pool.getPooledBytes());
+
+        pool.acquire(2000);
+        Assertions.assertEquals(2, pool.getAllocations());
+    }
+
+    @Test
+    @DisplayName("should stop pooling once it holds maxPooledBytes")
+    public void testMaxPooledBytes() {
+        BufferPool pool = new BufferPool(1024, 2048);
+        BufferPool.Buffer a = pool.acquire(1024);
+        BufferPool.Buffer b = pool.acquire(1024);
+        BufferPool.Buffer c = pool.acquire(1024);
+
+        a.release();
+        b.release();
+        c.release(); // pool is full, left to the GC
+        Assertions.assertEquals(2048, pool.getPooledBytes());
+
+        pool.acquire(1024);
+        pool.acquire(1024);
+        pool.acquire(1024);
+        Assertions.assertEquals(4, pool.getAllocations());
+    }
+
+    @Test
+    @DisplayName("should refuse to release a buffer twice")
+    public void testDoubleRelease() {
+        BufferPool pool = new BufferPool(4096, 16 * 1024);
+        BufferPool.Buffer buffer = pool.acquire(100);
+        buffer.release();
+
+        Assertions.assertThrows(IllegalStateException.class, buffer::release);
+        Assertions.assertEquals(256, pool.getPooledBytes()); // pooled only once
+    }
+}
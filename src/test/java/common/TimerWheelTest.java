@@ -0,0 +1,115 @@
+package common;
+
+import org.junit.Test;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Alberto Delgado on 5/8/22
+ * @project dsd-pub-sub
+ */
+public class TimerWheelTest {
+
+    @Test
+    @DisplayName("should run a task once after its delay")
+    public void testSchedule() throws InterruptedException {
+        TimerWheel timer = new TimerWheel(1, 64, 1);
+        try {
+            CountDownLatch ran = new CountDownLatch(1);
+            long start = System.nanoTime();
+
+            timer.schedule(ran::countDown, 20);
+
+            Assertions.assertTrue(ran.await(1, TimeUnit.SECONDS));
+            Assertions.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+        } finally {
+            timer.close();
+        }
+    }
+
+    @Test
+    @DisplayName("should wait several turns of the wheel for long delays")
+    public void testMultipleRounds() throws InterruptedException {
+        TimerWheel timer = new TimerWheel(1, 8, 1); // one turn every 8ms
+        try {
+            CountDownLatch ran = new CountDownLatch(1);
+            long start = System.nanoTime();
+
+            timer.schedule(ran::countDown, 50);
+
+            Assertions.assertTrue(ran.await(1, TimeUnit.SECONDS));
+            Assertions.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        } finally {
+            timer.close();
+        }
+    }
+
+    @Test
+    @DisplayName("should run periodic tasks until cancelled")
+    public void testFixedDelay() throws InterruptedException {
+        TimerWheel timer = new TimerWheel(1, 64, 1);
+        try {
+            AtomicInteger runs = new AtomicInteger();
+            CountDownLatch ranThrice = new CountDownLatch(3);
+
+            TimerWheel.Timeout timeout = timer.scheduleWithFixedDelay(() -> {
+                runs.incrementAndGet();
+                ranThrice.countDown();
+            }, 5, 5);
+            Assertions.assertTrue(ranThrice.await(1, TimeUnit.SECONDS));
+
+            timeout.cancel();
+            Thread.sleep(20); // a run in progress may still finish
+            int cancelledAt = runs.get();
+            Thread.sleep(50);
+            Assertions.assertEquals(cancelledAt, runs.get());
+        } finally {
+            timer.close();
+        }
+    }
+
+    @Test
+    @DisplayName("should not run cancelled tasks")
+    public void testCancel() throws InterruptedException {
+        TimerWheel timer = new TimerWheel(1, 64, 1);
+        try {
+            AtomicInteger runs = new AtomicInteger();
+
+            TimerWheel.Timeout timeout = timer.schedule(() -> {
+                runs.incrementAndGet();
+            }, 20);
+            timeout.cancel();
+            // cancelling the future of a callable cancels it too
+            timer.schedule(runs::incrementAndGet, 20).cancel(false);
+
+            Thread.sleep(60);
+            Assertions.assertTrue(timeout.isCancelled());
+            Assertions.assertEquals(0, runs.get());
+        } finally {
+            timer.close();
+        }
+    }
+
+    @Test
+    @DisplayName("should not run tasks once closed")
+    public void testClose() throws InterruptedException {
+        TimerWheel timer = new TimerWheel(1, 64, 1);
+        AtomicInteger runs = new AtomicInteger();
+
+        timer.schedule(runs::incrementAndGet, 20);
+        timer.close();
+
+        Thread.sleep(60);
+        Assertions.assertEquals(0, runs.get());
+    }
+
+    @Test
+    @DisplayName("should reject wheels of less than 2 buckets")
+    public void testWheelSize() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new TimerWheel(1, 1, 1));
+    }
+}
@@ -0,0 +1,83 @@
+package metrics;
+
+import org.junit.Test;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+
+/**
+ * @author Alberto Delgado on 5/5/22
+ * @project dsd-pub-sub
+ */
+public class MetricsRegistryTest {
+
+    @Test
+    @DisplayName("should return the same metric for the same name and labels")
+    public void testCounter() {
+        MetricsRegistry metrics = new MetricsRegistry();
+        metrics.counter("records_total", "Records", "topic", "a").inc();
+        metrics.counter("records_total", "Records", "topic", "a").add(2);
+        metrics.counter("records_total", "Records", "topic", "b").inc();
+
+        Assertions.assertEquals(3, metrics.counter("records_total", "Records", "topic", "a").get());
+        String scrape = metrics.scrape();
+        Assertions.assertTrue(scrape.contains("# TYPE records_total counter\n"));
+        Assertions.assertTrue(scrape.contains("records_total{topic=\"a\"} 3\n"));
+        Assertions.assertTrue(scrape.contains("records_total{topic=\"b\"} 1\n"));
+    }
+
+    @Test
+    @DisplayName("should report latencies as a summary in seconds")
+    public void testLatency() {
+        MetricsRegistry metrics = new MetricsRegistry();
+        Latency latency = metrics.latency("flush_seconds", "Flush");
+        latency.record(2_000_000); // 2ms
+        latency.record(2_000_000);
+
+        String scrape = metrics.scrape();
+        Assertions.assertTrue(scrape.contains("# TYPE flush_seconds summary\n"));
+        Assertions.assertTrue(scrape.contains("flush_seconds{quantile=\"0.5\"} 0.002\n"));
+        Assertions.assertTrue(scrape.contains("flush_seconds_sum 0.004\n"));
+        Assertions.assertTrue(scrape.contains("flush_seconds_count 2\n"));
+    }
+
+    @Test
+    @DisplayName("should report quantiles of recent scrapes only, sum and count since start")
+    public void testLatencyWindow() {
+        MetricsRegistry metrics = new MetricsRegistry();
+        Latency latency = metrics.latency("flush_seconds", "Flush");
+        latency.record(2_000_000_000L); // 2s spike
+        Assertions.assertTrue(metrics.scrape().contains("flush_seconds{quantile=\"0.5\"} 2.0"));
+
+        String scrape = "";
+        for (int i = 0; i < Latency.WINDOW; i++) {
+            latency.record(2_000_000); // 2ms
+            scrape = metrics.scrape();
+        }
+        Assertions.assertTrue(scrape.contains("flush_seconds{quantile=\"0.999\"} 0.002\n"));
+        Assertions.assertTrue(scrape.contains("flush_seconds_count 6\n"));
+    }
+
+    @Test
+    @DisplayName("should report counters kept elsewhere as counters")
+    public void testFunctionCounter() {
+        MetricsRegistry metrics = new MetricsRegistry();
+        long[] hits = {3};
+        metrics.counter("cache_hits_total", "Hits", () -> hits[0]);
+        hits[0] = 4;
+
+        String scrape = metrics.scrape();
+        Assertions.assertTrue(scrape.contains("# TYPE cache_hits_total counter\n"));
+        Assertions.assertTrue(scrape.contains("cache_hits_total 4\n"));
+    }
+
+    @Test
+    @DisplayName("should read gauges on scrape")
+    public void testGauge() {
+        MetricsRegistry metrics = new MetricsRegistry();
+        int[] depth = {5};
+        metrics.gauge("queue_depth", "Queue", () -> depth[0]);
+        depth[0] = 7;
+
+        Assertions.assertTrue(metrics.scrape().contains("queue_depth 7\n"));
+    }
+}
@@ -2,6 +2,10 @@ package zookeeper;
 
 import com.google.gson.Gson;
 import models.Node;
+import org.junit.Test;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import protos.ZK;
 
 /**
  * @author Alberto Delgado on 4/12/22
@@ -14,4 +18,38 @@ public class MembershipTableTest {
     private static final int BROKER_PORT = 5000;
     private static final String HOSTNAME = "localhost";
     private static final Node node = new Node(ID, HOSTNAME, ZK_PORT, BROKER_PORT);
-}
\ No newline at end of file
+
+    @Test
+    @DisplayName("should only return the changes after the given version")
+    public void testChangesSince() {
+        MembershipTable table = new MembershipTable();
+        table.addNode(new ZKNode(node, false));
+        table.addProducer(new Node(10, HOSTNAME, 6000));
+        int version = table.getVersion();
+
+        table.addProducer(new Node(10, HOSTNAME, 6000)); // already known
+        table.addConsumer(new Node(20, HOSTNAME, 7000));
+        table.addConsumer(new Node(20, HOSTNAME, 7000)); // same address
+
+        ZK.MembershipTable delta = table.changesSince(version);
+        Assertions.assertEquals(version + 1, table.getVersion());
+        Assertions.assertEquals(0, delta.getNodesCount());
+        Assertions.assertEquals(0, delta.getProducersCount());
+        Assertions.assertEquals(1, delta.getConsumersCount());
+        Assertions.assertEquals(0, table.changesSince(table.getVersion()).getConsumersCount());
+    }
+
+    @Test
+    @DisplayName("should return the whole table if the version is unknown or too old")
+    public void testChangesSinceFullTable() {
+        MembershipTable table = new MembershipTable();
+        table.addNode(new ZKNode(node, false));
+        for (int i = 0; i < Constants.MEMBERSHIP_CHANGELOG_CAPACITY + 1; i++)
+            table.addProducer(new Node(i, HOSTNAME, 6000 + i));
+
+        Assertions.assertEquals(1, table.changesSince(-1).getNodesCount());
+        Assertions.assertEquals(1, table.changesSince(0).getNodesCount()); // first change dropped from the log
+        Assertions.assertEquals(Constants.MEMBERSHIP_CHANGELOG_CAPACITY + 1, table.changesSince(0).getProducersCount());
+        Assertions.assertEquals(1, table.changesSince(table.getVersion() - 1).getProducersCount());
+    }
+}